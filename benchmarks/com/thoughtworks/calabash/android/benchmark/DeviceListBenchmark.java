@@ -0,0 +1,38 @@
+package com.thoughtworks.calabash.android.benchmark;
+
+import com.thoughtworks.calabash.android.DeviceList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the output of 'adb devices' for a single device and for a farm host
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeviceListBenchmark {
+
+    private static final String[] STATES = {"device", "offline", "no device"};
+    @Param({"1", "32"})
+    public int deviceCount;
+    private String output;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder builder = new StringBuilder(DeviceList.HEADER);
+        for (int i = 0; i < deviceCount; i++) {
+            builder.append(i % 2 == 0 ? "emulator-" + (5554 + i * 2) : "0123456789ABCD" + i)
+                    .append('\t').append(STATES[i % STATES.length]);
+        }
+        output = builder.toString();
+    }
+
+    @Benchmark
+    public DeviceList parse() {
+        return new DeviceList(output);
+    }
+}
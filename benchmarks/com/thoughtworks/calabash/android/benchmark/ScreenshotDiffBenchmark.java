@@ -0,0 +1,92 @@
+package com.thoughtworks.calabash.android.benchmark;
+
+import com.thoughtworks.calabash.android.Rect;
+import com.thoughtworks.calabash.android.Screenshot;
+import com.thoughtworks.calabash.android.ScreenshotDiff;
+import com.thoughtworks.calabash.android.ScreenshotDiffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing full HD screenshots which differ in a small region, with a masked status bar, on one thread and on
+ * every core, and rejecting unrelated screens through the perceptual hash
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScreenshotDiffBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private ExecutorService executor;
+    private ScreenshotDiffer sequential;
+    private ScreenshotDiffer parallel;
+    private Screenshot expected;
+    private Screenshot changed;
+    private Screenshot unrelated;
+
+    @Setup
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        Rect statusBar = new Rect(0.0, 0.0, (double) WIDTH, 72.0, WIDTH / 2.0, 36.0);
+        sequential = new ScreenshotDiffer();
+        sequential.mask(statusBar);
+        parallel = new ScreenshotDiffer(executor);
+        parallel.mask(statusBar);
+
+        expected = Screenshot.fromRaw(screen(0, false));
+        changed = Screenshot.fromRaw(screen(400, false));
+        unrelated = Screenshot.fromRaw(screen(0, true));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public ScreenshotDiff diffSequential() throws Exception {
+        return sequential.diff(expected, changed);
+    }
+
+    @Benchmark
+    public ScreenshotDiff diffParallel() throws Exception {
+        return parallel.diff(expected, changed);
+    }
+
+    @Benchmark
+    public ScreenshotDiff rejectByHash() throws Exception {
+        return sequential.diff(expected, unrelated);
+    }
+
+    // vertical gradient with a clock in the status bar and a changed block at the given row
+    private byte[] screen(int changedRow, boolean inverted) {
+        byte[] raw = new byte[12 + WIDTH * HEIGHT * 4];
+        int[] header = {WIDTH, HEIGHT, 1};
+        for (int i = 0; i < 12; i++) {
+            raw[i] = (byte) (header[i / 4] >>> (8 * (i % 4)));
+        }
+        long clock = System.nanoTime();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int gray = y * 255 / HEIGHT;
+                if (y < 72)
+                    gray = (int) ((clock + x) & 0xff);
+                else if (changedRow > 0 && y >= changedRow && y < changedRow + 48 && x < 200)
+                    gray = 255 - gray;
+                if (inverted)
+                    gray = 255 - gray;
+                int p = 12 + (y * WIDTH + x) * 4;
+                raw[p] = raw[p + 1] = raw[p + 2] = (byte) gray;
+                raw[p + 3] = (byte) 0xff;
+            }
+        }
+        return raw;
+    }
+}
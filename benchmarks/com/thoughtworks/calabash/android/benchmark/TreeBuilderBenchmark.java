@@ -0,0 +1,118 @@
+package com.thoughtworks.calabash.android.benchmark;
+
+import com.thoughtworks.calabash.android.*;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.thoughtworks.calabash.android.TestUtils.createViewDump;
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Serial and parallel tree construction over a synthetic view dump of 20k views, merging query ancestries into a
+ * tree and building single nodes from the nested view dump fixture
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TreeBuilderBenchmark {
+
+    private static final int VIEW_COUNT = 20000;
+    private TreeBuilder treeBuilder;
+    private ParallelTreeBuilder parallelTreeBuilder;
+    private static final int MERGED_VIEW_COUNT = 2000;
+    private TreeNodeBuilder treeNodeBuilder;
+    private ExecutorService executor;
+    private List<List<UIElement>> ancestries;
+    private List<JsonNode> fixtureNodes;
+
+    @Setup
+    public void setUp() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final CalabashHttpClient httpClient = mock(CalabashHttpClient.class);
+        when(httpClient.getViewDump()).thenReturn(createViewDump(VIEW_COUNT, 4));
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(parallelism);
+        treeBuilder = new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper));
+        parallelTreeBuilder = new ParallelTreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper), executor, parallelism);
+        treeNodeBuilder = new TreeNodeBuilder(wrapper);
+
+        final CalabashHttpClient smallDumpClient = mock(CalabashHttpClient.class);
+        when(smallDumpClient.getViewDump()).thenReturn(createViewDump(MERGED_VIEW_COUNT, 4));
+        ancestries = new ArrayList<List<UIElement>>();
+        for (TreeNode root : new TreeBuilder(wrapper, smallDumpClient, treeNodeBuilder).createTree()) {
+            collectAncestries(root, new ArrayList<UIElement>());
+        }
+
+        fixtureNodes = new ArrayList<JsonNode>();
+        collectJsonNodes(new ObjectMapper().readTree(readFileFromResources("nested-view-dump.json")));
+    }
+
+    // ancestries of the leaves ordered from the leaf up, the way queries for ancestors return them
+    private void collectAncestries(TreeNode node, List<UIElement> path) {
+        path.add(0, node.getData());
+        if (node.getChildren().isEmpty())
+            ancestries.add(new ArrayList<UIElement>(path));
+        for (TreeNode child : node.getChildren()) {
+            collectAncestries(child, path);
+        }
+        path.remove(0);
+    }
+
+    private void collectJsonNodes(JsonNode node) {
+        if (node.get("type") != null && node.path("rect").isObject())
+            fixtureNodes.add(node);
+        final JsonNode children = node.get("children");
+        if (children == null)
+            return;
+        final Iterator<JsonNode> elements = children.getElements();
+        while (elements.hasNext()) {
+            collectJsonNodes(elements.next());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public List<TreeNode> createTree() {
+        return treeBuilder.createTree();
+    }
+
+    @Benchmark
+    public List<TreeNode> createTreeInParallel() {
+        return parallelTreeBuilder.createTree();
+    }
+
+    @Benchmark
+    public List<TreeNode> merge() {
+        final List<TreeNode> roots = new ArrayList<TreeNode>();
+        for (List<UIElement> ancestry : ancestries) {
+            // merge reverses the list it is given
+            treeBuilder.merge(new ArrayList<UIElement>(ancestry), roots);
+        }
+        return roots;
+    }
+
+    @Benchmark
+    public void buildFrom(Blackhole blackhole) {
+        for (int i = 0; i < fixtureNodes.size(); i++) {
+            blackhole.consume(treeNodeBuilder.buildFrom(fixtureNodes.get(i), "* index:" + i));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.thoughtworks.calabash.android.benchmark;
+
+import com.thoughtworks.calabash.android.*;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyHash;
+import org.jruby.javasupport.JavaUtil;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Element identity, rect parsing and conversion of query results from ruby, over the elements of the view dump
+ * fixtures. Query results are built as ruby hashes the way the calabash gem returns them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UIElementBenchmark {
+
+    private static final String[] FIXTURES = {"simple-dump.json", "nested-view-dump.json", "simple-button.json"};
+    private static final String[] RECT_PROPERTIES = {"x", "y", "width", "height", "center_x", "center_y"};
+    private Ruby ruby;
+    private CalabashWrapper wrapper;
+    private List<UIElement> elements;
+    private List<UIElement> copies;
+    private RubyArray queryResult;
+
+    @Setup
+    public void setUp() throws Exception {
+        ruby = Ruby.newInstance();
+        wrapper = mock(CalabashWrapper.class);
+        final TreeNodeBuilder treeNodeBuilder = new TreeNodeBuilder(wrapper);
+        final ObjectMapper mapper = new ObjectMapper();
+        final List<JsonNode> jsonNodes = new ArrayList<JsonNode>();
+        for (String fixture : FIXTURES) {
+            collectJsonNodes(mapper.readTree(readFileFromResources(fixture)), jsonNodes);
+        }
+
+        elements = new ArrayList<UIElement>();
+        copies = new ArrayList<UIElement>();
+        final List<IRubyObject> rubyElements = new ArrayList<IRubyObject>();
+        for (int i = 0; i < jsonNodes.size(); i++) {
+            elements.add(treeNodeBuilder.buildFrom(jsonNodes.get(i), "* index:" + i).getData());
+            copies.add(treeNodeBuilder.buildFrom(jsonNodes.get(i), "* index:" + i).getData());
+            rubyElements.add(toRubyHash(jsonNodes.get(i)));
+        }
+        queryResult = RubyArray.newArray(ruby, rubyElements);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ruby.tearDown(false);
+    }
+
+    private void collectJsonNodes(JsonNode node, List<JsonNode> jsonNodes) {
+        if (node.isArray()) {
+            final Iterator<JsonNode> elements = node.getElements();
+            while (elements.hasNext()) {
+                collectJsonNodes(elements.next(), jsonNodes);
+            }
+            return;
+        }
+        if (node.get("type") != null && node.path("rect").isObject())
+            jsonNodes.add(node);
+        final JsonNode children = node.get("children");
+        if (children != null)
+            collectJsonNodes(children, jsonNodes);
+    }
+
+    // same shape as a query result element returned by the calabash gem
+    private RubyHash toRubyHash(JsonNode node) {
+        final Map<IRubyObject, IRubyObject> hash = new LinkedHashMap<IRubyObject, IRubyObject>();
+        put(hash, "class", text(node, "type"));
+        put(hash, "id", text(node, "id"));
+        put(hash, "text", text(node, "value"));
+        put(hash, "contentDescription", text(node, "label"));
+        put(hash, "enabled", node.get("enabled").getBooleanValue());
+        final JsonNode rectNode = node.get("rect");
+        if (rectNode != null && !rectNode.isNull()) {
+            final Map<IRubyObject, IRubyObject> rect = new LinkedHashMap<IRubyObject, IRubyObject>();
+            for (String property : RECT_PROPERTIES) {
+                put(rect, property, rectNode.get(property).getDoubleValue());
+            }
+            put(hash, "rect", RubyHash.newHash(ruby, rect, ruby.getNil()));
+        }
+        return RubyHash.newHash(ruby, hash, ruby.getNil());
+    }
+
+    private void put(Map<IRubyObject, IRubyObject> hash, String key, Object value) {
+        hash.put(JavaUtil.convertJavaToUsableRubyObject(ruby, key), JavaUtil.convertJavaToUsableRubyObject(ruby, value));
+    }
+
+    private static String text(JsonNode node, String property) {
+        final JsonNode value = node.get(property);
+        return value == null ? null : value.getTextValue();
+    }
+
+    @Benchmark
+    public int equalsAndHashCode() {
+        int matches = 0;
+        for (int i = 0; i < elements.size(); i++) {
+            final UIElement element = elements.get(i);
+            if (element.equals(copies.get(i)) && element.hashCode() == copies.get(i).hashCode())
+                matches++;
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public void getRect(Blackhole blackhole) {
+        for (UIElement element : elements) {
+            blackhole.consume(element.getRect());
+        }
+    }
+
+    // Utils is internal, the element constructor is the public path converting a query result with toJavaHash
+    @Benchmark
+    public void toJavaHash(Blackhole blackhole) {
+        for (int i = 0; i < queryResult.size(); i++) {
+            blackhole.consume(new UIElement((RubyHash) queryResult.get(i), "* index:" + i, wrapper));
+        }
+    }
+
+    @Benchmark
+    public UIElements createUIElements() throws CalabashException {
+        return new UIElements(queryResult, "* marked:'New Button'", wrapper);
+    }
+}
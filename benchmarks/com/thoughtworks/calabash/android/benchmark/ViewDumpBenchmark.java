@@ -0,0 +1,55 @@
+package com.thoughtworks.calabash.android.benchmark;
+
+import com.thoughtworks.calabash.android.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fetching and building the view hierarchy over HTTP from a {@link FakeTestServer}, for dumps of different sizes
+ * and simulated device round trips
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ViewDumpBenchmark {
+
+    @Param({"100", "5000"})
+    public int viewCount;
+    @Param({"0", "20"})
+    public long latencyInMs;
+    private FakeTestServer server;
+    private CalabashHttpClient httpClient;
+    private TreeBuilder treeBuilder;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new FakeTestServer().setViewDump(viewCount, 4).setLatency(latencyInMs).start();
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        when(wrapper.getTestServerPort()).thenReturn(String.valueOf(server.getPort()));
+        httpClient = new CalabashHttpClient(wrapper);
+        treeBuilder = new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public String fetchViewDump() {
+        return httpClient.getViewDump();
+    }
+
+    @Benchmark
+    public List<TreeNode> fetchAndBuildTree() {
+        return treeBuilder.createTree();
+    }
+}
@@ -0,0 +1,39 @@
+package com.thoughtworks.calabash.android.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a single interaction with a device or with adb
+ */
+@Name("com.thoughtworks.calabash.Operation")
+@Label("Calabash Operation")
+@Category({"Calabash", "Device"})
+@Description("Query, action, wait, view dump or adb command run against a device")
+@StackTrace(false)
+class CalabashOperationEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Query")
+    @Description("Query or arguments of the operation")
+    String query;
+
+    @Label("Serial")
+    String serial;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytes;
+
+    @Label("Retries")
+    int retries;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
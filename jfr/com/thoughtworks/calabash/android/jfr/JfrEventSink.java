@@ -0,0 +1,37 @@
+package com.thoughtworks.calabash.android.jfr;
+
+import com.thoughtworks.calabash.android.CalabashEventSink;
+import jdk.jfr.EventType;
+
+/**
+ * Emits {@link CalabashOperationEvent}s to Java Flight Recorder. Found by the library when this jar is on the
+ * classpath, no configuration is needed. Enable the events in a recording with
+ * <code>-XX:StartFlightRecording</code> or JDK Mission Control, they are on by default in the default settings.
+ */
+public class JfrEventSink implements CalabashEventSink {
+
+    private final EventType eventType = EventType.getEventType(CalabashOperationEvent.class);
+
+    public Object begin(String operation) {
+        // a cheap flag check while nothing is recording
+        if (!eventType.isEnabled())
+            return null;
+        CalabashOperationEvent event = new CalabashOperationEvent();
+        event.operation = operation;
+        event.begin();
+        return event;
+    }
+
+    public void commit(Object handle, String query, String serial, long bytes, int retries, boolean succeeded) {
+        CalabashOperationEvent event = (CalabashOperationEvent) handle;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.query = query;
+        event.serial = serial;
+        event.bytes = bytes;
+        event.retries = retries;
+        event.succeeded = succeeded;
+        event.commit();
+    }
+}
@@ -4,14 +4,21 @@ import org.jruby.RubyArray;
 import org.jruby.RubyHash;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import static java.lang.String.format;
 
 public class AndroidApplication {
     private String installedOn;
     private CalabashWrapper calabashWrapper;
+    private final LocalQueryEvaluator localQueryEvaluator = new LocalQueryEvaluator();
+    private final TreeDiffer treeDiffer = new TreeDiffer();
+    private final DumpScanner dumpScanner = new DumpScanner();
 
     public AndroidApplication(CalabashWrapper calabashWrapper, String serial) {
         this.calabashWrapper = calabashWrapper;
@@ -27,6 +34,55 @@ public class AndroidApplication {
         return new UIElements(array, query, calabashWrapper);
     }
 
+    /**
+     * Executes all the queries in a single evaluation instead of one call per query
+     *
+     * @param queries queries to be executed
+     * @return elements for each query in the same order, along with the time taken by each query
+     * @throws CalabashException
+     */
+    public BatchQueryResult queryAll(String... queries) throws CalabashException {
+        if (queries == null || queries.length == 0)
+            throw new CalabashException("No queries to execute");
+
+        RubyArray results = calabashWrapper.queryAll(queries);
+        return new BatchQueryResult(results, queries, calabashWrapper);
+    }
+
+    /**
+     * Answers the query from a view hierarchy snapshot not older than <code>maxAgeInMs</code> when the query is
+     * simple enough, see {@link LocalQueryEvaluator}. Other queries are executed on the device.
+     *
+     * @param query      query to be executed
+     * @param maxAgeInMs maximum acceptable age of the snapshot in milliseconds
+     * @return the elements found, whether the snapshot or the device answered and how long it took, including the
+     * time spent fetching the snapshot
+     * @throws CalabashException
+     */
+    public QueryResult queryFromSnapshot(String query, long maxAgeInMs) throws CalabashException {
+        if (localQueryEvaluator.isSupported(query)) {
+            long start = System.nanoTime();
+            ViewSnapshot snapshot = snapshot(maxAgeInMs);
+            long snapshotTimeInMicros = (System.nanoTime() - start) / 1000;
+            UIElements elements = localQueryEvaluator.evaluate(query, snapshot);
+            return new QueryResult(elements, QuerySource.SNAPSHOT, (System.nanoTime() - start) / 1000, snapshotTimeInMicros);
+        }
+
+        long start = System.nanoTime();
+        UIElements elements = query(query);
+        return new QueryResult(elements, QuerySource.DEVICE, (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Gets the hit and miss statistics of the query cache. The cache is enabled with
+     * {@link AndroidConfiguration#setQueryCacheTtlInMs(long)}
+     *
+     * @return statistics of the query cache
+     */
+    public CacheStatistics getQueryCacheStatistics() {
+        return calabashWrapper.getQueryCacheStatistics();
+    }
+
     /**
      * Fetches all elements in this application and executes callback for each
      * of them
@@ -35,7 +91,7 @@ public class AndroidApplication {
      * @throws CalabashException
      */
     public void inspect(InspectCallback callback) throws CalabashException {
-        List<TreeNode> tree = new TreeBuilder(calabashWrapper).createTree();
+        List<TreeNode> tree = calabashWrapper.getViewSnapshotService().snapshot().getRoots();
         if (tree.isEmpty()) return;
 
         for (TreeNode treeNode : tree) {
@@ -43,12 +99,47 @@ public class AndroidApplication {
         }
     }
 
+    /**
+     * Visits all elements in this application in the given order. The callback decides whether to go into the
+     * children of each element or to stop, so finding an element ends as soon as it is found.
+     *
+     * @param order    depth first or breadth first
+     * @param callback Callback to be executed for each visited element
+     * @return the element the traversal stopped at, null if every element was visited
+     * @throws CalabashException
+     */
+    public UIElement traverse(TraversalOrder order, TraversalCallback callback) throws CalabashException {
+        return TreeTraversal.traverse(calabashWrapper.getViewSnapshotService().snapshot().getRoots(), order, callback);
+    }
+
+    /**
+     * Streams the view dump of the screen and calls the visitor for each view without building the element tree.
+     * Memory use doesn't grow with the number of views, see {@link DumpScanner}. The dump is closed when done.
+     *
+     * @param visitor Visitor to be called for each view
+     * @throws CalabashException
+     */
+    public void scan(DumpVisitor visitor) throws CalabashException {
+        InputStream dump;
+        try {
+            dump = new CalabashHttpClient(calabashWrapper).openViewDump();
+        } catch (IOException e) {
+            throw new CalabashException("Could not fetch view dump", e);
+        }
+        dumpScanner.scan(dump, visitor);
+    }
+
     /**
      * @param dir      Existing directory where the screenshot is saved
      * @param fileName the name of the screenshot
      * @throws CalabashException
      */
     public void takeScreenshot(File dir, String fileName) throws CalabashException {
+        validateScreenshotTarget(dir, fileName);
+        calabashWrapper.takeScreenShot(dir, fileName);
+    }
+
+    private void validateScreenshotTarget(File dir, String fileName) throws CalabashException {
         if (dir == null)
             throw new CalabashException("Empty directory name");
         if (fileName == null)
@@ -58,8 +149,85 @@ public class AndroidApplication {
             throw new CalabashException(dir.getAbsolutePath() + " is not a directory");
         if (!dir.canWrite())
             throw new CalabashException(dir.getAbsolutePath() + " is not writeable");
+    }
 
-        calabashWrapper.takeScreenShot(dir, fileName);
+    /**
+     * Reads the screen straight from the device framebuffer into memory, as raw pixels. This is much quicker than
+     * {@link #takeScreenshot(File, String)}, which goes through the calabash helper and the disk.
+     *
+     * @return the screenshot
+     * @throws CalabashException
+     */
+    public Screenshot captureScreen() throws CalabashException {
+        return calabashWrapper.captureScreen(false);
+    }
+
+    /**
+     * Reads the screen straight from the device framebuffer into memory
+     *
+     * @param png true to have the device encode the screen as PNG, false for raw pixels
+     * @return the screenshot
+     * @throws CalabashException
+     */
+    public Screenshot captureScreen(boolean png) throws CalabashException {
+        return calabashWrapper.captureScreen(png);
+    }
+
+    /**
+     * Captures the screen and writes it as dir/fileName.png on a background thread. The screenshot listener is
+     * invoked once the file is written. When the screen is identical to a screenshot already written, nothing is
+     * written and the listener is given the earlier file.
+     *
+     * @return the file the screenshot is in, available once written
+     * @throws CalabashException
+     */
+    public Future<File> takeScreenshotInBackground(File dir, String fileName) throws CalabashException {
+        validateScreenshotTarget(dir, fileName);
+        Screenshot screenshot = calabashWrapper.captureScreen(false);
+        return calabashWrapper.getScreenshotSink().submit(screenshot, dir, fileName);
+    }
+
+    /**
+     * Gets the keyboard of the device this application is installed on. It reuses the environment of the runner
+     * and a shell kept open on the device, so typing costs no new adb process. Keyboards of applications on
+     * different devices can type in parallel.
+     *
+     * @return the keyboard, the same one on every call
+     * @throws CalabashException
+     */
+    public Keyboard keyboard() throws CalabashException {
+        return calabashWrapper.getKeyboard(installedOn);
+    }
+
+    /**
+     * Starts recording the screen to video in the background. The whole run is recorded however long it takes,
+     * to a new directory in the logs directory, or in the temp directory if logging is off. Needs Android 4.4 or
+     * later.
+     *
+     * @throws CalabashException
+     */
+    public void startRecording() throws CalabashException {
+        calabashWrapper.startRecording(null);
+    }
+
+    /**
+     * Starts recording the screen to video in the background
+     *
+     * @param options where to write the video and how much of it to keep
+     * @throws CalabashException
+     */
+    public void startRecording(ScreenRecordingOptions options) throws CalabashException {
+        calabashWrapper.startRecording(options);
+    }
+
+    /**
+     * Stops recording the screen and waits for the video to be pulled from the device
+     *
+     * @return the recording
+     * @throws CalabashException
+     */
+    public ScreenRecording stopRecording() throws CalabashException {
+        return calabashWrapper.stopRecording();
     }
 
     /**
@@ -241,14 +409,76 @@ public class AndroidApplication {
      * Gets all the root elements available This can be used to make a tree view
      * of all the elements available in the view currently
      *
-     * @return list of root elements if available, null otherwise
+     * @return copy of the root elements the caller is free to change, empty if the screen has no visible views
      * @throws CalabashException
      */
     public List<TreeNode> getRootElements() throws CalabashException {
-        final CalabashHttpClient calabashHttpClient = new CalabashHttpClient(calabashWrapper);
-        final TreeNodeBuilder treeNodeBuilder = new TreeNodeBuilder(calabashWrapper);
-        final TreeBuilder treeBuilder = new TreeBuilder(calabashWrapper, calabashHttpClient, treeNodeBuilder);
-        return treeBuilder.createTree();
+        return copyOf(calabashWrapper.getViewSnapshotService().snapshot().getRoots());
+    }
+
+    // the snapshot and its index are shared, so callers get nodes of their own
+    private static List<TreeNode> copyOf(List<TreeNode> nodes) {
+        List<TreeNode> copies = new ArrayList<TreeNode>();
+        for (TreeNode node : nodes) {
+            TreeNode copy = new TreeNode(node.getData());
+            for (TreeNode child : copyOf(node.getChildren())) {
+                copy.appendChild(child);
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Gets a snapshot of the view hierarchy which is not older than <code>maxAgeInMs</code>. The last snapshot is
+     * reused when it is fresh enough and no action was performed since, so conditions polling the screen don't
+     * fetch the view dump each time.
+     *
+     * @param maxAgeInMs maximum acceptable age of the snapshot in milliseconds
+     * @return the snapshot
+     * @throws CalabashException
+     */
+    public ViewSnapshot snapshot(long maxAgeInMs) throws CalabashException {
+        return calabashWrapper.getViewSnapshotService().snapshot(maxAgeInMs);
+    }
+
+    /**
+     * Gets a snapshot of the view hierarchy like {@link #snapshot(long)} in the compact form meant for keeping
+     * many snapshots in memory
+     *
+     * @param maxAgeInMs maximum acceptable age of the snapshot in milliseconds
+     * @return the compact snapshot
+     * @throws CalabashException
+     */
+    public CompactViewSnapshot compactSnapshot(long maxAgeInMs) throws CalabashException {
+        return new CompactViewSnapshot(snapshot(maxAgeInMs), calabashWrapper);
+    }
+
+    /**
+     * Takes a new snapshot of the view hierarchy and finds what changed since the given one. Subtrees which did
+     * not change are skipped, see {@link TreeDiffer}
+     *
+     * @param snapshot earlier snapshot to compare with
+     * @return changes between the given snapshot and the screen now
+     * @throws CalabashException
+     */
+    public ViewDiff diffSince(ViewSnapshot snapshot) throws CalabashException {
+        if (snapshot == null)
+            throw new CalabashException("Snapshot to compare with is null");
+
+        return treeDiffer.diff(snapshot, snapshot(0));
+    }
+
+    /**
+     * Performs a gesture built with {@link GestureBuilder}, like a path through several points, a fling or a pinch.
+     * The whole gesture is sent to the device in one call and played as raw touchscreen events, so there is no
+     * pause between its segments. Needs Android 6.0 or later.
+     *
+     * @param gesture the gesture, in screen coordinates
+     * @throws CalabashException if the touchscreen of the device can't track as many fingers as the gesture uses
+     */
+    public void perform(Gesture gesture) throws CalabashException {
+        calabashWrapper.perform(installedOn, gesture);
     }
 
     /**
@@ -1,6 +1,7 @@
 package com.thoughtworks.calabash.android;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
@@ -18,13 +19,26 @@ public class AndroidBridge {
     private DeviceList newDeviceList;
     public static final int POLL_RATE_IN_SECONDS = 5;
 
+    private final CalabashMetrics metrics;
+    private final TraceRecorder trace;
+
     public AndroidBridge(Environment environment) {
+        this(environment, null, TraceRecorder.DISABLED);
+    }
+
+    /**
+     * @param metrics metrics every adb command is timed into, null to not time them
+     * @param trace   recorder the emulator boot steps are traced to
+     */
+    public AndroidBridge(Environment environment, CalabashMetrics metrics, TraceRecorder trace) {
         this.environment = environment;
+        this.metrics = metrics;
+        this.trace = trace;
     }
 
     public boolean isAppInstalled(String appPackageName, final String serialNo) throws CalabashException {
         String[] cmd = new String[]{environment.getAdb(), "-s", serialNo, "shell", "pm", "path", appPackageName};
-        String output = Utils.runCommand(cmd, format("could not check if app %s is installed on %s", appPackageName, serialNo));
+        String output = runCommand(cmd, format("could not check if app %s is installed on %s", appPackageName, serialNo));
         return output.contains(appPackageName);
     }
 
@@ -37,7 +51,9 @@ public class AndroidBridge {
         }
         String deviceName = configuration.getDeviceName();
         if (deviceName != null) {
+            long start = trace.begin();
             final String newSerial = launchEmulatorWithName(deviceName);
+            trace.end(start, "emulator", "launchEmulator " + deviceName, newSerial);
             if (newSerial == null) {
                 CalabashLogger.error("Could not find launched emulator's serial from device list");
                 throw new CalabashException("Emulator launch Failed");
@@ -55,8 +71,12 @@ public class AndroidBridge {
                     return isPackageManagerAvailable(newSerial);
                 }
             });
+            start = trace.begin();
             waitForBootAnim.run(configuration.getTimeToWaitInSecForEmulatorLaunch() / POLL_RATE_IN_SECONDS, POLL_RATE_IN_SECONDS);
+            trace.end(start, "emulator", "waitForBootAnimation", newSerial);
+            start = trace.begin();
             waitForPackageManager.run(5, POLL_RATE_IN_SECONDS);
+            trace.end(start, "emulator", "waitForPackageManager", newSerial);
             unlockKeyguard(newSerial);
             return newSerial;
         }
@@ -138,22 +158,51 @@ public class AndroidBridge {
         return null;
     }
     
+    /**
+     * @deprecated sends to the only connected device, use {@link #sendTextEvent(String, String)}
+     */
+    @Deprecated
     public void sendTextEvent(String text) throws CalabashException {
-    	Utils.runCommand(getSendTextEventCommand(text), "Could not send text event");
+        sendTextEvent(null, text);
     }
-    
-    public void sendKeyEvent(String text) throws CalabashException {
-    	Utils.runCommand(getSendKeyEventCommand(text), "Could not send key event");
+
+    /**
+     * @deprecated sends to the only connected device, use {@link #sendKeyEvent(String, String)}
+     */
+    @Deprecated
+    public void sendKeyEvent(String keyCode) throws CalabashException {
+        sendKeyEvent(null, keyCode);
+    }
+
+    public void sendTextEvent(String serial, String text) throws CalabashException {
+        sendInput(serial, new KeySequence().text(text));
+    }
+
+    public void sendKeyEvent(String serial, String keyCode) throws CalabashException {
+        sendInput(serial, new KeySequence().key(keyCode));
+    }
+
+    /**
+     * Types the key sequence with one shell invocation, or a few for long sequences. <code>input</code> waits for
+     * the app to handle every event it injects, so the input has settled when this returns.
+     *
+     * @param serial serial of the device, null when only one device is connected
+     * @throws CalabashException
+     */
+    public void sendInput(String serial, KeySequence sequence) throws CalabashException {
+        for (String script : sequence.toShellCommands()) {
+            runCommand(getShellCommand(serial, script), "Could not send input events");
+        }
     }
 
     private DeviceList getDeviceList() throws CalabashException {
-        String listDeviceOutput = Utils.runCommand(getDeviceListCommand(), "could not list all devices");
+        String listDeviceOutput = runCommand(getDeviceListCommand(), "could not list all devices");
         return new DeviceList(listDeviceOutput);
     }
 
     private boolean isBootAnimationOver(String serial) throws CalabashException {
         String[] bootAnimationCommand = getBootAnimationCommand(serial);
-        String result = Utils.runCommand(bootAnimationCommand);
+        String result = runCommand(bootAnimationCommand);
         return result.equals(BOOT_ANIM_STOPPED);
     }
 
@@ -171,12 +220,12 @@ public class AndroidBridge {
 
     public void unlockKeyguard(String serial) throws CalabashException {
         String[] unlockCommand = {environment.getAdb(), "-s", serial, "shell", "input", "keyevent", "82"};
-        Utils.runCommand(unlockCommand, "failed to unlock the keyguard");
+        runCommand(unlockCommand, "failed to unlock the keyguard");
     }
 
     private boolean isPackageManagerAvailable(String serial) throws CalabashException {
         String[] deviceReadyCommand = getPackageManagerAvailableCommand(serial);
-        String output = Utils.runCommand(deviceReadyCommand);
+        String output = runCommand(deviceReadyCommand);
         return output.contains("package");
     }
 
@@ -196,11 +245,132 @@ public class AndroidBridge {
         return new String[]{environment.getAdb(), "-s", serial, "shell", "pm", "path", "android"};
     }
     
-    private String[] getSendKeyEventCommand(String event) {
-    	return new String[]{environment.getAdb(), "shell", "input", "keyevent", event};
+    private String[] getShellCommand(String serial, String script) {
+        if (serial == null)
+            return new String[]{environment.getAdb(), "shell", script};
+        return new String[]{environment.getAdb(), "-s", serial, "shell", script};
     }
-    
-    private String[] getSendTextEventCommand(String text) {
-    	return new String[]{environment.getAdb(), "shell", "input", "text", text};
+
+    /**
+     * Reads the screen of the device straight into memory
+     *
+     * @param png true to have the device encode the screen as PNG, false for the raw pixels, which is quicker
+     * @return the screenshot
+     * @throws CalabashException
+     */
+    public Screenshot screencap(String serial, boolean png) throws CalabashException {
+        String[] command = png ? new String[]{environment.getAdb(), "-s", serial, "exec-out", "screencap", "-p"}
+                : new String[]{environment.getAdb(), "-s", serial, "exec-out", "screencap"};
+        String operation = operationOf(command);
+        long start = System.nanoTime();
+        Object event = CalabashEvents.begin(operation);
+        byte[] output = null;
+        try {
+            output = Utils.runCommandForBytes(command, format("could not capture the screen of %s", serial));
+            return png ? Screenshot.fromPng(output) : Screenshot.fromRaw(output);
+        } finally {
+            if (metrics != null)
+                metrics.record(operation, serial, System.nanoTime() - start, output != null);
+            if (event != null)
+                CalabashEvents.commit(event, Utils.getStringFromArray(command), serial, output == null ? 0 : output.length, 0, output != null);
+        }
+    }
+
+    /**
+     * Starts recording the screen of the device to a file on the device. The recording stops on its own after the
+     * time limit, which is at most 180 seconds, or when {@link #stopScreenRecord(String, String)} is called. The
+     * first line the process prints is the pid of screenrecord on the device, see
+     * {@link #readScreenRecordPid(Process)}.
+     *
+     * @return the adb process, which exits when the recording is finished
+     * @throws CalabashException
+     */
+    public Process startScreenRecord(String serial, String remotePath, int timeLimitInSec) throws CalabashException {
+        // exec keeps the pid of the shell, so the pid echoed is the one of screenrecord
+        String script = format("echo $$; exec screenrecord --time-limit %d %s", timeLimitInSec, remotePath);
+        String[] command = {environment.getAdb(), "-s", serial, "shell", script};
+        return Utils.runCommandInBackGround(command, format("could not start recording the screen of %s", serial));
+    }
+
+    /**
+     * Reads the pid of screenrecord on the device, once per recording. Waits until the recording has started.
+     *
+     * @param recording process returned by {@link #startScreenRecord(String, String, int)}
+     * @return the pid, null if adb exited without starting screenrecord
+     */
+    public String readScreenRecordPid(Process recording) throws CalabashException {
+        String line;
+        try {
+            line = new BufferedReader(new InputStreamReader(recording.getInputStream())).readLine();
+        } catch (IOException e) {
+            throw new CalabashException("could not read the pid of screenrecord", e);
+        }
+        if (line == null || !line.trim().matches("\\d+"))
+            return null;
+        return line.trim();
+    }
+
+    /**
+     * Interrupts a screen recording in progress, screenrecord finishes the file before exiting. Other recordings
+     * running on the device are left alone.
+     *
+     * @param pid pid of screenrecord, see {@link #readScreenRecordPid(Process)}
+     */
+    public void stopScreenRecord(String serial, String pid) throws CalabashException {
+        // SIGINT by number, the toolbox kill of older devices doesn't know signal names
+        String[] command = {environment.getAdb(), "-s", serial, "shell", "kill", "-2", pid};
+        runCommand(command);
+    }
+
+    public void pullFile(String serial, String remotePath, File localFile) throws CalabashException {
+        String[] command = {environment.getAdb(), "-s", serial, "pull", remotePath, localFile.getAbsolutePath()};
+        runCommand(command, format("could not pull %s from %s", remotePath, serial));
+    }
+
+    public void removeFile(String serial, String remotePath) throws CalabashException {
+        String[] command = {environment.getAdb(), "-s", serial, "shell", "rm", "-f", remotePath};
+        runCommand(command, format("could not remove %s from %s", remotePath, serial));
+    }
+
+    private String runCommand(String[] command) throws CalabashException {
+        return runCommand(command, null);
+    }
+
+    private String runCommand(String[] command, String onExceptionMessage) throws CalabashException {
+        String operation = operationOf(command);
+        long start = System.nanoTime();
+        Object event = CalabashEvents.begin(operation);
+        String output = null;
+        try {
+            output = onExceptionMessage == null ? Utils.runCommand(command) : Utils.runCommand(command, onExceptionMessage);
+            return output;
+        } finally {
+            if (metrics != null)
+                metrics.record(operation, serialOf(command), System.nanoTime() - start, output != null);
+            if (event != null)
+                CalabashEvents.commit(event, Utils.getStringFromArray(command), serialOf(command),
+                        CalabashEvents.utf8Length(output), 0, output != null);
+        }
+    }
+
+    // 'adb shell getprop' for shell commands, 'adb exec-out screencap', 'adb devices' and the like otherwise
+    static String operationOf(String[] command) {
+        int i = 1;
+        if (command.length > 2 && command[1].equals("-s"))
+            i = 3;
+        StringBuilder operation = new StringBuilder("adb");
+        if (i < command.length)
+            operation.append(' ').append(command[i]);
+        if (i + 1 < command.length && (command[i].equals("shell") || command[i].equals("exec-out"))) {
+            // scripts passed as a single argument are named after their first command
+            String program = command[i + 1].trim();
+            int end = program.indexOf(' ');
+            operation.append(' ').append(end == -1 ? program : program.substring(0, end));
+        }
+        return operation.toString();
+    }
+
+    private static String serialOf(String[] command) {
+        return command.length > 2 && command[1].equals("-s") ? command[2] : "";
     }
 }
@@ -1,6 +1,10 @@
 package com.thoughtworks.calabash.android;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 public class AndroidConfiguration {
     private String androidHome;
@@ -10,8 +14,18 @@ public class AndroidConfiguration {
     private boolean shouldReinstallApp = false;
     private String deviceName;
     private ScreenshotListener screenshotListener;
+    private int screenshotWorkers = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private final List<MetricsListener> metricsListeners = new ArrayList<MetricsListener>();
+    private TraceRecorder traceRecorder = TraceRecorder.DISABLED;
+    private final Map<LogCategory, LogLevel> logLevels = new EnumMap<LogCategory, LogLevel>(LogCategory.class);
     private long pauseTimeInMs = -1;
     private int timeToWaitInSecForEmulatorLaunch = 180;
+    private long queryCacheTtlInMs = 0;
+    private long viewSnapshotMaxAgeInMs = 0;
+    private int treeBuilderThreads = 1;
+    private File recordingFile;
+    private File replayFile;
+    private ReplayTiming replayTiming = ReplayTiming.AS_FAST_AS_POSSIBLE;
 
     /**
      * Gets the boolean value indicating whether logging is enabled
@@ -22,6 +36,29 @@ public class AndroidConfiguration {
         return getLogsDirectory() != null;
     }
 
+    /**
+     * Sets the least severe messages logged for a category, like turning off command output while keeping the
+     * rest. Takes effect when the runner is created. Defaults to INFO
+     *
+     * @param category
+     *      Category of messages
+     * @param level
+     *      Least severe level written, OFF to write none
+     */
+    public void setLogLevel(LogCategory category, LogLevel level) {
+        logLevels.put(category, level);
+    }
+
+    /**
+     * Gets the least severe messages logged for a category
+     *
+     * @return the level set, INFO if none was set
+     */
+    public LogLevel getLogLevel(LogCategory category) {
+        LogLevel level = logLevels.get(category);
+        return level == null ? LogLevel.INFO : level;
+    }
+
     /**
      * Gets the directory where log files are created
      *
@@ -182,6 +219,67 @@ public class AndroidConfiguration {
         this.screenshotListener = screenshotListener;
     }
 
+    /**
+     * Sets the number of threads screenshots taken in the background are encoded and written by. Defaults to the
+     * number of processors, at most 4
+     *
+     * @param screenshotWorkers
+     *            Number of threads, at least 1
+     */
+    public void setScreenshotWorkers(int screenshotWorkers) {
+        this.screenshotWorkers = Math.max(1, screenshotWorkers);
+    }
+
+    /**
+     * Gets the number of threads screenshots taken in the background are written by
+     *
+     * @return number of threads
+     */
+    public int getScreenshotWorkers() {
+        return screenshotWorkers;
+    }
+
+    /**
+     * Adds a listener which is invoked with the latency of every call made to the device and to adb
+     *
+     * @param metricsListener
+     *                  MetricsListener instance
+     */
+    public void addMetricsListener(MetricsListener metricsListener) {
+        metricsListeners.add(metricsListener);
+    }
+
+    /**
+     * Gets the metrics listeners
+     *
+     * @return
+     *  the listeners added, empty if none
+     */
+    public List<MetricsListener> getMetricsListeners() {
+        return metricsListeners;
+    }
+
+    /**
+     * Records setup phases, emulator boot steps, device calls, pauses and waits as spans which can be written in the
+     * Chrome trace format once the run is over
+     *
+     * @param traceRecorder
+     *                  TraceRecorder instance, null to turn tracing off
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder == null ? TraceRecorder.DISABLED : traceRecorder;
+    }
+
+    /**
+     * Gets the trace recorder
+     *
+     * @return
+     *  the recorder set, {@link TraceRecorder#DISABLED} if none
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
     /**
      * Sets the pause time in milliseconds.
      *
@@ -222,4 +320,119 @@ public class AndroidConfiguration {
     public int getTimeToWaitInSecForEmulatorLaunch() {
         return timeToWaitInSecForEmulatorLaunch;
     }
+
+    /**
+     * Enables caching of query results and element properties for the given time. Any action performed on the
+     * application clears the cache, and nothing is cached while waiting for a condition. Defaults to 0, which
+     * disables the cache.
+     *
+     * @param queryCacheTtlInMs
+     *            Milliseconds a query result is remembered for
+     */
+    public void setQueryCacheTtlInMs(long queryCacheTtlInMs) {
+        this.queryCacheTtlInMs = queryCacheTtlInMs;
+    }
+
+    /**
+     * Gets the time query results are cached for
+     *
+     * @return time to live in milliseconds, 0 if caching is disabled
+     */
+    public long getQueryCacheTtlInMs() {
+        return queryCacheTtlInMs;
+    }
+
+    /**
+     * Sets how old a view hierarchy snapshot can be for inspect and getRootElements to reuse it instead of
+     * fetching a new view dump. A snapshot is never reused after an action. Defaults to 0, where callers only
+     * share a fetch that is already running.
+     *
+     * @param viewSnapshotMaxAgeInMs
+     *            Maximum age of a reused snapshot in milliseconds
+     */
+    public void setViewSnapshotMaxAgeInMs(long viewSnapshotMaxAgeInMs) {
+        this.viewSnapshotMaxAgeInMs = viewSnapshotMaxAgeInMs;
+    }
+
+    /**
+     * Gets the maximum age of a reused view hierarchy snapshot
+     *
+     * @return age in milliseconds
+     */
+    public long getViewSnapshotMaxAgeInMs() {
+        return viewSnapshotMaxAgeInMs;
+    }
+
+    /**
+     * Sets the number of threads a view dump is turned into a tree by, see {@link ParallelTreeBuilder}. Defaults
+     * to 1, building on the calling thread, which is the quickest unless the hierarchy has thousands of views
+     *
+     * @param treeBuilderThreads
+     *            Number of threads, at least 1
+     */
+    public void setTreeBuilderThreads(int treeBuilderThreads) {
+        this.treeBuilderThreads = Math.max(1, treeBuilderThreads);
+    }
+
+    /**
+     * Gets the number of threads a view dump is turned into a tree by
+     *
+     * @return number of threads
+     */
+    public int getTreeBuilderThreads() {
+        return treeBuilderThreads;
+    }
+
+    /**
+     * Records every query, action and view dump along with its response and latency to the given file, so the
+     * run can be replayed later without a device. Ignored while replaying. The query cache and view snapshot reuse
+     * depend on timing, so they are disabled while recording or replaying.
+     *
+     * @param recordingFile
+     *            File to write the recording to, null to disable recording
+     */
+    public void setRecordingFile(File recordingFile) {
+        this.recordingFile = recordingFile;
+    }
+
+    /**
+     * Gets the file calls are recorded to
+     *
+     * @return the recording file, null if recording is disabled
+     */
+    public File getRecordingFile() {
+        return recordingFile;
+    }
+
+    /**
+     * Serves queries, actions and view dumps from a recording instead of a device. No emulator is launched and
+     * the app is neither built nor installed. Calls which were not recorded fail with a CalabashException.
+     *
+     * @param replayFile
+     *            Recording made with {@link #setRecordingFile(File)}, null to disable replaying
+     * @param timing
+     *            Whether to return responses right away or after their recorded latency
+     */
+    public void setReplayFile(File replayFile, ReplayTiming timing) {
+        this.replayFile = replayFile;
+        this.replayTiming = timing == null ? ReplayTiming.AS_FAST_AS_POSSIBLE : timing;
+    }
+
+    /**
+     * Gets the recording calls are served from
+     *
+     * @return the recording, null if replaying is disabled
+     */
+    public File getReplayFile() {
+        return replayFile;
+    }
+
+    /**
+     * Gets how recorded responses are timed when replaying
+     *
+     * @return the replay timing
+     */
+    public ReplayTiming getReplayTiming() {
+        return replayTiming;
+    }
 }
@@ -65,8 +65,15 @@ public class AndroidRunner {
      * @throws CalabashException
      */
     public void setup() throws CalabashException {
+        if (calabashWrapper.isReplaying()) {
+            CalabashLogger.info("Replaying from %s, skipping setup", configuration.getReplayFile().getAbsolutePath());
+            return;
+        }
+        TraceRecorder trace = calabashWrapper.getTraceRecorder();
+        long start = trace.begin();
         try {
             calabashWrapper.setup();
+            trace.end(start, "setup", "setup", null);
         } catch (Exception e) {
             String errorMessage = "calabash android setup failed: " + e.getMessage();
             CalabashLogger.error(errorMessage, e);
@@ -81,14 +88,23 @@ public class AndroidRunner {
      * @throws CalabashException
      */
     public AndroidApplication start() throws CalabashException {
+        if (calabashWrapper.isReplaying()) {
+            String serial = configuration.getSerial() == null ? "replay" : configuration.getSerial();
+            return new AndroidApplication(calabashWrapper, serial);
+        }
         if (!alreadySetup()) {
             CalabashLogger.info("Application not setup. Performing setup...");
             setup();
         }
-        AndroidBridge androidBridge = new AndroidBridge(environment);
+        TraceRecorder trace = calabashWrapper.getTraceRecorder();
+        AndroidBridge androidBridge = new AndroidBridge(environment, calabashWrapper.getMetrics(), trace);
+        long start = trace.begin();
         String serial = androidBridge.launchEmulator(configuration);
+        trace.end(start, "setup", "findDevice", serial);
         CalabashLogger.info("Using the serial: %s", serial);
+        start = trace.begin();
         calabashWrapper.start(serial);
+        trace.end(start, "setup", "startApp", serial);
 
         return new AndroidApplication(calabashWrapper, serial);
     }
@@ -224,6 +240,7 @@ public class AndroidRunner {
      */
     public void dispose() throws CalabashException {
         calabashWrapper.dispose();
+        CalabashLogger.flush();
     }
 
 }
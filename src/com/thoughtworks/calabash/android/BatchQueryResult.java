@@ -0,0 +1,68 @@
+package com.thoughtworks.calabash.android;
+
+import org.jruby.RubyArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Results of queries executed together in a single batch. Holds one {@link UIElements} per query in the order
+ * the queries were given along with the time each query took inside the batch.
+ */
+public final class BatchQueryResult extends ArrayList<UIElements> {
+
+    private static final long serialVersionUID = -4361390145525876519L;
+    private final List<String> queries = new ArrayList<String>();
+    private final List<Long> queryTimesInMs = new ArrayList<Long>();
+
+    public BatchQueryResult(RubyArray results, String[] queries, CalabashWrapper wrapper) throws CalabashException {
+        if (results.size() != queries.length)
+            throw new CalabashException(String.format("Expected results for %d queries, got %d", queries.length, results.size()));
+
+        for (int i = 0; i < queries.length; i++) {
+            try {
+                RubyArray queryResult = (RubyArray) results.get(i);
+                this.add(new UIElements((RubyArray) queryResult.get(0), queries[i], wrapper));
+                this.queries.add(queries[i]);
+                this.queryTimesInMs.add(Long.parseLong(queryResult.get(1).toString()));
+            } catch (CalabashException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CalabashException("Unsupported batch result format.\n" + results.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Gets the query executed at the given position of the batch
+     *
+     * @param index position of the query in the batch
+     * @return the query
+     */
+    public String getQuery(int index) {
+        return queries.get(index);
+    }
+
+    /**
+     * Gets the time taken by the query at the given position of the batch
+     *
+     * @param index position of the query in the batch
+     * @return time taken in milliseconds
+     */
+    public long getQueryTimeInMs(int index) {
+        return queryTimesInMs.get(index);
+    }
+
+    /**
+     * Gets the sum of the time taken by all the queries in the batch
+     *
+     * @return total time in milliseconds
+     */
+    public long getTotalQueryTimeInMs() {
+        long total = 0;
+        for (Long time : queryTimesInMs) {
+            total += time;
+        }
+        return total;
+    }
+}
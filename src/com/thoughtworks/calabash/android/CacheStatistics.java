@@ -0,0 +1,50 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Point in time statistics of a cache
+ */
+public final class CacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long invalidations;
+
+    public CacheStatistics(long hits, long misses, long invalidations) {
+        this.hits = hits;
+        this.misses = misses;
+        this.invalidations = invalidations;
+    }
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups that had to go to the device
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of times the cache was cleared because of an action
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return ratio of hits to all the lookups, 0 if there were no lookups
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public String toString() {
+        return String.format("hits: %d, misses: %d, invalidations: %d, hit ratio: %.2f", hits, misses, invalidations, getHitRatio());
+    }
+}
@@ -0,0 +1,42 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Receives an event for every device interaction, meant for profilers like Java Flight Recorder which want the
+ * start and the end of the interaction on their own timeline. The sink is looked up once, see
+ * {@link #SINK_PROPERTY}.
+ */
+public interface CalabashEventSink {
+
+    /**
+     * System property naming the sink class. Defaults to the Java Flight Recorder sink, which is used when the
+     * calabash-android-java-jfr jar is on the classpath and the JVM supports flight recording.
+     */
+    String SINK_PROPERTY = "calabash.eventSink";
+
+    /**
+     * Called when an interaction starts, it has to return quickly when the sink isn't recording
+     *
+     * @param operation
+     *            Name of the operation, like query, touch or 'adb shell'
+     * @return handle passed to {@link #commit}, null if the interaction is not recorded
+     */
+    Object begin(String operation);
+
+    /**
+     * Called when an interaction recorded by {@link #begin(String)} ends
+     *
+     * @param event
+     *            Handle returned by begin
+     * @param query
+     *            Query or arguments of the interaction, empty if it has none
+     * @param serial
+     *            Serial of the device, empty if not known
+     * @param bytes
+     *            Number of bytes received, 0 if not known
+     * @param retries
+     *            Number of times the interaction was retried
+     * @param succeeded
+     *            false if the interaction failed
+     */
+    void commit(Object event, String query, String serial, long bytes, int retries, boolean succeeded);
+}
@@ -0,0 +1,72 @@
+package com.thoughtworks.calabash.android;
+
+import static com.thoughtworks.calabash.android.CalabashLogger.info;
+
+/**
+ * Holds the {@link CalabashEventSink} found at startup. Without a sink, marking an interaction costs a single
+ * field read: begin returns null, and callers build the arguments of commit only when the event isn't null.
+ */
+final class CalabashEvents {
+
+    private static final String DEFAULT_SINK = "com.thoughtworks.calabash.android.jfr.JfrEventSink";
+    private static volatile CalabashEventSink sink = loadSink();
+
+    private CalabashEvents() {
+    }
+
+    private static CalabashEventSink loadSink() {
+        String className = System.getProperty(CalabashEventSink.SINK_PROPERTY, DEFAULT_SINK);
+        try {
+            CalabashEventSink loaded = (CalabashEventSink) Class.forName(className).newInstance();
+            info("Emitting calabash events to %s", className);
+            return loaded;
+        } catch (Throwable e) {
+            // not on the classpath, or flight recording is not supported by this JVM
+            return null;
+        }
+    }
+
+    static Object begin(String operation) {
+        CalabashEventSink current = sink;
+        return current == null ? null : current.begin(operation);
+    }
+
+    static void commit(Object event, String query, String serial, long bytes, int retries, boolean succeeded) {
+        CalabashEventSink current = sink;
+        if (event != null && current != null)
+            current.commit(event, query == null ? "" : query, serial == null ? "" : serial, bytes, retries, succeeded);
+    }
+
+    /**
+     * Replaces the sink, for tests
+     *
+     * @return the sink used so far
+     */
+    static CalabashEventSink setSink(CalabashEventSink newSink) {
+        CalabashEventSink previous = sink;
+        sink = newSink;
+        return previous;
+    }
+
+    /**
+     * @return number of bytes the text takes in UTF-8, 0 for null
+     */
+    static long utf8Length(String text) {
+        if (text == null)
+            return 0;
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80)
+                bytes++;
+            else if (c < 0x800)
+                bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else
+                bytes += 3;
+        }
+        return bytes;
+    }
+}
@@ -1,5 +1,7 @@
 package com.thoughtworks.calabash.android;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -12,9 +14,18 @@ import static java.lang.String.format;
 
 public class CalabashHttpClient {
     private static final String TEST_SERVER_DUMP_URL = "http://localhost:%s/dump";
+    private static final String DUMP_OPERATION = "dump";
+    private static final String METRICS_OPERATION = "getViewDump";
+    private static final String STREAM_OPERATION = "openViewDump";
     private URL url;
+    private TransportRecorder recorder;
+    private TransportReplayer replayer;
+    private CalabashMetrics metrics;
 
     public CalabashHttpClient(CalabashWrapper calabashWrapper) {
+        this.metrics = calabashWrapper.getMetrics();
+        this.recorder = calabashWrapper.getRecorder();
+        this.replayer = calabashWrapper.getReplayer();
         try {
             final int serverPort = parseInt(calabashWrapper.getTestServerPort());
             url = new URL(format(TEST_SERVER_DUMP_URL, serverPort));
@@ -26,17 +37,150 @@ public class CalabashHttpClient {
     }
 
     public String getViewDump() {
-        String dump = "{}";
         try {
-            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            final InputStream stream = connection.getInputStream();
-            dump = Utils.toString(stream);
-        } catch (IOException e) {
-            CalabashLogger.error("Could not fetch view dump", e);
+            return fetchViewDump();
         } catch (CalabashException e) {
             error("Could not fetch view dump", e);
+            return "{}";
+        }
+    }
+
+    /**
+     * Same as {@link #getViewDump()}, but a dump that can't be fetched is reported instead of being read as an
+     * empty hierarchy
+     *
+     * @return the view dump JSON
+     * @throws CalabashException
+     */
+    public String fetchViewDump() throws CalabashException {
+        String dump = "";
+        final long start = System.nanoTime();
+        final Object event = CalabashEvents.begin(METRICS_OPERATION);
+        boolean succeeded = false;
+        try {
+            if (replayer != null) {
+                TransportReplayer.Response response = replayer.next(DUMP_OPERATION, "");
+                if (response.getError() != null)
+                    throw new CalabashException(response.getError());
+                dump = response.getResult();
+            } else {
+                dump = fetchFromServer(start);
+            }
+            succeeded = true;
+        } finally {
+            if (metrics != null)
+                metrics.record(METRICS_OPERATION, System.nanoTime() - start, succeeded);
+            if (event != null)
+                CalabashEvents.commit(event, "", metrics == null ? "" : metrics.getSerial(), CalabashEvents.utf8Length(dump), 0, succeeded);
         }
         return dump;
     }
+
+    private String fetchFromServer(long start) throws CalabashException {
+        CalabashException failure;
+        try {
+            String dump = Utils.toString(connect());
+            if (recorder != null)
+                recorder.record(DUMP_OPERATION, "", (System.nanoTime() - start) / 1000000, dump, null);
+            return dump;
+        } catch (IOException e) {
+            failure = new CalabashException("Could not fetch view dump. " + e.getMessage(), e);
+        } catch (CalabashException e) {
+            failure = e;
+        }
+        // failures are recorded too, so a replay fails at the same call
+        if (recorder != null)
+            recorder.record(DUMP_OPERATION, "", (System.nanoTime() - start) / 1000000, null, failure.getMessage());
+        throw failure;
+    }
+
+    /**
+     * Opens the view dump for reading it as it arrives. The caller has to close the stream. The call is timed
+     * until the stream is closed, and fails if reading it fails.
+     *
+     * @return stream of the view dump JSON
+     * @throws IOException
+     */
+    public InputStream openViewDump() throws IOException {
+        if (replayer != null || recorder != null)
+            // recorded dumps are read whole
+            return new ByteArrayInputStream(getViewDump().getBytes("UTF-8"));
+
+        final long start = System.nanoTime();
+        final Object event = CalabashEvents.begin(STREAM_OPERATION);
+        try {
+            return new MeteredStream(connect(), start, event);
+        } catch (IOException e) {
+            streamFinished(start, event, 0, false);
+            throw e;
+        }
+    }
+
+    private void streamFinished(long start, Object event, long bytes, boolean succeeded) {
+        if (metrics != null)
+            metrics.record(STREAM_OPERATION, System.nanoTime() - start, succeeded);
+        if (event != null)
+            CalabashEvents.commit(event, "", metrics == null ? "" : metrics.getSerial(), bytes, 0, succeeded);
+    }
+
+    private InputStream connect() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        return connection.getInputStream();
+    }
+
+    /**
+     * Counts the bytes read and records the streamed dump once it is closed
+     */
+    private final class MeteredStream extends FilterInputStream {
+        private final long start;
+        private final Object event;
+        private long bytes;
+        private boolean failed;
+        private boolean closed;
+
+        private MeteredStream(InputStream in, long start, Object event) {
+            super(in);
+            this.start = start;
+            this.event = event;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int read = super.read();
+                if (read >= 0)
+                    bytes++;
+                return read;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int read = super.read(buffer, offset, length);
+                if (read > 0)
+                    bytes += read;
+                return read;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                streamFinished(start, event, bytes, !failed);
+            }
+        }
+    }
 }
@@ -4,11 +4,35 @@ import org.apache.log4j.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Writes the log on a background thread so a step never waits for the disk. Messages are queued after a level
+ * check. Only messages whose arguments are strings, boxed primitives or enums are queued unformatted and formatted
+ * by the writer thread, any other message is formatted on the caller thread so the log shows the arguments as they
+ * were when logged and their toString, which may call the device, runs where it is expected. When the queue is full
+ * new messages are dropped and counted, the count is written to the log once there is room again.
+ * <p/>
+ * Call sites with one or two arguments use the fixed argument methods, which don't allocate an array for
+ * messages which are not logged. Arguments which cost something to build, like a joined command line, are built
+ * after checking {@link #isInfoEnabled(LogCategory)}.
+ */
 class CalabashLogger {
 
-    private static boolean shouldLog = false;
+    static final int QUEUE_CAPACITY = 8192;
+    private static final long FLUSH_TIMEOUT_IN_MS = 5000;
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_CAPACITY);
+    private static final AtomicLong enqueued = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile boolean shouldLog = false;
+    private static volatile LogLevel[] levels = defaultLevels();
     private static Logger log = null;
+    private static Thread writer;
+    private static long reportedDrops = 0;
 
     public static void initialize(AndroidConfiguration configuration)
             throws CalabashException {
@@ -28,6 +52,12 @@ class CalabashLogger {
                 log.setAdditivity(false);
                 log.addAppender(fileAppender);
                 log.setLevel(Level.INFO);
+                LogLevel[] configured = defaultLevels();
+                for (LogCategory category : LogCategory.values()) {
+                    configured[category.ordinal()] = configuration.getLogLevel(category);
+                }
+                levels = configured;
+                startWriter();
                 shouldLog = true;
             } catch (IOException e) {
                 throw new CalabashException("Can't setup logging system. " + e.getMessage(), e);
@@ -35,38 +65,199 @@ class CalabashLogger {
         }
     }
 
+    private static LogLevel[] defaultLevels() {
+        LogLevel[] defaults = new LogLevel[LogCategory.values().length];
+        Arrays.fill(defaults, LogLevel.INFO);
+        return defaults;
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null)
+            return;
+        writer = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        write(queue.take());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "calabash-logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, "calabash-logger-flush"));
+    }
+
+    public static boolean isInfoEnabled(LogCategory category) {
+        return shouldLog && levels[category.ordinal()] == LogLevel.INFO;
+    }
+
+    public static boolean isErrorEnabled(LogCategory category) {
+        return shouldLog && levels[category.ordinal()] != LogLevel.OFF;
+    }
+
     public static void info(Object message) {
-        if (shouldLog && isNotEmpty(message)) {
-            log.info(message);
-        }
+        if (isInfoEnabled(LogCategory.GENERAL))
+            enqueue(false, message, null, null);
+    }
+
+    public static void info(String message, Object arg) {
+        if (isInfoEnabled(LogCategory.GENERAL))
+            enqueue(false, message, new Object[]{arg}, null);
     }
 
-    private static boolean isNotEmpty(Object message) {
-        return !(message == null || message.toString().isEmpty());
+    public static void info(String message, Object firstArg, Object secondArg) {
+        if (isInfoEnabled(LogCategory.GENERAL))
+            enqueue(false, message, new Object[]{firstArg, secondArg}, null);
     }
 
     public static void info(String message, Object... args) {
-        if (shouldLog && isNotEmpty(message))
-            log.info(String.format(message, args));
+        if (isInfoEnabled(LogCategory.GENERAL))
+            enqueue(false, message, args, null);
+    }
+
+    public static void info(LogCategory category, Object message) {
+        if (isInfoEnabled(category))
+            enqueue(false, message, null, null);
+    }
+
+    public static void info(LogCategory category, String message, Object arg) {
+        if (isInfoEnabled(category))
+            enqueue(false, message, new Object[]{arg}, null);
+    }
+
+    public static void info(LogCategory category, String message, Object... args) {
+        if (isInfoEnabled(category))
+            enqueue(false, message, args, null);
     }
 
     public static void error(Object message) {
-        if (shouldLog && isNotEmpty(message))
-            log.error(message);
+        if (isErrorEnabled(LogCategory.GENERAL))
+            enqueue(true, message, null, null);
     }
 
     public static void error(String message, Object... args) {
-        if (shouldLog && isNotEmpty(message))
-            log.error(String.format(message, args));
+        if (isErrorEnabled(LogCategory.GENERAL))
+            enqueue(true, message, args, null);
     }
 
     public static void error(String message, Throwable cause, Object... args) {
-        if (shouldLog && isNotEmpty(message))
-            log.error(String.format(message, args), cause);
+        if (isErrorEnabled(LogCategory.GENERAL))
+            enqueue(true, message, args, cause);
     }
 
     public static void error(Object message, Throwable cause) {
-        if (shouldLog && isNotEmpty(message))
-            log.error(message, cause);
+        if (isErrorEnabled(LogCategory.GENERAL))
+            enqueue(true, message, null, cause);
+    }
+
+    public static void error(LogCategory category, Object message) {
+        if (isErrorEnabled(category))
+            enqueue(true, message, null, null);
+    }
+
+    /**
+     * Waits for the queued messages to be written, for a few seconds at most
+     */
+    public static void flush() {
+        long target = enqueued.get();
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_IN_MS;
+        while (written.get() < target && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of messages dropped because the queue was full
+     */
+    static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static void enqueue(boolean isError, Object message, Object[] args, Throwable cause) {
+        if (message == null)
+            return;
+        Entry entry = new Entry(isError, message, args, cause);
+        if (!canDefer(message, args)) {
+            try {
+                entry = new Entry(isError, entry.format(), null, cause);
+            } catch (RuntimeException e) {
+                // a bad format string or toString must not fail the caller
+                entry = new Entry(true, "Could not format log message", null, e);
+            }
+        }
+        if (queue.offer(entry))
+            enqueued.incrementAndGet();
+        else
+            dropped.incrementAndGet();
+    }
+
+    private static boolean canDefer(Object message, Object[] args) {
+        if (!(message instanceof String))
+            return false;
+        if (args != null) {
+            for (Object arg : args) {
+                if (!isImmutable(arg))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isImmutable(Object arg) {
+        return arg == null || arg instanceof String || arg instanceof Enum
+                || arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte
+                || arg instanceof Double || arg instanceof Float || arg instanceof Boolean || arg instanceof Character;
+    }
+
+    private static void write(Entry entry) {
+        try {
+            long drops = dropped.get();
+            if (drops > reportedDrops) {
+                log.warn(String.format("Log queue was full, dropped %d messages", drops - reportedDrops));
+                reportedDrops = drops;
+            }
+            String text = entry.format();
+            if (text.isEmpty())
+                return;
+            if (entry.isError)
+                log.error(text, entry.cause);
+            else
+                log.info(text);
+        } catch (RuntimeException e) {
+            // a bad format string or toString must not stop the writer
+            log.error("Could not write log message", e);
+        } finally {
+            written.incrementAndGet();
+        }
+    }
+
+    private static final class Entry {
+        private final boolean isError;
+        private final Object message;
+        private final Object[] args;
+        private final Throwable cause;
+
+        Entry(boolean isError, Object message, Object[] args, Throwable cause) {
+            this.isError = isError;
+            this.message = message;
+            this.args = args;
+            this.cause = cause;
+        }
+
+        String format() {
+            return args == null ? message.toString() : String.format(message.toString(), args);
+        }
     }
 }
@@ -0,0 +1,136 @@
+package com.thoughtworks.calabash.android;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.thoughtworks.calabash.android.CalabashLogger.error;
+
+/**
+ * Latency histograms of the calls made to a device, one per operation and device serial. Every query, action,
+ * wait, screenshot, view dump and adb command is timed and passed on to the registered {@link MetricsListener}s.
+ * <p/>
+ * The metrics can be read over JMX under <code>com.thoughtworks.calabash.android:type=CalabashMetrics,id=N</code>
+ * once {@link #registerMBean()} is called, where N tells apart the instances of the same JVM.
+ */
+public class CalabashMetrics implements CalabashMetricsMXBean {
+
+    private static final String MBEAN_NAME = "com.thoughtworks.calabash.android:type=CalabashMetrics,id=%d";
+    private static final AtomicInteger instances = new AtomicInteger();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final List<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+    private volatile String serial = "";
+    private ObjectName mbeanName;
+
+    public CalabashMetrics() {
+    }
+
+    public CalabashMetrics(List<MetricsListener> listeners) {
+        this.listeners.addAll(listeners);
+    }
+
+    public void addListener(MetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the serial operations are tagged with when they don't name a device
+     */
+    void setSerial(String serial) {
+        this.serial = serial == null ? "" : serial;
+    }
+
+    String getSerial() {
+        return serial;
+    }
+
+    /**
+     * Records an operation against the device this instance is tagged with
+     */
+    public void record(String operation, long durationInNanos, boolean succeeded) {
+        record(operation, serial, durationInNanos, succeeded);
+    }
+
+    public void record(String operation, String serial, long durationInNanos, boolean succeeded) {
+        serial = serial == null ? "" : serial;
+        String key = serial.length() == 0 ? operation : operation + " " + serial;
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram existing = histograms.putIfAbsent(key, histogram = new LatencyHistogram());
+            if (existing != null)
+                histogram = existing;
+        }
+        histogram.record(durationInNanos, succeeded);
+
+        for (MetricsListener listener : listeners) {
+            try {
+                listener.operationCompleted(operation, serial, durationInNanos, succeeded);
+            } catch (RuntimeException e) {
+                error("Metrics listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the latency statistics of an operation
+     *
+     * @return the statistics, all zero if the operation never ran
+     */
+    public LatencyStatistics getStatistics(String operation, String serial) {
+        LatencyHistogram histogram = histograms.get(serial == null || serial.length() == 0 ? operation : operation + " " + serial);
+        return histogram == null ? new LatencyHistogram().getStatistics() : histogram.getStatistics();
+    }
+
+    public LatencyStatistics getStatistics(String operation) {
+        return getStatistics(operation, serial);
+    }
+
+    public Map<String, LatencyStatistics> getStatistics() {
+        Map<String, LatencyStatistics> statistics = new TreeMap<String, LatencyStatistics>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().getStatistics());
+        }
+        return statistics;
+    }
+
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * Registers this instance with the platform MBean server. Failures are logged and otherwise ignored.
+     */
+    public synchronized void registerMBean() {
+        if (mbeanName != null)
+            return;
+        try {
+            ObjectName name = new ObjectName(String.format(MBEAN_NAME, instances.incrementAndGet()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            mbeanName = name;
+        } catch (Exception e) {
+            error("Could not register metrics MBean", e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (mbeanName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (Exception e) {
+            error("Could not unregister metrics MBean", e);
+        } finally {
+            mbeanName = null;
+        }
+    }
+}
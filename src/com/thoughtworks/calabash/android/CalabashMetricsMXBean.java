@@ -0,0 +1,19 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link CalabashMetrics}
+ */
+public interface CalabashMetricsMXBean {
+
+    /**
+     * @return latency statistics keyed by operation and device serial, like "query emulator-5554"
+     */
+    Map<String, LatencyStatistics> getStatistics();
+
+    /**
+     * Clears all the recorded latencies
+     */
+    void reset();
+}
@@ -16,9 +16,14 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.thoughtworks.calabash.android.CalabashLogger.error;
 import static com.thoughtworks.calabash.android.CalabashLogger.info;
@@ -28,6 +33,7 @@ import static java.lang.String.format;
 public class CalabashWrapper {
     public static final String QUERY_STRING = "cajQueryString";
     public static final String QUERY_ARGS = "cajQueryArgs";
+    public static final String QUERY_STRINGS = "cajQueryStrings";
     public static final String SCREENSHOT_PREFIX = "cajPrefix";
     public static final String SCREENSHOT_FILENAME = "cajFileName";
     public static final String PREFERENCE_NAME = "cajPreferenceName";
@@ -45,6 +51,9 @@ public class CalabashWrapper {
     private static final String TEST_SERVER_PATH = "TEST_APP_PATH";
     private static final String ACTION = "cajAction";
     private static final String ACTION_ARGS = "cajActionArgs";
+    private static final String RECORDED_RESULT = "cajRecordedResult";
+    private static final int DEFAULT_WAIT_TIMEOUT_IN_SEC = 10;
+    private static final String REPLAYED_RESULT = "cajReplayedResult";
     private final ScriptingContainer container = new ScriptingContainer(LocalContextScope.SINGLETHREAD, LocalVariableBehavior.PERSISTENT);
     private final File rbScriptsPath;
     private final File apk;
@@ -53,6 +62,22 @@ public class CalabashWrapper {
     private File gemsDir;
     private AndroidBridge androidBridge;
     private boolean disposed = false;
+    private final AtomicLong actionCount = new AtomicLong();
+    private final QueryCache queryCache;
+    private ViewSnapshotService viewSnapshotService;
+    private ExecutorService treeBuilderExecutor;
+    private volatile boolean waiting = false;
+    private final TransportRecorder recorder;
+    private final TransportReplayer replayer;
+    private final CalabashMetrics metrics;
+    private final TraceRecorder trace;
+    private ScreenshotSink screenshotSink;
+    private ScreenRecorder screenRecorder;
+    private final Map<String, DeviceShell> deviceShells = new HashMap<String, DeviceShell>();
+    private final Map<String, Keyboard> keyboards = new HashMap<String, Keyboard>();
+    private final Map<String, Touchscreen> touchscreens = new HashMap<String, Touchscreen>();
+    private volatile String serial = "";
+    private volatile String testServerPort;
     private long pauseTimeInMilliSec = 500;
 
     public CalabashWrapper(File rbScriptsPath, File apk, AndroidConfiguration configuration, Environment environment) throws CalabashException {
@@ -61,10 +86,21 @@ public class CalabashWrapper {
         this.apk = apk;
         this.configuration = configuration;
         this.environment = environment;
-        this.androidBridge = new AndroidBridge(environment);
+        this.metrics = new CalabashMetrics(configuration == null ? new ArrayList<MetricsListener>() : configuration.getMetricsListeners());
+        this.trace = configuration == null ? TraceRecorder.DISABLED : configuration.getTraceRecorder();
+        if (trace.isEnabled())
+            metrics.addListener(trace);
+        this.androidBridge = new AndroidBridge(environment, metrics, trace);
         this.initializeScriptingContainer();
         if (configuration != null && configuration.getPauseTimeInMs() >= 0)
             pauseTimeInMilliSec = configuration.getPauseTimeInMs();
+        this.replayer = configuration == null || configuration.getReplayFile() == null ? null
+                : new TransportReplayer(configuration.getReplayFile(), configuration.getReplayTiming());
+        this.recorder = replayer != null || configuration == null || configuration.getRecordingFile() == null ? null
+                : new TransportRecorder(configuration.getRecordingFile());
+        this.queryCache = new QueryCache(getQueryCacheTtlInMs());
+        // last, so a failed construction doesn't leave a registered MBean keeping this wrapper alive
+        this.metrics.registerMBean();
 
     }
 
@@ -111,11 +147,15 @@ public class CalabashWrapper {
 
             container.put(ARGV, new String[]{"resign", apk.getAbsolutePath()});
             String calabashAndroid = new File(getCalabashGemDirectory(), "calabash-android").getAbsolutePath();
+            long start = trace.begin();
             container.runScriptlet(PathType.ABSOLUTE, calabashAndroid);
+            trace.end(start, "setup", "resign", null);
             info("Done signing the app");
 
             container.put(ARGV, new String[]{"build", apk.getAbsolutePath()});
+            start = trace.begin();
             container.runScriptlet(PathType.ABSOLUTE, calabashAndroid);
+            trace.end(start, "setup", "build", null);
             info("App build complete");
         } catch (Exception e) {
             error("Failed to setup calabash for project: %s", e, apk.getAbsolutePath());
@@ -124,6 +164,9 @@ public class CalabashWrapper {
     }
 
     public void start(String serial) throws CalabashException {
+        this.serial = serial;
+        this.testServerPort = null;
+        metrics.setSerial(serial);
         try {
             addRequiresAndIncludes("Calabash::Android::Operations");
             addSystemCommandHack();
@@ -134,15 +177,20 @@ public class CalabashWrapper {
             addContainerEnv(TEST_SERVER_PATH, testServerPath);
 
             String packageName = container.runScriptlet("package_name(ENV['APP_PATH'])").toString();
+            long start = trace.begin();
             if (configuration.shouldReinstallApp() || !androidBridge.isAppInstalled(packageName, serial)) {
                 info("Reinstalling app %s and test server on %s", packageName, serial);
                 container.runScriptlet("reinstall_apps");
+                trace.end(start, "setup", "reinstallApps", serial);
             } else {
                 info("Reinstalling test server on %s", serial);
                 container.runScriptlet("reinstall_test_server");
+                trace.end(start, "setup", "reinstallTestServer", serial);
             }
 
+            start = trace.begin();
             container.runScriptlet("start_test_server_in_background");
+            trace.end(start, "setup", "startTestServer", serial);
             info("Started the app");
         } catch (Exception e) {
             error("Error starting the app: ", e);
@@ -264,17 +312,25 @@ public class CalabashWrapper {
 
     public RubyArray query(String query, String... args) throws CalabashException {
         ensureNotDisposed();
+        // conditions being waited for must always see the device
+        String cacheKey = waiting ? null : QueryCache.key(query, args);
+        RubyArray cachedResults = cacheKey == null ? null : queryCache.get(cacheKey);
+        if (cachedResults != null)
+            return cachedResults;
+
         try {
-            info("Executing query - %s", query);
+            info(LogCategory.QUERY, "Executing query - %s", query);
             container.put(QUERY_STRING, query);
             container.put(QUERY_ARGS, args);
 
             RubyArray queryResults = null;
             if (args != null && args.length > 0)
-                queryResults = (RubyArray) container.runScriptlet(String.format("query(%s, *%s)", QUERY_STRING, QUERY_ARGS));
+                queryResults = (RubyArray) runScriptlet("query", QueryCache.key(query, args), String.format("query(%s, *%s)", QUERY_STRING, QUERY_ARGS));
             else
-                queryResults = (RubyArray) container.runScriptlet(String.format("query(%s)", QUERY_STRING));
+                queryResults = (RubyArray) runScriptlet("query", QueryCache.key(query), String.format("query(%s)", QUERY_STRING));
 
+            if (cacheKey != null)
+                queryCache.put(cacheKey, queryResults);
             return queryResults;
         } catch (Exception e) {
             error("Execution of query: %s, failed", e, query);
@@ -282,6 +338,40 @@ public class CalabashWrapper {
         }
     }
 
+    /**
+     * Runs all the queries in a single ruby evaluation. Each entry of the result is a pair of the query results and
+     * the time taken by that query in milliseconds
+     */
+    public RubyArray queryAll(String... queries) throws CalabashException {
+        ensureNotDisposed();
+        try {
+            info(LogCategory.QUERY, "Executing %d queries in batch", queries.length);
+            container.put(QUERY_STRINGS, queries);
+            return (RubyArray) runScriptlet("queryAll", key((Object[]) queries), String.format("%s.map { |q| started = Time.now; [query(q), ((Time.now - started) * 1000).round] }", QUERY_STRINGS));
+        } catch (Exception e) {
+            error("Execution of batch queries: %s, failed", e, Utils.getStringFromArray(queries));
+            throw new CalabashException(String.format("Failed to execute batch queries. %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Runs <code>query</code> once for every selector in a single ruby evaluation. The result has an entry per
+     * selector holding that selector's value for each of the matched elements
+     */
+    public RubyArray queryProperties(String query, String... selectors) throws CalabashException {
+        ensureNotDisposed();
+        try {
+            if (CalabashLogger.isInfoEnabled(LogCategory.QUERY))
+                info(LogCategory.QUERY, "Fetching properties %s of %s", Utils.getStringFromArray(selectors), query);
+            container.put(QUERY_STRING, query);
+            container.put(QUERY_ARGS, selectors);
+            return (RubyArray) runScriptlet("queryProperties", key(query, key((Object[]) selectors)), String.format("%s.map { |s| query(%s, s) }", QUERY_ARGS, QUERY_STRING));
+        } catch (Exception e) {
+            error("Fetching properties of: %s, failed", e, query);
+            throw new CalabashException(String.format("Failed to fetch properties of '%s'. %s", query, e.getMessage()));
+        }
+    }
+
     public void touch(String query) throws CalabashException {
         try {
         	query = query.substring(0, query.indexOf("index:"));
@@ -291,9 +381,10 @@ public class CalabashWrapper {
         	 *   
         	 *   This could potentially by solved by not appending the index to the query in UIElements?
         	 */
-            info("Touching - %s", query);
+            info(LogCategory.QUERY, "Touching - %s", query);
             container.put(QUERY_STRING, query);
-            container.runScriptlet(String.format("touch(%s)", QUERY_STRING));
+            actionPerformed();
+            runScriptlet("touch", query, String.format("touch(%s)", QUERY_STRING));
             pause();
         } catch (Exception e) {
             error("Failed to touch on: %s", e, query);
@@ -307,7 +398,8 @@ public class CalabashWrapper {
             info("Entering text %s into %s", text, query);
             container.put(QUERY_STRING, query);
             String setText = String.format("{:setText => '%s'}", text);
-            container.runScriptlet(String.format("query(%s, %s)", QUERY_STRING, setText));
+            actionPerformed();
+            runScriptlet("enterText", key(text, query), String.format("query(%s, %s)", QUERY_STRING, setText));
             pause();
         } catch (Exception e) {
             error("Failed to enter text %s into %s", e, text, query);
@@ -317,6 +409,26 @@ public class CalabashWrapper {
 
     public void dispose() throws CalabashException {
         try {
+            if (recorder != null)
+                recorder.close();
+            metrics.unregisterMBean();
+            synchronized (this) {
+                if (screenshotSink != null)
+                    screenshotSink.close();
+                if (treeBuilderExecutor != null)
+                    treeBuilderExecutor.shutdownNow();
+                for (DeviceShell deviceShell : deviceShells.values()) {
+                    deviceShell.close();
+                }
+                if (screenRecorder != null) {
+                    try {
+                        screenRecorder.stop();
+                    } catch (CalabashException e) {
+                        error("Could not stop the screen recording", e);
+                    }
+                    screenRecorder = null;
+                }
+            }
             container.clear();
             container.getProvider().getRuntime().tearDown(true);
             container.terminate();
@@ -332,18 +444,131 @@ public class CalabashWrapper {
             info("Taking screenshot");
             container.put(SCREENSHOT_PREFIX, dir.getAbsolutePath() + "/");
             container.put(SCREENSHOT_FILENAME, fileName);
-            container.runScriptlet(String.format("screenshot(options={:prefix => %s, :name => %s})", SCREENSHOT_PREFIX, SCREENSHOT_FILENAME));
+            runScriptlet("takeScreenShot", key(dir.getAbsolutePath(), fileName), String.format("screenshot(options={:prefix => %s, :name => %s})", SCREENSHOT_PREFIX, SCREENSHOT_FILENAME));
         } catch (Exception e) {
             error("Failed to take screenshot.", e);
             throw new CalabashException(String.format("Failed to take screenshot. %s", e.getMessage()));
         }
     }
 
+    /**
+     * Reads the screen through adb instead of the calabash screenshot helper, without touching the disk
+     */
+    public Screenshot captureScreen(boolean png) throws CalabashException {
+        ensureNotDisposed();
+        if (replayer != null)
+            throw new CalabashException("Screenshots can't be captured while replaying");
+        long start = trace.begin();
+        Screenshot screenshot = androidBridge.screencap(serial, png);
+        trace.end(start, "screenshot", "captureScreen", serial);
+        return screenshot;
+    }
+
+    /**
+     * Gets the keyboard of a device, which types through a shell kept open on the device. Typing counts as an action
+     */
+    public synchronized Keyboard getKeyboard(String serial) throws CalabashException {
+        Keyboard keyboard = keyboards.get(serial);
+        if (keyboard == null) {
+            keyboard = new Keyboard(getDeviceShell(serial), new Runnable() {
+                public void run() {
+                    actionPerformed();
+                }
+            });
+            keyboards.put(serial, keyboard);
+        }
+        return keyboard;
+    }
+
+    /**
+     * Plays a gesture on the touchscreen of a device with a single shell command, which also reads the rotation of
+     * the screen
+     */
+    public void perform(String serial, Gesture gesture) throws CalabashException {
+        DeviceShell deviceShell;
+        Touchscreen touchscreen;
+        synchronized (this) {
+            deviceShell = getDeviceShell(serial);
+            touchscreen = touchscreens.get(serial);
+            if (touchscreen == null) {
+                touchscreen = Touchscreen.parse(deviceShell.run(Touchscreen.DISCOVERY_SCRIPT));
+                touchscreens.put(serial, touchscreen);
+            }
+        }
+        info("Performing gesture with %d fingers over %d ms", gesture.getPointerCount(), gesture.getDurationInMs());
+        actionPerformed();
+        long start = trace.begin();
+        deviceShell.run(touchscreen.toScript(gesture));
+        trace.end(start, "gesture", "perform", serial);
+        pause();
+    }
+
+    private DeviceShell getDeviceShell(String serial) throws CalabashException {
+        ensureNotDisposed();
+        if (replayer != null)
+            throw new CalabashException("Device shell can't be used while replaying");
+        DeviceShell deviceShell = deviceShells.get(serial);
+        if (deviceShell == null) {
+            deviceShell = new DeviceShell(environment, serial, metrics);
+            deviceShells.put(serial, deviceShell);
+        }
+        return deviceShell;
+    }
+
+    /**
+     * Starts recording the screen in the background
+     *
+     * @param options recording options, null to record everything to a recordings directory in the logs
+     *                directory or the temp directory
+     */
+    public synchronized void startRecording(ScreenRecordingOptions options) throws CalabashException {
+        ensureNotDisposed();
+        if (replayer != null)
+            throw new CalabashException("Screen can't be recorded while replaying");
+        if (screenRecorder != null)
+            throw new CalabashException("Screen is already being recorded");
+        if (options == null) {
+            File parent = configuration != null && configuration.getLogsDirectory() != null
+                    ? configuration.getLogsDirectory() : new File(System.getProperty("java.io.tmpdir"));
+            options = new ScreenRecordingOptions(new File(parent, "calabash-recording-" + System.currentTimeMillis()));
+        }
+        ScreenRecorder recorder = new ScreenRecorder(androidBridge, serial, options);
+        recorder.start();
+        screenRecorder = recorder;
+    }
+
+    public synchronized ScreenRecording stopRecording() throws CalabashException {
+        if (screenRecorder == null)
+            throw new CalabashException("Screen is not being recorded");
+        long start = trace.begin();
+        try {
+            return screenRecorder.stop();
+        } finally {
+            screenRecorder = null;
+            trace.end(start, "screenrecord", "stopRecording", serial);
+        }
+    }
+
+    /**
+     * Gets the sink screenshots are deduplicated, encoded and written by in the background, it invokes the
+     * configured screenshot listener
+     */
+    public synchronized ScreenshotSink getScreenshotSink() {
+        if (screenshotSink == null) {
+            if (configuration == null)
+                screenshotSink = new ScreenshotSink(null);
+            else
+                screenshotSink = new ScreenshotSink(configuration.getScreenshotListener(), configuration.getScreenshotWorkers(),
+                        ScreenshotSink.DEFAULT_QUEUE_CAPACITY);
+        }
+        return screenshotSink;
+    }
+
     public Map<String, String> getPreferences(String preferenceName) throws CalabashException {
         try {
             info("Finding preferences: %s", preferenceName);
             container.put(PREFERENCE_NAME, preferenceName);
-            RubyHash preferenceHash = (RubyHash) container.runScriptlet(String.format("get_preferences(%s)", PREFERENCE_NAME));
+            RubyHash preferenceHash = (RubyHash) runScriptlet("preferences", preferenceName, String.format("get_preferences(%s)", PREFERENCE_NAME));
             return (Map<String, String>) Utils.toJavaHash(preferenceHash);
         } catch (Exception e) {
             error("Failed to get preferences: %s", preferenceName);
@@ -354,7 +579,7 @@ public class CalabashWrapper {
     public String getCurrentActivity() throws CalabashException {
         try {
             info("Getting current activity");
-            RubyHash activityInfoMap = (RubyHash) container.runScriptlet("performAction('get_activity_name')");
+            RubyHash activityInfoMap = (RubyHash) runScriptlet("performAction", "get_activity_name", "performAction('get_activity_name')");
             String activityName = (String) Utils.toJavaHash(activityInfoMap).get("message");
             info("Current activity: %s", activityName);
             return activityName;
@@ -369,13 +594,13 @@ public class CalabashWrapper {
         try {
             info("Getting date");
             container.put(QUERY_STRING, query);
-            RubyArray rubyArray = (RubyArray) container.runScriptlet(String.format("query(%s, :getYear)", QUERY_STRING));
+            RubyArray rubyArray = (RubyArray) runScriptlet("query", QueryCache.key(query, ":getYear"), String.format("query(%s, :getYear)", QUERY_STRING));
             int year = Utils.getFirstIntValue(rubyArray);
 
-            rubyArray = (RubyArray) container.runScriptlet(String.format("query(%s, :getMonth)", QUERY_STRING));
+            rubyArray = (RubyArray) runScriptlet("query", QueryCache.key(query, ":getMonth"), String.format("query(%s, :getMonth)", QUERY_STRING));
             int month = Utils.getFirstIntValue(rubyArray);
 
-            rubyArray = (RubyArray) container.runScriptlet(String.format("query(%s, :getDayOfMonth)", QUERY_STRING));
+            rubyArray = (RubyArray) runScriptlet("query", QueryCache.key(query, ":getDayOfMonth"), String.format("query(%s, :getDayOfMonth)", QUERY_STRING));
             int day = Utils.getFirstIntValue(rubyArray);
 
             return new DateTime(year, month + 1, day, 0, 0);
@@ -389,7 +614,8 @@ public class CalabashWrapper {
         try {
             info("Setting checked to : %s", checked);
             container.put(QUERY_STRING, query);
-            container.runScriptlet(String.format("query(%s, {:method_name => :setChecked, :arguments => [%s] })", QUERY_STRING, checked));
+            actionPerformed();
+            runScriptlet("setChecked", key(query, String.valueOf(checked)), String.format("query(%s, {:method_name => :setChecked, :arguments => [%s] })", QUERY_STRING, checked));
         } catch (Exception e) {
             String message = String.format("Failed to set checked property to: %s", checked);
             error(message, e);
@@ -400,7 +626,8 @@ public class CalabashWrapper {
     public void performGoBack() throws CalabashException {
         try {
             info("Pressing back button");
-            container.runScriptlet("performAction('go_back')");
+            actionPerformed();
+            runScriptlet("performAction", "go_back", "performAction('go_back')");
             pause();
         } catch (Exception e) {
             String message = "Failed to go back";
@@ -413,7 +640,8 @@ public class CalabashWrapper {
     public void pressEnterKey() throws CalabashException {
         try {
             info("Pressing enter key");
-            container.runScriptlet("performAction('send_key_enter')");
+            actionPerformed();
+            runScriptlet("performAction", "send_key_enter", "performAction('send_key_enter')");
             pause();
         } catch (Exception e) {
             String message = "Failed to press enter key";
@@ -425,7 +653,8 @@ public class CalabashWrapper {
     public void scrollDown() throws CalabashException {
         try {
             info("Scrolling down");
-            container.runScriptlet("performAction('scroll_down')");
+            actionPerformed();
+            runScriptlet("performAction", "scroll_down", "performAction('scroll_down')");
         } catch (Exception e) {
             String message = "Failed to scroll down";
             error(message, e);
@@ -436,7 +665,8 @@ public class CalabashWrapper {
     public void scrollUp() throws CalabashException {
         try {
             info("Scrolling up");
-            container.runScriptlet("performAction('scroll_up')");
+            actionPerformed();
+            runScriptlet("performAction", "scroll_up", "performAction('scroll_up')");
         } catch (Exception e) {
             String message = "Failed to scroll up";
             error(message, e);
@@ -448,7 +678,8 @@ public class CalabashWrapper {
         try {
             info("Selecting menu item %s", menuItem);
             container.put(MENU_ITEM, menuItem);
-            container.runScriptlet(String.format("performAction('select_from_menu', %s)", MENU_ITEM));
+            actionPerformed();
+            runScriptlet("performAction", key("select_from_menu", menuItem), String.format("performAction('select_from_menu', %s)", MENU_ITEM));
             pause();
         } catch (Exception e) {
             String message = "Failed to Select menu item " + menuItem;
@@ -460,7 +691,8 @@ public class CalabashWrapper {
     public void drag(Integer fromX, Integer toX, Integer fromY, Integer toY, Integer steps) throws CalabashException {
         try {
             info("Performing drag from: (%s,%s) to: (%s,%s) in %s steps", fromX, toX, fromY, toY, steps);
-            container.runScriptlet(String.format("performAction('drag', '%d', '%d', '%d', '%d', '%d')", fromX, toX, fromY, toY, steps));
+            actionPerformed();
+            runScriptlet("performAction", key("drag", fromX, toX, fromY, toY, steps), String.format("performAction('drag', '%d', '%d', '%d', '%d', '%d')", fromX, toX, fromY, toY, steps));
         } catch (Exception e) {
             String message = "Error performing drag";
             error(message, e);
@@ -478,7 +710,8 @@ public class CalabashWrapper {
                 case text:
                     actionName = "press_long_on_text";
             }
-            container.runScriptlet(String.format("performAction('%s', '%s')", actionName, property));
+            actionPerformed();
+            runScriptlet("performAction", key(actionName, property), String.format("performAction('%s', '%s')", actionName, property));
             pause();
         } catch (Exception e) {
             String message = "Failed to long press";
@@ -490,7 +723,7 @@ public class CalabashWrapper {
     public void setGPSCoordinates(double latitude, double longitude) throws CalabashException {
         try {
             info("Setting gps coordinates %f : %f", latitude, longitude);
-            container.runScriptlet(String.format("set_gps_coordinates(%f, %f)", latitude, longitude));
+            runScriptlet("gpsCoordinates", key(latitude, longitude), String.format("set_gps_coordinates(%f, %f)", latitude, longitude));
 
         } catch (Exception e) {
             String message = String.format("Failed to set coordinates %f : %f", latitude, longitude);
@@ -503,7 +736,7 @@ public class CalabashWrapper {
     public void setGPSLocation(String location) throws CalabashException {
         try {
             info("Setting GPS location to : %s", location);
-            container.runScriptlet(String.format("set_gps_coordinates_from_location('%s')", location));
+            runScriptlet("gpsLocation", location, String.format("set_gps_coordinates_from_location('%s')", location));
         } catch (Exception e) {
             String message = "Failed to set gps location to : " + location;
             error(message, e);
@@ -515,7 +748,8 @@ public class CalabashWrapper {
         try {
             info("Setting date: %d-%d-%d - format yyyy-mm-dd", year, month, day);
             container.put(QUERY_STRING, query);
-            container.runScriptlet(String.format("query(%s, {:method_name => :updateDate, :arguments => [%d,%d,%d]})", QUERY_STRING, year, month - 1, day));
+            actionPerformed();
+            runScriptlet("setDate", key(query, year, month, day), String.format("query(%s, {:method_name => :updateDate, :arguments => [%d,%d,%d]})", QUERY_STRING, year, month - 1, day));
         } catch (Exception e) {
             String message = String.format("Failed to set date : %d-%d-%d", year, month, day);
             error(message, e);
@@ -526,10 +760,12 @@ public class CalabashWrapper {
 
     public RubyHash performAction(String action, String[] args) throws CalabashException {
         try {
-            info("performing action %s with args %s", action, Utils.getStringFromArray(args));
+            if (CalabashLogger.isInfoEnabled(LogCategory.GENERAL))
+                info("performing action %s with args %s", action, Utils.getStringFromArray(args));
             container.put(ACTION, action);
             container.put(ACTION_ARGS, args);
-            return (RubyHash) container.runScriptlet(String.format("performAction(%s,*%s)", ACTION, ACTION_ARGS));
+            actionPerformed();
+            return (RubyHash) runScriptlet("performAction", key(action, key((Object[]) args)), String.format("performAction(%s,*%s)", ACTION, ACTION_ARGS));
         } catch (Exception e) {
             String message = String.format("Failed to perform action %s with args %s", action, Utils.getStringFromArray(args));
             error(message, e);
@@ -538,11 +774,30 @@ public class CalabashWrapper {
     }
 
     public void waitFor(ICondition condition, WaitOptions options) throws CalabashException, OperationTimedoutException {
+        long start = System.nanoTime();
+        Object event = CalabashEvents.begin("waitFor");
+        boolean succeeded = false;
+        try {
+            waitForCondition(condition, options);
+            succeeded = true;
+        } finally {
+            metrics.record("waitFor", System.nanoTime() - start, succeeded);
+            if (event != null)
+                CalabashEvents.commit(event, condition.getDescription(), serial, 0, 0, succeeded);
+        }
+    }
+
+    private void waitForCondition(ICondition condition, WaitOptions options) throws CalabashException, OperationTimedoutException {
+        if (replayer != null) {
+            replayWait(condition, options == null ? new WaitOptions(DEFAULT_WAIT_TIMEOUT_IN_SEC) : options);
+            return;
+        }
         try {
             info("Waiting for condition");
             addRequiresAndIncludes("Calabash::Android::WaitHelpers");
             container.put(WAIT_CONDITION, condition);
             String waitOptionsHash = getWaitOptionsHash(options);
+            waiting = true;
             if (waitOptionsHash == null)
                 container.runScriptlet(String.format("wait_for { %s.test }", WAIT_CONDITION));
             else {
@@ -550,7 +805,34 @@ public class CalabashWrapper {
             }
         } catch (Exception e) {
             handleWaitException(e, options);
+        } finally {
+            waiting = false;
+        }
+    }
+
+    /**
+     * Polls the condition the way wait_for does, the queries made by the condition are served from the recording
+     */
+    private void replayWait(ICondition condition, WaitOptions options) throws CalabashException, OperationTimedoutException {
+        int retryFreqInSec = Math.max(1, options.getRetryFreqInSec());
+        int retries = options.getTimeoutInSec() / retryFreqInSec;
+        waiting = true;
+        try {
+            for (int i = 0; i <= retries; i++) {
+                if (condition.test())
+                    return;
+                if (replayer.getTiming() == ReplayTiming.RECORDED)
+                    Thread.sleep(retryFreqInSec * 1000L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CalabashException("Interrupted while waiting for condition", e);
+        } finally {
+            waiting = false;
         }
+        error("Wait Timed-out");
+        String message = options.getTimeoutMessage();
+        throw new OperationTimedoutException(message == null ? "Timed out waiting..." : message);
     }
 
     private void ensureNotDisposed() throws CalabashException {
@@ -595,11 +877,182 @@ public class CalabashWrapper {
         }
     }
 
+    /**
+     * Gets the number of actions performed so far. Anything read from the device before the count last changed
+     * might be stale
+     */
+    public long getActionCount() {
+        return actionCount.get();
+    }
+
+    /**
+     * Gets how long query results and element properties are cached for, 0 when caching is disabled. Time based
+     * caching is always disabled while recording or replaying, so a replay makes the same calls as its recording.
+     */
+    public long getQueryCacheTtlInMs() {
+        if (configuration == null || isRecording() || isReplaying())
+            return 0;
+        return configuration.getQueryCacheTtlInMs();
+    }
+
+    /**
+     * Tells whether a wait condition is being polled, nothing read from the device is cached meanwhile
+     */
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Gets the hit and miss statistics of the query cache
+     */
+    public CacheStatistics getQueryCacheStatistics() {
+        return queryCache.getStatistics();
+    }
+
+    /**
+     * Gets the view hierarchy snapshots of the device this wrapper is started on
+     */
+    public synchronized ViewSnapshotService getViewSnapshotService() {
+        if (viewSnapshotService == null) {
+            long maxAgeInMs = configuration == null ? 0 : configuration.getViewSnapshotMaxAgeInMs();
+            int threads = configuration == null ? 1 : configuration.getTreeBuilderThreads();
+            TreeBuilder treeBuilder = new TreeBuilder(this);
+            if (threads > 1) {
+                treeBuilderExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "calabash-tree-builder");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                treeBuilder = new ParallelTreeBuilder(this, treeBuilderExecutor, threads);
+            }
+            viewSnapshotService = new ViewSnapshotService(this, treeBuilder, maxAgeInMs);
+        }
+        return viewSnapshotService;
+    }
+
+    /**
+     * Gets the latency metrics of the calls made to the device
+     */
+    public CalabashMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the recorder spans of this wrapper go to, {@link TraceRecorder#DISABLED} when tracing is off
+     */
+    public TraceRecorder getTraceRecorder() {
+        return trace;
+    }
+
+    /**
+     * Whether calls are served from a recording instead of a device
+     */
+    public boolean isReplaying() {
+        return replayer != null;
+    }
+
+    /**
+     * Whether calls to the device are being recorded
+     */
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    TransportRecorder getRecorder() {
+        return recorder;
+    }
+
+    TransportReplayer getReplayer() {
+        return replayer;
+    }
+
+    /**
+     * Every call to the device goes through here, so it can be recorded along with its response and latency or
+     * served from a recording
+     */
+    private Object runScriptlet(String operation, String key, String script) throws CalabashException {
+        long start = System.nanoTime();
+        Object event = CalabashEvents.begin(operation);
+        boolean succeeded = false;
+        try {
+            if (replayer != null) {
+                TransportReplayer.Response response = replayer.next(operation, key);
+                if (response.getError() != null)
+                    throw new CalabashException(response.getError());
+                Object result = fromJson(response.getResult());
+                succeeded = true;
+                return result;
+            }
+
+            Object result = container.runScriptlet(script);
+            if (recorder != null)
+                recorder.record(operation, key, elapsedInMs(start), toJson(result), null);
+            succeeded = true;
+            return result;
+        } catch (RuntimeException e) {
+            if (recorder != null)
+                recorder.record(operation, key, elapsedInMs(start), null, String.valueOf(e.getMessage()));
+            throw e;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, succeeded);
+            if (event != null)
+                CalabashEvents.commit(event, key.replace('\u0000', ' '), serial, 0, 0, succeeded);
+        }
+    }
+
+    private String toJson(Object result) {
+        try {
+            container.put(RECORDED_RESULT, result);
+            return container.runScriptlet(String.format("require 'json'; JSON.generate([%s])", RECORDED_RESULT)).toString();
+        } catch (Exception e) {
+            error("Could not record result %s", e, result);
+            return null;
+        }
+    }
+
+    private Object fromJson(String json) {
+        if (json == null)
+            return null;
+        container.put(REPLAYED_RESULT, json);
+        return container.runScriptlet(String.format("require 'json'; JSON.parse(%s)[0]", REPLAYED_RESULT));
+    }
+
+    private static long elapsedInMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    private static String key(Object... parts) {
+        StringBuilder key = new StringBuilder();
+        if (parts == null)
+            return key.toString();
+        for (Object part : parts) {
+            if (key.length() > 0)
+                key.append('\u0000');
+            key.append(part instanceof Object[] ? Arrays.toString((Object[]) part) : String.valueOf(part));
+        }
+        return key.toString();
+    }
+
+    private void actionPerformed() {
+        actionCount.incrementAndGet();
+        queryCache.invalidate();
+    }
+
     private void pause() {
+        if (replayer != null && replayer.getTiming() == ReplayTiming.AS_FAST_AS_POSSIBLE)
+            return;
+        long start = trace.begin();
         try {
             Thread.sleep(pauseTimeInMilliSec);
         } catch (InterruptedException ignored) {
         }
+        trace.end(start, "pause", "pause", serial);
     }
 
     private void addContainerEnv(String envName, String envValue) {
@@ -609,15 +1062,20 @@ public class CalabashWrapper {
     }
 
     public String getTestServerPort() throws CalabashException {
-        addRequiresAndIncludes("Calabash::Android::Operations");
-        final Object serverPort = container.runScriptlet("default_device.default_server_port");
-        return serverPort.toString();
+        // asked once per device, so recordings don't depend on how many clients were created
+        if (testServerPort != null)
+            return testServerPort;
+        if (replayer == null)
+            addRequiresAndIncludes("Calabash::Android::Operations");
+        final Object serverPort = runScriptlet("testServerPort", "", "default_device.default_server_port");
+        testServerPort = serverPort.toString();
+        return testServerPort;
     }
     
 	public boolean elementExistsById(String id) throws CalabashException {
 		try {
 			info("Checking for element's existence");
-			return (Boolean) container.runScriptlet("element_exists(\"webView css:'#" + id	+ "'\")");
+			return (Boolean) runScriptlet("elementExists", id, "element_exists(\"webView css:'#" + id	+ "'\")");
 		} catch (Exception e) {
 			String message = "Failed to check for element's existence";
 			error(message, e);
@@ -0,0 +1,378 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.*;
+
+/**
+ * View hierarchy snapshot kept as parallel arrays instead of one object graph per view. Nodes are numbered in
+ * pre-order; the structure is held in int arrays of parent, first child and next sibling indexes, rects in double
+ * arrays and class, id, text and content description as indexes into a string table shared by all nodes of the
+ * snapshot. This takes a fraction of the heap of {@link ViewSnapshot}, which makes it suitable for keeping many
+ * historical snapshots around.
+ * <p/>
+ * {@link TreeNode} and {@link UIElement} views are created on demand and are not cached, so callers holding on
+ * to them keep only the part of the tree they use. Only the properties found in a view dump are kept, that is
+ * class, id, text, content description, enabled and rect.
+ */
+public class CompactViewSnapshot {
+
+    private static final int NONE = -1;
+    private final CalabashWrapper calabashWrapper;
+    private final long version;
+    private final long takenAt;
+    private final int[] roots;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] classes;
+    private final int[] ids;
+    private final int[] texts;
+    private final int[] contentDescriptions;
+    private final int[] queries;
+    private final boolean[] enabled;
+    private final double[] x;
+    private final double[] y;
+    private final double[] width;
+    private final double[] height;
+    private final double[] centerX;
+    private final double[] centerY;
+    private final String[] strings;
+
+    public CompactViewSnapshot(ViewSnapshot snapshot, CalabashWrapper calabashWrapper) {
+        this.calabashWrapper = calabashWrapper;
+        this.version = snapshot.getVersion();
+        this.takenAt = snapshot.getTakenAt();
+
+        List<TreeNode> nodes = new ArrayList<TreeNode>();
+        List<Integer> parentList = new ArrayList<Integer>();
+        List<String> derivedQueries = new ArrayList<String>();
+        collect(snapshot.getRoots(), nodes, parentList, derivedQueries);
+
+        int size = nodes.size();
+        parents = new int[size];
+        firstChildren = new int[size];
+        nextSiblings = new int[size];
+        classes = new int[size];
+        ids = new int[size];
+        texts = new int[size];
+        contentDescriptions = new int[size];
+        queries = new int[size];
+        enabled = new boolean[size];
+        x = new double[size];
+        y = new double[size];
+        width = new double[size];
+        height = new double[size];
+        centerX = new double[size];
+        centerY = new double[size];
+
+        Map<String, Integer> stringTable = new HashMap<String, Integer>();
+        for (int node = 0; node < size; node++) {
+            parents[node] = parentList.get(node);
+            store(node, nodes.get(node).getData(), derivedQueries.get(node), stringTable);
+        }
+
+        // walking backwards and prepending keeps the siblings in their original order
+        Arrays.fill(firstChildren, NONE);
+        int firstRoot = NONE;
+        int rootCount = 0;
+        for (int node = size - 1; node >= 0; node--) {
+            if (parents[node] == NONE) {
+                nextSiblings[node] = firstRoot;
+                firstRoot = node;
+                rootCount++;
+            } else {
+                nextSiblings[node] = firstChildren[parents[node]];
+                firstChildren[parents[node]] = node;
+            }
+        }
+        roots = new int[rootCount];
+        for (int i = 0, node = firstRoot; node != NONE; i++, node = nextSiblings[node]) {
+            roots[i] = node;
+        }
+
+        strings = new String[stringTable.size()];
+        for (Map.Entry<String, Integer> entry : stringTable.entrySet()) {
+            strings[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    private void collect(List<TreeNode> rootNodes, List<TreeNode> nodes, List<Integer> parentList, List<String> derivedQueries) {
+        // iterative pre-order walk carrying the parent index and the query the tree builder would have used
+        Deque<Object[]> pending = new ArrayDeque<Object[]>();
+        for (int i = rootNodes.size() - 1; i >= 0; i--) {
+            pending.push(new Object[]{rootNodes.get(i), NONE, "* index:" + i});
+        }
+        while (!pending.isEmpty()) {
+            Object[] next = pending.pop();
+            TreeNode node = (TreeNode) next[0];
+            int position = nodes.size();
+            nodes.add(node);
+            parentList.add((Integer) next[1]);
+            derivedQueries.add((String) next[2]);
+
+            List<TreeNode> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(new Object[]{children.get(i), position, childQuery((String) next[2], i)});
+            }
+        }
+    }
+
+    private void store(int node, UIElement element, String derivedQuery, Map<String, Integer> stringTable) {
+        Rect rect = element == null ? null : element.getRect();
+        x[node] = rect == null ? Double.NaN : toDouble(rect.getX());
+        y[node] = rect == null ? Double.NaN : toDouble(rect.getY());
+        width[node] = rect == null ? Double.NaN : toDouble(rect.getWidth());
+        height[node] = rect == null ? Double.NaN : toDouble(rect.getHeight());
+        centerX[node] = rect == null ? Double.NaN : toDouble(rect.getCenter_x());
+        centerY[node] = rect == null ? Double.NaN : toDouble(rect.getCenter_y());
+        if (element == null) {
+            classes[node] = ids[node] = texts[node] = contentDescriptions[node] = queries[node] = NONE;
+            return;
+        }
+
+        classes[node] = intern(element.getElementClass(), stringTable);
+        ids[node] = intern(element.getId(), stringTable);
+        texts[node] = intern(element.getText(), stringTable);
+        contentDescriptions[node] = intern(element.getCachedContentDescription(), stringTable);
+        enabled[node] = element.isEnabled();
+        // queries are unique per node, only keep the ones which can't be derived from the position in the tree
+        queries[node] = derivedQuery.equals(element.getQuery()) ? NONE : intern(element.getQuery(), stringTable);
+    }
+
+    private int intern(String value, Map<String, Integer> stringTable) {
+        if (value == null)
+            return NONE;
+        Integer index = stringTable.get(value);
+        if (index == null) {
+            index = stringTable.size();
+            stringTable.put(value, index);
+        }
+        return index;
+    }
+
+    private static double toDouble(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static String childQuery(String parentQuery, int childIndex) {
+        return parentQuery + " child * index:" + childIndex;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * @return number of nodes in the snapshot
+     */
+    public int size() {
+        return parents.length;
+    }
+
+    /**
+     * @return indexes of the root nodes
+     */
+    public int[] getRootIndexes() {
+        return roots.clone();
+    }
+
+    /**
+     * @return index of the parent, -1 for a root node
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return index of the first child, -1 when the node has no children
+     */
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    /**
+     * @return index of the next sibling, -1 for the last child
+     */
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    public String getElementClass(int node) {
+        return string(classes[node]);
+    }
+
+    public String getId(int node) {
+        return string(ids[node]);
+    }
+
+    public String getText(int node) {
+        return string(texts[node]);
+    }
+
+    public String getContentDescription(int node) {
+        return string(contentDescriptions[node]);
+    }
+
+    public boolean isEnabled(int node) {
+        return enabled[node];
+    }
+
+    /**
+     * @return the rect of the node, null if the view dump had none
+     */
+    public Rect getRect(int node) {
+        if (Double.isNaN(x[node]) && Double.isNaN(y[node]) && Double.isNaN(width[node]))
+            return null;
+        return new Rect(toNullable(x[node]), toNullable(y[node]), toNullable(width[node]), toNullable(height[node]),
+                toNullable(centerX[node]), toNullable(centerY[node]));
+    }
+
+    /**
+     * Gets the query locating the node on the device
+     *
+     * @return the query
+     */
+    public String getQuery(int node) {
+        if (queries[node] != NONE)
+            return strings[queries[node]];
+
+        int rootIndex = 0;
+        Deque<Integer> childIndexes = new ArrayDeque<Integer>();
+        for (int current = node; current != NONE; current = parents[current]) {
+            int index = siblingIndex(current);
+            if (parents[current] == NONE)
+                rootIndex = index;
+            else
+                childIndexes.push(index);
+        }
+        String query = "* index:" + rootIndex;
+        while (!childIndexes.isEmpty()) {
+            query = childQuery(query, childIndexes.pop());
+        }
+        return query;
+    }
+
+    private int siblingIndex(int node) {
+        int first = parents[node] == NONE ? roots[0] : firstChildren[parents[node]];
+        int index = 0;
+        for (int sibling = first; sibling != node; sibling = nextSiblings[sibling]) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Creates an element over the stored properties of the node
+     *
+     * @return the element
+     */
+    public UIElement getElement(int node) {
+        HashMap<Object, Object> data = new HashMap<Object, Object>();
+        data.put("class", getElementClass(node));
+        data.put("id", getId(node));
+        data.put("text", getText(node));
+        data.put("enabled", enabled[node]);
+        data.put("contentDescription", getContentDescription(node));
+        if (getRect(node) != null) {
+            HashMap<String, String> rect = new HashMap<String, String>();
+            rect.put("x", String.valueOf(x[node]));
+            rect.put("y", String.valueOf(y[node]));
+            rect.put("width", String.valueOf(width[node]));
+            rect.put("height", String.valueOf(height[node]));
+            rect.put("center_x", String.valueOf(centerX[node]));
+            rect.put("center_y", String.valueOf(centerY[node]));
+            data.put("rect", rect);
+        }
+        return new UIElement(data, getQuery(node), calabashWrapper);
+    }
+
+    /**
+     * Creates a tree node view of the node. Its element and children are created when first asked for.
+     *
+     * @return the tree node
+     */
+    public TreeNode getTreeNode(int node) {
+        return new NodeView(node);
+    }
+
+    /**
+     * Creates tree node views of the root nodes
+     *
+     * @return list of root nodes
+     */
+    public List<TreeNode> getRoots() {
+        List<TreeNode> rootNodes = new ArrayList<TreeNode>();
+        for (int root : roots) {
+            rootNodes.add(new NodeView(root));
+        }
+        return rootNodes;
+    }
+
+    /**
+     * Creates a regular snapshot over tree node views of this one, to be used where a {@link ViewSnapshot} is
+     * expected, like diffing with {@link TreeDiffer}
+     *
+     * @return the snapshot
+     */
+    public ViewSnapshot toViewSnapshot() {
+        return new ViewSnapshot(getRoots(), version, takenAt, -1);
+    }
+
+    private String string(int index) {
+        return index == NONE ? null : strings[index];
+    }
+
+    private static Double toNullable(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    private class NodeView extends TreeNode {
+        private final int node;
+        private boolean dataLoaded;
+        private boolean childrenLoaded;
+
+        NodeView(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public synchronized UIElement getData() {
+            if (!dataLoaded) {
+                super.setData(getElement(node));
+                dataLoaded = true;
+            }
+            return super.getData();
+        }
+
+        @Override
+        public synchronized void setData(UIElement data) {
+            dataLoaded = true;
+            super.setData(data);
+        }
+
+        @Override
+        public synchronized List<TreeNode> getChildren() {
+            List<TreeNode> children = super.getChildren();
+            if (!childrenLoaded) {
+                for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+                    children.add(new NodeView(child));
+                }
+                childrenLoaded = true;
+            }
+            return children;
+        }
+
+        @Override
+        public void addChild(TreeNode child) {
+            getChildren().add(0, child);
+        }
+
+        @Override
+        public void appendChild(TreeNode child) {
+            getChildren().add(child);
+        }
+    }
+}
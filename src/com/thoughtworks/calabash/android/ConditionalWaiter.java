@@ -4,6 +4,7 @@ import static com.thoughtworks.calabash.android.CalabashLogger.info;
 import static java.lang.String.format;
 
 public class ConditionalWaiter {
+    private static final String EVENT_OPERATION = "conditionalWait";
     private final ICondition condition;
 
     public ConditionalWaiter(ICondition condition) {
@@ -11,29 +12,47 @@ public class ConditionalWaiter {
     }
 
     public void run(int times, int sleepTimeInSec) throws CalabashException {
+        Object event = CalabashEvents.begin(EVENT_OPERATION);
         int timesTested = 0;
         int sleepTimeInMilli = sleepTimeInSec * 1000;
-        while (!condition.test() && timesTested <= times) {
-            try {
-                info("Retrying wait condition: " + condition.getDescription());
-                Thread.sleep(sleepTimeInMilli);
-                timesTested++;
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+        boolean succeeded = false;
+        try {
+            while (!condition.test() && timesTested <= times) {
+                try {
+                    info("Retrying wait condition: " + condition.getDescription());
+                    Thread.sleep(sleepTimeInMilli);
+                    timesTested++;
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
             }
+            succeeded = timesTested <= times;
+        } finally {
+            if (event != null)
+                CalabashEvents.commit(event, condition.getDescription(), "", 0, timesTested, succeeded);
         }
-        if (timesTested > times)
+        if (!succeeded)
             throw new CalabashException("Wait condition failed : " + condition.getDescription());
 
     }
 
     public void run(int timeoutInMillis) throws CalabashException {
+        Object event = CalabashEvents.begin(EVENT_OPERATION);
         long startTime = System.currentTimeMillis();
-        do {
-            if (condition.test()) {
-                return;
-            }
-        } while ((System.currentTimeMillis() - startTime) < timeoutInMillis);
+        int retries = -1;
+        boolean succeeded = false;
+        try {
+            do {
+                retries++;
+                if (condition.test()) {
+                    succeeded = true;
+                    return;
+                }
+            } while ((System.currentTimeMillis() - startTime) < timeoutInMillis);
+        } finally {
+            if (event != null)
+                CalabashEvents.commit(event, condition.getDescription(), "", 0, retries, succeeded);
+        }
         throw new CalabashException(format("Wait condition (%s) timed out after %s ms", condition.getDescription(), timeoutInMillis));
     }
 }
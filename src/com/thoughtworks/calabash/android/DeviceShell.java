@@ -0,0 +1,186 @@
+package com.thoughtworks.calabash.android;
+
+import java.io.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.thoughtworks.calabash.android.CalabashLogger.error;
+import static com.thoughtworks.calabash.android.CalabashLogger.info;
+
+/**
+ * A shell on the device kept open across commands, so running a command costs a write to the shell instead of
+ * starting a new adb process and connection every time. Each command is followed by an echo of a marker and its
+ * exit status, which tells where its output ends. Commands run one at a time.
+ * <p/>
+ * When the shell dies, like when the device goes offline, the command fails and the next one opens a new shell.
+ * What adb itself prints on its standard error, like the device being offline, is logged.
+ */
+public class DeviceShell implements Closeable {
+
+    private static final String MARKER = "__calabash_done__";
+    private static final Object EOF = new Object();
+    private final String[] command;
+    private final String serial;
+    private final CalabashMetrics metrics;
+    private final long timeoutInMs;
+    private Process process;
+    private Writer stdin;
+    private BlockingQueue<Object> output;
+    private int commandCount;
+
+    /**
+     * @param serial  serial of the device, null when only one device is connected
+     * @param metrics metrics every command is timed into, null to not time them
+     */
+    public DeviceShell(Environment environment, String serial, CalabashMetrics metrics) {
+        this(serial == null ? new String[]{environment.getAdb(), "shell"} : new String[]{environment.getAdb(), "-s", serial, "shell"},
+                serial, metrics, TimeUnit.SECONDS.toMillis(60));
+    }
+
+    DeviceShell(String[] command, String serial, CalabashMetrics metrics, long timeoutInMs) {
+        this.command = command;
+        this.serial = serial;
+        this.metrics = metrics;
+        this.timeoutInMs = timeoutInMs;
+    }
+
+    /**
+     * Runs a script in the shell
+     *
+     * @param script one or more commands, their standard error is merged into the output
+     * @return the output of the script
+     * @throws CalabashException if the script exits with a non zero status, or the shell dies or does not answer
+     */
+    public synchronized String run(String script) throws CalabashException {
+        String operation = "shell " + firstWord(script);
+        long start = System.nanoTime();
+        Object event = CalabashEvents.begin(operation);
+        boolean succeeded = false;
+        String output = "";
+        try {
+            output = execute(script);
+            succeeded = true;
+            return output;
+        } finally {
+            if (metrics != null)
+                metrics.record(operation, serial, System.nanoTime() - start, succeeded);
+            if (event != null)
+                CalabashEvents.commit(event, script, serial, CalabashEvents.utf8Length(output), 0, succeeded);
+        }
+    }
+
+    private String execute(String script) throws CalabashException {
+        open();
+        String marker = MARKER + (++commandCount);
+        try {
+            stdin.write("{ " + script + "\n} 2>&1\necho " + marker + " $?\n");
+            stdin.flush();
+        } catch (IOException e) {
+            close();
+            throw new CalabashException("Could not write to the shell of " + describe(), e);
+        }
+
+        StringBuilder result = new StringBuilder();
+        long deadline = System.currentTimeMillis() + timeoutInMs;
+        try {
+            while (true) {
+                Object line = this.output.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (line == null || line == EOF) {
+                    close();
+                    throw new CalabashException(line == null ? "Shell of " + describe() + " did not answer in time"
+                            : "Shell of " + describe() + " was closed");
+                }
+                String text = ((String) line).trim();
+                if (text.startsWith(marker)) {
+                    int exitCode = Integer.parseInt(text.substring(marker.length()).trim());
+                    info(LogCategory.COMMAND_OUTPUT, result);
+                    if (exitCode != 0)
+                        throw new CalabashException(String.format("'%s' failed on %s with exit code %d: %s", script, describe(),
+                                exitCode, result.toString().trim()));
+                    return result.toString();
+                }
+                result.append(line).append('\n');
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new CalabashException("Interrupted while waiting for the shell of " + describe(), e);
+        } catch (NumberFormatException e) {
+            close();
+            throw new CalabashException("Unexpected answer from the shell of " + describe(), e);
+        }
+    }
+
+    private void open() throws CalabashException {
+        if (process != null)
+            return;
+        info("Opening a shell on %s", describe());
+        final Process started = Utils.runCommandInBackGround(command, "Could not open a shell on " + describe());
+        final BlockingQueue<Object> lines = new LinkedBlockingQueue<Object>();
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                BufferedReader in = new BufferedReader(new InputStreamReader(started.getInputStream()));
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        lines.add(line);
+                    }
+                } catch (IOException e) {
+                    // the shell was closed
+                } finally {
+                    lines.add(EOF);
+                }
+            }
+        }, "calabash-shell-" + describe());
+        reader.setDaemon(true);
+        reader.start();
+        // adb blocks once the pipe of its standard error fills up, so it is read as well
+        Thread errorReader = new Thread(new Runnable() {
+            public void run() {
+                BufferedReader in = new BufferedReader(new InputStreamReader(started.getErrorStream()));
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        error("adb shell on %s: %s", describe(), line);
+                    }
+                } catch (IOException e) {
+                    // the shell was closed
+                }
+            }
+        }, "calabash-shell-errors-" + describe());
+        errorReader.setDaemon(true);
+        errorReader.start();
+        process = started;
+        output = lines;
+        stdin = new BufferedWriter(new OutputStreamWriter(started.getOutputStream()));
+    }
+
+    /**
+     * Closes the shell, the next command opens a new one
+     */
+    public synchronized void close() {
+        if (process == null)
+            return;
+        try {
+            stdin.write("exit\n");
+            stdin.close();
+        } catch (IOException e) {
+            // already gone
+        }
+        process.destroy();
+        process = null;
+        stdin = null;
+        output = null;
+    }
+
+    private String describe() {
+        return serial == null ? "the device" : serial;
+    }
+
+    private static String firstWord(String script) {
+        String trimmed = script.trim();
+        int end = trimmed.indexOf(' ');
+        return end == -1 ? trimmed : trimmed.substring(0, end);
+    }
+}
@@ -0,0 +1,67 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Properties of a single view as read from the view dump. Unlike {@link UIElement} it can't be acted upon.
+ */
+public class DumpNode {
+
+    private final String elementClass;
+    private final String id;
+    private final String text;
+    private final String contentDescription;
+    private final boolean enabled;
+    private final boolean visible;
+    private final Rect rect;
+
+    public DumpNode(String elementClass, String id, String text, String contentDescription, boolean enabled,
+                    boolean visible, Rect rect) {
+        this.elementClass = elementClass;
+        this.id = id;
+        this.text = text;
+        this.contentDescription = contentDescription;
+        this.enabled = enabled;
+        this.visible = visible;
+        this.rect = rect;
+    }
+
+    public String getElementClass() {
+        return elementClass;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getContentDescription() {
+        return contentDescription;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Invisible views are part of the dump but left out of {@link AndroidApplication#getRootElements()}
+     *
+     * @return the visible property
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * @return the rectangle, null when the dump has none
+     */
+    public Rect getRect() {
+        return rect;
+    }
+
+    public String toString() {
+        return String.format("id: %s, class: %s, text: %s, content description: %s, enabled: %s, visible: %s, rect: %s",
+                id, elementClass, text, contentDescription, enabled, visible, rect);
+    }
+}
@@ -0,0 +1,181 @@
+package com.thoughtworks.calabash.android;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reads the view dump as a stream of JSON tokens and hands each view to a {@link DumpVisitor} without building
+ * a tree. Only the views on the path from the root to the current one are held.
+ * <p/>
+ * A view is visited once all its properties were read and its parent's rect is known. The dump can list the
+ * children before the rect, in which case finished children wait in their parent until its rect is read. So
+ * children may be visited before their parent, and memory is bounded by depth times the number of children of
+ * a view rather than by the size of the screen.
+ */
+public class DumpScanner {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Reads the whole dump and closes it
+     *
+     * @param dump    stream of the view dump JSON
+     * @param visitor visitor to be called for each view
+     * @throws CalabashException when the dump can't be read
+     */
+    public void scan(InputStream dump, DumpVisitor visitor) throws CalabashException {
+        JsonParser parser = null;
+        try {
+            parser = jsonFactory.createJsonParser(dump);
+            scan(parser, visitor);
+        } catch (IOException e) {
+            throw new CalabashException("Could not scan view dump", e);
+        } finally {
+            close(parser);
+        }
+    }
+
+    private void scan(JsonParser parser, DumpVisitor visitor) throws IOException {
+        Deque<Frame> frames = new ArrayDeque<Frame>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case START_OBJECT:
+                    // objects other than views are read or skipped along with their field
+                    frames.push(new Frame(frames.isEmpty() ? -1 : frames.peek().depth + 1));
+                    break;
+                case FIELD_NAME:
+                    readField(parser, frames.peek(), visitor);
+                    break;
+                case END_OBJECT:
+                    Frame finished = frames.pop();
+                    finished.rectRead(visitor);
+                    if (!frames.isEmpty())
+                        frames.peek().childFinished(finished.toNode(), visitor);
+                    break;
+                default:
+                    // bounds of the children arrays
+                    break;
+            }
+        }
+    }
+
+    private void readField(JsonParser parser, Frame frame, DumpVisitor visitor) throws IOException {
+        String name = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("children".equals(name) && value == JsonToken.START_ARRAY)
+            return;
+
+        if ("rect".equals(name)) {
+            frame.rect = readRect(parser, value);
+            frame.rectRead(visitor);
+        } else if ("type".equals(name)) {
+            frame.elementClass = readText(parser, value);
+        } else if ("id".equals(name)) {
+            frame.id = readText(parser, value);
+        } else if ("value".equals(name)) {
+            frame.text = readText(parser, value);
+        } else if ("label".equals(name)) {
+            frame.contentDescription = readText(parser, value);
+        } else if ("enabled".equals(name)) {
+            frame.enabled = value == JsonToken.VALUE_TRUE;
+        } else if ("visible".equals(name)) {
+            frame.visible = value == JsonToken.VALUE_TRUE;
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private String readText(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL)
+            return null;
+        if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getText();
+    }
+
+    private Rect readRect(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        Double x = null, y = null, width = null, height = null, centerX = null, centerY = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT) {
+                parser.skipChildren();
+                continue;
+            }
+            double number = parser.getDoubleValue();
+            if ("x".equals(name)) x = number;
+            else if ("y".equals(name)) y = number;
+            else if ("width".equals(name)) width = number;
+            else if ("height".equals(name)) height = number;
+            else if ("center_x".equals(name)) centerX = number;
+            else if ("center_y".equals(name)) centerY = number;
+        }
+        return new Rect(x, y, width, height, centerX, centerY);
+    }
+
+    private void close(JsonParser parser) {
+        if (parser == null)
+            return;
+        try {
+            parser.close();
+        } catch (IOException e) {
+            CalabashLogger.error("Could not close view dump", e);
+        }
+    }
+
+    private static class Frame {
+        private final int depth;
+        private String elementClass;
+        private String id;
+        private String text;
+        private String contentDescription;
+        private boolean enabled;
+        private boolean visible;
+        private Rect rect;
+        private boolean rectKnown;
+        private List<DumpNode> waitingChildren;
+
+        Frame(int depth) {
+            this.depth = depth;
+        }
+
+        void rectRead(DumpVisitor visitor) {
+            rectKnown = true;
+            if (waitingChildren == null)
+                return;
+            for (DumpNode child : waitingChildren) {
+                visitor.visit(child, depth + 1, rect);
+            }
+            waitingChildren = null;
+        }
+
+        void childFinished(DumpNode child, DumpVisitor visitor) {
+            if (rectKnown) {
+                visitor.visit(child, depth + 1, rect);
+                return;
+            }
+            if (waitingChildren == null)
+                waitingChildren = new ArrayList<DumpNode>();
+            waitingChildren.add(child);
+        }
+
+        DumpNode toNode() {
+            return new DumpNode(elementClass, id, text, contentDescription, enabled, visible, rect);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Provides callback while scanning the view dump, see {@link AndroidApplication#scan(DumpVisitor)}
+ */
+public interface DumpVisitor {
+
+    /**
+     * This function gets called for each view in the dump
+     *
+     * @param node       Current view
+     * @param depth      Nesting level, 0 for the root of the screen
+     * @param parentRect rect of the parent view, null when the parent has none
+     */
+    void visit(DumpNode node, int depth, Rect parentRect);
+}
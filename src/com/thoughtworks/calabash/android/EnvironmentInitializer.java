@@ -43,7 +43,7 @@ public class EnvironmentInitializer {
         for (String pathEntry : pathEntries) {
             File executable = new File(pathEntry, execName);
             if (executable.exists()) {
-                CalabashLogger.info(String.format(String.format("%s found at %s", execName, executable.getAbsolutePath())));
+                CalabashLogger.info("%s found at %s", execName, executable.getAbsolutePath());
                 return executable.getAbsolutePath();
             }
         }
@@ -53,21 +53,21 @@ public class EnvironmentInitializer {
     private static String findJavaHome(AndroidConfiguration configuration) throws CalabashException {
         String javaHomeFromConfig = configuration.getJavaHome();
         if (isNotEmpty(javaHomeFromConfig)) {
-            CalabashLogger.info(String.format("%s = %s from configuration", ENV_JAVA_HOME, javaHomeFromConfig));
+            CalabashLogger.info("%s = %s from configuration", ENV_JAVA_HOME, javaHomeFromConfig);
             return javaHomeFromConfig;
         }
         String javaHomeFromSystemProp = System.getProperty(PROPERTY_JAVA_HOME);
 
         if (isNotEmpty(javaHomeFromSystemProp)) {
 
-            CalabashLogger.info(String.format("%s = %s from system property", PROPERTY_JAVA_HOME, javaHomeFromSystemProp));
+            CalabashLogger.info("%s = %s from system property", PROPERTY_JAVA_HOME, javaHomeFromSystemProp);
             return javaHomeFromSystemProp;
         }
 
         String javaHomeFromEnv = System.getenv(ENV_JAVA_HOME);
         if (isNotEmpty(javaHomeFromEnv)) {
 
-            CalabashLogger.info(String.format("%s = %s from environment variable", ENV_JAVA_HOME, javaHomeFromEnv));
+            CalabashLogger.info("%s = %s from environment variable", ENV_JAVA_HOME, javaHomeFromEnv);
             return javaHomeFromEnv;
         }
         return null;
@@ -79,12 +79,12 @@ public class EnvironmentInitializer {
         String androidHomeFromConfig = configuration.getAndroidHome();
         if (isNotEmpty(androidHomeFromConfig)) {
             androidHome = androidHomeFromConfig;
-            CalabashLogger.info(String.format("%s = %s from configuration", ENV_ANDROID_HOME, androidHome));
+            CalabashLogger.info("%s = %s from configuration", ENV_ANDROID_HOME, androidHome);
         } else {
             String envValue = System.getenv(ENV_ANDROID_HOME);
             if (isNotEmpty(envValue)) {
                 androidHome = envValue;
-                CalabashLogger.info(String.format("%s = %s from environment", ENV_ANDROID_HOME, androidHome));
+                CalabashLogger.info("%s = %s from environment", ENV_ANDROID_HOME, androidHome);
             }
         }
         if (androidHome == null) {
@@ -0,0 +1,74 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Paths of one or more fingers over time, built with {@link GestureBuilder} and performed with
+ * {@link AndroidApplication#perform(Gesture)}. Each finger touches down at its first point, moves in straight
+ * lines through the following ones and lifts at its last point.
+ * <p/>
+ * The device plays every frame of the gesture at its time from the start, so fingers move at the speed they were
+ * built with, which matters for flings whose speed decides how far a list scrolls.
+ */
+public class Gesture {
+
+    private final List<List<GesturePoint>> pointers;
+
+    public Gesture(List<List<GesturePoint>> pointers) {
+        List<List<GesturePoint>> copy = new ArrayList<List<GesturePoint>>();
+        for (List<GesturePoint> pointer : pointers) {
+            copy.add(Collections.unmodifiableList(new ArrayList<GesturePoint>(pointer)));
+        }
+        this.pointers = Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * @return the path of every finger, as points ordered by time
+     */
+    public List<List<GesturePoint>> getPointers() {
+        return pointers;
+    }
+
+    public int getPointerCount() {
+        return pointers.size();
+    }
+
+    /**
+     * @return time from the first finger touching down to the last one lifting
+     */
+    public long getDurationInMs() {
+        long duration = 0;
+        for (List<GesturePoint> pointer : pointers) {
+            duration = Math.max(duration, pointer.get(pointer.size() - 1).getTimeInMs());
+        }
+        return duration;
+    }
+
+    /**
+     * Gets where a finger is at a point in time, moving in a straight line between its points
+     *
+     * @return the position, null if the finger is not touching the screen at that time
+     */
+    GesturePoint positionAt(int pointer, long timeInMs) {
+        List<GesturePoint> points = pointers.get(pointer);
+        if (timeInMs < points.get(0).getTimeInMs() || timeInMs > points.get(points.size() - 1).getTimeInMs())
+            return null;
+        for (int i = 1; i < points.size(); i++) {
+            GesturePoint from = points.get(i - 1);
+            GesturePoint to = points.get(i);
+            if (timeInMs <= to.getTimeInMs()) {
+                long span = to.getTimeInMs() - from.getTimeInMs();
+                double ratio = span == 0 ? 1 : (double) (timeInMs - from.getTimeInMs()) / span;
+                return new GesturePoint(from.getX() + (to.getX() - from.getX()) * ratio,
+                        from.getY() + (to.getY() - from.getY()) * ratio, timeInMs);
+            }
+        }
+        return points.get(0);
+    }
+
+    public String toString() {
+        return "Gesture" + pointers;
+    }
+}
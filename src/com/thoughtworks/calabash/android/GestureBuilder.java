@@ -0,0 +1,142 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds gestures made of one or more finger paths. Each finger starts with {@link #startAt(double, double)} and
+ * moves through straight segments. Coordinates are screen pixels, or fractions of an element's rect.
+ * <pre>
+ * Gesture unlock = new GestureBuilder()
+ *         .startAt(rect, 0.1, 0.1)
+ *         .lineTo(rect, 0.9, 0.1, 200)
+ *         .lineTo(rect, 0.1, 0.9, 200)
+ *         .lineTo(rect, 0.9, 0.9, 200)
+ *         .build();
+ * </pre>
+ * Fingers added with several calls to startAt move at the same time, which makes multi-touch gestures.
+ */
+public class GestureBuilder {
+
+    private final List<List<GesturePoint>> pointers = new ArrayList<List<GesturePoint>>();
+    private List<GesturePoint> current;
+
+    /**
+     * Straight swipe with one finger
+     */
+    public static Gesture swipe(double fromX, double fromY, double toX, double toY, long durationInMs) {
+        return new GestureBuilder().startAt(fromX, fromY).lineTo(toX, toY, durationInMs).build();
+    }
+
+    /**
+     * Swipes across an element, from 10% to 90% of its width or height
+     */
+    public static Gesture swipe(Rect rect, Direction direction, long durationInMs) {
+        GestureBuilder builder = new GestureBuilder();
+        switch (direction) {
+            case LEFT:
+                return builder.startAt(rect, 0.9, 0.5).lineTo(rect, 0.1, 0.5, durationInMs).build();
+            case RIGHT:
+                return builder.startAt(rect, 0.1, 0.5).lineTo(rect, 0.9, 0.5, durationInMs).build();
+            case UP:
+                return builder.startAt(rect, 0.5, 0.9).lineTo(rect, 0.5, 0.1, durationInMs).build();
+            default:
+                return builder.startAt(rect, 0.5, 0.1).lineTo(rect, 0.5, 0.9, durationInMs).build();
+        }
+    }
+
+    /**
+     * Two fingers moving apart or together across the center of an element
+     *
+     * @param fromSpread distance between the fingers at the start, as a fraction of the element's width
+     * @param toSpread   distance between the fingers at the end, larger than fromSpread to zoom in
+     */
+    public static Gesture pinch(Rect rect, double fromSpread, double toSpread, long durationInMs) {
+        return new GestureBuilder()
+                .startAt(rect, 0.5 - fromSpread / 2, 0.5).lineTo(rect, 0.5 - toSpread / 2, 0.5, durationInMs)
+                .startAt(rect, 0.5 + fromSpread / 2, 0.5).lineTo(rect, 0.5 + toSpread / 2, 0.5, durationInMs)
+                .build();
+    }
+
+    /**
+     * Puts a new finger down at the start of the gesture
+     */
+    public GestureBuilder startAt(double x, double y) {
+        return startAt(x, y, 0);
+    }
+
+    /**
+     * Puts a new finger down some time after the start of the gesture
+     */
+    public GestureBuilder startAt(double x, double y, long delayInMs) {
+        current = new ArrayList<GesturePoint>();
+        current.add(new GesturePoint(x, y, Math.max(0, delayInMs)));
+        pointers.add(current);
+        return this;
+    }
+
+    /**
+     * Puts a new finger down on an element at the start of the gesture
+     *
+     * @param fractionX position across the element, 0 for its left edge and 1 for its right edge
+     * @param fractionY position down the element, 0 for its top edge and 1 for its bottom edge
+     */
+    public GestureBuilder startAt(Rect rect, double fractionX, double fractionY) {
+        return startAt(xOf(rect, fractionX), yOf(rect, fractionY));
+    }
+
+    /**
+     * Moves the current finger in a straight line
+     */
+    public GestureBuilder lineTo(double x, double y, long durationInMs) {
+        GesturePoint last = last();
+        current.add(new GesturePoint(x, y, last.getTimeInMs() + Math.max(1, durationInMs)));
+        return this;
+    }
+
+    /**
+     * Moves the current finger in a straight line to a point of an element
+     */
+    public GestureBuilder lineTo(Rect rect, double fractionX, double fractionY, long durationInMs) {
+        return lineTo(xOf(rect, fractionX), yOf(rect, fractionY), durationInMs);
+    }
+
+    /**
+     * Moves the current finger by the given distance at the given speed, lifting it at the end makes a fling
+     *
+     * @param velocityInPxPerSec speed of the finger in pixels per second
+     */
+    public GestureBuilder fling(double dx, double dy, double velocityInPxPerSec) {
+        GesturePoint last = last();
+        long durationInMs = Math.round(Math.sqrt(dx * dx + dy * dy) * 1000 / Math.max(1, velocityInPxPerSec));
+        return lineTo(last.getX() + dx, last.getY() + dy, durationInMs);
+    }
+
+    /**
+     * Keeps the current finger still
+     */
+    public GestureBuilder hold(long durationInMs) {
+        GesturePoint last = last();
+        return lineTo(last.getX(), last.getY(), durationInMs);
+    }
+
+    public Gesture build() {
+        if (pointers.isEmpty())
+            throw new IllegalStateException("Gesture has no fingers, call startAt first");
+        return new Gesture(pointers);
+    }
+
+    private GesturePoint last() {
+        if (current == null)
+            throw new IllegalStateException("No finger is down, call startAt first");
+        return current.get(current.size() - 1);
+    }
+
+    private static double xOf(Rect rect, double fraction) {
+        return rect.getX() + rect.getWidth() * fraction;
+    }
+
+    private static double yOf(Rect rect, double fraction) {
+        return rect.getY() + rect.getHeight() * fraction;
+    }
+}
@@ -0,0 +1,50 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Position of a finger at a point in time of a {@link Gesture}
+ */
+public final class GesturePoint {
+
+    private final double x;
+    private final double y;
+    private final long timeInMs;
+
+    /**
+     * @param x        x coordinate on the screen in pixels
+     * @param y        y coordinate on the screen in pixels
+     * @param timeInMs time since the start of the gesture
+     */
+    public GesturePoint(double x, double y, long timeInMs) {
+        this.x = x;
+        this.y = y;
+        this.timeInMs = timeInMs;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public long getTimeInMs() {
+        return timeInMs;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GesturePoint)) return false;
+        GesturePoint that = (GesturePoint) o;
+        return Double.compare(that.x, x) == 0 && Double.compare(that.y, y) == 0 && timeInMs == that.timeInMs;
+    }
+
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y);
+        return (int) (bits ^ (bits >>> 32)) * 31 + (int) (timeInMs ^ (timeInMs >>> 32));
+    }
+
+    public String toString() {
+        return String.format("(%.1f, %.1f) at %d ms", x, y, timeInMs);
+    }
+}
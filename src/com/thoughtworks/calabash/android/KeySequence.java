@@ -0,0 +1,135 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text and key events to be typed on the device in one go, see {@link Keyboard#type(KeySequence)}. The events are
+ * turned into <code>input</code> commands chained in a single shell invocation, so a whole form costs one adb
+ * round trip instead of one per field.
+ * <pre>
+ * keyboard.type(new KeySequence().text("john").tab().text("doe").enter());
+ * </pre>
+ * Text can hold printable ASCII characters, new lines and tabs, which are typed as enter and tab key presses.
+ */
+public class KeySequence {
+
+    // keeps every invocation well within the command line length adb and older shells accept
+    static final int MAX_COMMAND_LENGTH = 1000;
+    private static final String TEXT = "input text ";
+    private static final String KEY = "input keyevent ";
+    private final List<String[]> events = new ArrayList<String[]>();
+
+    /**
+     * Types the text
+     */
+    public KeySequence text(String text) {
+        StringBuilder pending = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\t') {
+                addText(pending);
+                key(c == '\n' ? "KEYCODE_ENTER" : "KEYCODE_TAB");
+            } else {
+                pending.append(c);
+            }
+        }
+        addText(pending);
+        return this;
+    }
+
+    public KeySequence text(int number) {
+        return text(String.valueOf(number));
+    }
+
+    /**
+     * Presses a key
+     *
+     * @param keyCode name of the key code, like KEYCODE_DEL
+     */
+    public KeySequence key(String keyCode) {
+        events.add(new String[]{KEY, keyCode});
+        return this;
+    }
+
+    /**
+     * Presses a key
+     *
+     * @param keyCode number of the key code, like 67 for KEYCODE_DEL
+     */
+    public KeySequence key(int keyCode) {
+        return key(String.valueOf(keyCode));
+    }
+
+    public KeySequence enter() {
+        return key("KEYCODE_ENTER");
+    }
+
+    public KeySequence tab() {
+        return key("KEYCODE_TAB");
+    }
+
+    public KeySequence backspace(int times) {
+        for (int i = 0; i < times; i++) {
+            key("KEYCODE_DEL");
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * Gets the shell commands typing the sequence, each one chaining as many events as fit in a command line.
+     * Every command stops at the first event which fails.
+     *
+     * @throws CalabashException if the text holds characters <code>input</code> can't type
+     */
+    List<String> toShellCommands() throws CalabashException {
+        List<String> commands = new ArrayList<String>();
+        StringBuilder command = new StringBuilder();
+        for (String[] event : events) {
+            if (event[0].equals(TEXT))
+                validate(event[1]);
+            else if (!event[1].matches("[A-Za-z0-9_]+"))
+                throw new CalabashException("Invalid key code " + event[1]);
+            String quoted = event[0] + (event[0].equals(TEXT) ? quote(event[1]) : event[1]);
+            if (command.length() > 0 && command.length() + quoted.length() + 4 > MAX_COMMAND_LENGTH) {
+                commands.add(command.toString());
+                command.setLength(0);
+            }
+            if (command.length() > 0)
+                command.append(" && ");
+            command.append(quoted);
+        }
+        if (command.length() > 0)
+            commands.add(command.toString());
+        return commands;
+    }
+
+    private void addText(StringBuilder pending) {
+        if (pending.length() == 0)
+            return;
+        // long texts are typed in chunks so that each event fits in a command line
+        String text = pending.toString();
+        for (int start = 0; start < text.length(); start += MAX_COMMAND_LENGTH / 4) {
+            events.add(new String[]{TEXT, text.substring(start, Math.min(text.length(), start + MAX_COMMAND_LENGTH / 4))});
+        }
+        pending.setLength(0);
+    }
+
+    private static void validate(String text) throws CalabashException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x20 || c > 0x7e)
+                throw new CalabashException(String.format("Can't type character %s of '%s' with the keyboard, only printable ASCII is supported",
+                        Integer.toHexString(c), text));
+        }
+    }
+
+    // input reads %s as a space, and the device shell needs the rest quoted
+    static String quote(String text) {
+        return "'" + text.replace(" ", "%s").replace("'", "'\\''") + "'";
+    }
+}
@@ -1,11 +1,5 @@
 package com.thoughtworks.calabash.android;
 
-import com.thoughtworks.calabash.android.AndroidBridge;
-import com.thoughtworks.calabash.android.AndroidConfiguration;
-import com.thoughtworks.calabash.android.CalabashException;
-import com.thoughtworks.calabash.android.Environment;
-import com.thoughtworks.calabash.android.EnvironmentInitializer;
-
 /**
  * Sometimes "set_text" doesn't work properly in Calabash, so we need to
  * simulate the behavior of the physical keyboard. We can do this through ADB:
@@ -13,20 +7,75 @@ import com.thoughtworks.calabash.android.EnvironmentInitializer;
  * http://krazyrobot.com/2014/02/calabash-android-enter-text-from-keyboard-using
  * -adb/
  * 
+ * Get a keyboard bound to the device of an application with
+ * {@link AndroidApplication#keyboard()}. Keyboards of different devices are
+ * independent and can type in parallel. Keyboards created from a configuration
+ * start a new adb process for every event instead.
+ * 
  * @author Mike Chabot
  * 
  */
 public class Keyboard {
 
-	private static AndroidBridge bridge;
+	private final DeviceShell shell;
+	private final AndroidBridge bridge;
+	private final String serial;
+	private final Runnable afterTyping;
 
+	/**
+	 * Creates a keyboard for the device set in the configuration, or the only
+	 * connected device
+	 * 
+	 * @deprecated initializes the environment again, use
+	 *             {@link AndroidApplication#keyboard()}
+	 */
+	@Deprecated
 	public Keyboard(AndroidConfiguration androidConfiguration) {
+		AndroidBridge androidBridge = null;
 		try {
 			Environment environment = EnvironmentInitializer.initialize(androidConfiguration);
-			bridge = new AndroidBridge(environment);
+			androidBridge = new AndroidBridge(environment);
 		} catch (CalabashException e) {
-			System.out.println("Unable to initialize environment");
-			System.out.println(e.getMessage());
+			CalabashLogger.error("Unable to initialize environment", e);
+		}
+		this.shell = null;
+		this.bridge = androidBridge;
+		this.serial = androidConfiguration.getSerial();
+		this.afterTyping = null;
+	}
+
+	/**
+	 * @param afterTyping run after every sequence typed, even a failed one, null
+	 *            for nothing
+	 */
+	Keyboard(DeviceShell shell, Runnable afterTyping) {
+		this.shell = shell;
+		this.bridge = null;
+		this.serial = null;
+		this.afterTyping = afterTyping;
+	}
+
+	/**
+	 * Types a sequence of text and key events with a single shell command. Returns
+	 * once the app has handled every event, there is no need to pause after.
+	 * 
+	 * @param sequence
+	 * @throws CalabashException
+	 */
+	public void type(KeySequence sequence) throws CalabashException {
+		if (shell == null && bridge == null)
+			throw new CalabashException("Keyboard environment is not initialized");
+		try {
+			if (shell == null) {
+				bridge.sendInput(serial, sequence);
+				return;
+			}
+			for (String command : sequence.toShellCommands()) {
+				shell.run(command);
+			}
+		} finally {
+			if (afterTyping != null)
+				afterTyping.run();
 		}
 	}
 
@@ -36,12 +85,7 @@ public class Keyboard {
 	 * @param text
 	 */
 	public void writeTextEvent(String text) {
-		try {
-			bridge.sendTextEvent(text);
-			pause();
-		} catch (CalabashException e) {
-			System.out.println("Unable to send text event");
-		}
+		write(new KeySequence().text(text));
 	}
 
 	/**
@@ -50,12 +94,7 @@ public class Keyboard {
 	 * @param text
 	 */
 	public void writeTextEvent(int integer) {
-		try {
-			bridge.sendTextEvent(String.valueOf(integer));
-			pause();
-		} catch (CalabashException e) {
-			System.out.println("Unable to send text event");
-		}
+		write(new KeySequence().text(integer));
 	}
 
 	/**
@@ -64,22 +103,14 @@ public class Keyboard {
 	 * @param event
 	 */
 	public void writeKeyEvent(String event) {
-		try {
-			bridge.sendKeyEvent(event);
-			pause();
-		} catch (CalabashException e) {
-			System.out.println("Unable to send text event");
-		}
+		write(new KeySequence().key(event));
 	}
 
-	/**
-	 * Pause the thread
-	 */
-	private void pause() {
+	private void write(KeySequence sequence) {
 		try {
-			Thread.sleep(500);
-		} catch (InterruptedException e) {
-			System.out.println("Error pausing keyboard");
+			type(sequence);
+		} catch (CalabashException e) {
+			CalabashLogger.error("Unable to send input events", e);
 		}
 	}
 
@@ -0,0 +1,79 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations. Durations are kept in microseconds in buckets which double in width every 16
+ * buckets, so percentiles are accurate to about 6% whatever the scale, while the memory used stays fixed.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalInMicros = new AtomicLong();
+    private final AtomicLong maxInMicros = new AtomicLong();
+
+    void record(long durationInNanos, boolean succeeded) {
+        long micros = Math.max(0, durationInNanos / 1000);
+        buckets.incrementAndGet(bucketOf(micros));
+        totalInMicros.addAndGet(micros);
+        if (!succeeded)
+            failures.incrementAndGet();
+        long max;
+        while (micros > (max = maxInMicros.get()) && !maxInMicros.compareAndSet(max, micros)) {
+            // retry, another thread raised the max
+        }
+    }
+
+    LatencyStatistics getStatistics() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long max = maxInMicros.get();
+        double mean = total == 0 ? 0 : toMillis(totalInMicros.get()) / total;
+        return new LatencyStatistics(total, failures.get(), mean, percentile(counts, total, 0.5, max),
+                percentile(counts, total, 0.95, max), percentile(counts, total, 0.99, max), toMillis(max));
+    }
+
+    private static double percentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return toMillis(Math.min(max, middleOf(i)));
+        }
+        return toMillis(max);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long middleOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,67 @@
+package com.thoughtworks.calabash.android;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time latency distribution of an operation, in milliseconds
+ */
+public final class LatencyStatistics {
+
+    private final long count;
+    private final long failures;
+    private final double mean;
+    private final double p50;
+    private final double p95;
+    private final double p99;
+    private final double max;
+
+    @ConstructorProperties({"count", "failures", "mean", "p50", "p95", "p99", "max"})
+    public LatencyStatistics(long count, long failures, double mean, double p50, double p95, double p99, double max) {
+        this.count = count;
+        this.failures = failures;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * @return number of times the operation ran
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return number of times the operation failed
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP95() {
+        return p95;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public String toString() {
+        return String.format("count: %d, failures: %d, mean: %.1fms, p50: %.1fms, p95: %.1fms, p99: %.1fms, max: %.1fms",
+                count, failures, mean, p50, p95, p99, max);
+    }
+}
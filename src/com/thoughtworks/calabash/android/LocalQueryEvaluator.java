@@ -0,0 +1,237 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers simple calabash queries from a view hierarchy snapshot instead of the device. Supported queries are made
+ * of steps like <code>* id:'foo'</code>, <code>* text:'OK'</code>, <code>* marked:'x' index:1</code> joined by
+ * <code>child</code> or <code>descendant</code>. Steps naming a class, like <code>button text:'OK'</code>, are left
+ * to the device: it matches sub classes too, which the view dump has no type hierarchy for.
+ * <p/>
+ * Elements found keep the query of their position in the tree, so acting on one acts on that very view.
+ */
+public class LocalQueryEvaluator {
+
+    /**
+     * Evaluates the query against the snapshot
+     *
+     * @param query    calabash query
+     * @param snapshot view hierarchy to search
+     * @return matching elements, or null if the query can only be answered by the device
+     */
+    public UIElements evaluate(String query, ViewSnapshot snapshot) {
+        List<Step> steps = parse(query);
+        if (steps == null)
+            return null;
+
+        ViewSnapshotIndex index = snapshot.getIndex();
+        int[] positions = null;
+        for (Step step : steps) {
+            positions = step.select(index, positions);
+        }
+
+        List<UIElement> elements = new ArrayList<UIElement>();
+        for (int position : positions) {
+            elements.add(index.getNode(position).getData());
+        }
+        return UIElements.fromElements(elements);
+    }
+
+    /**
+     * Checks if the query can be answered from a snapshot
+     */
+    public boolean isSupported(String query) {
+        return parse(query) != null;
+    }
+
+    private List<Step> parse(String query) {
+        List<String> tokens = tokenize(query);
+        if (tokens == null || tokens.isEmpty())
+            return null;
+
+        List<Step> steps = new ArrayList<Step>();
+        Step step = null;
+        Axis axis = Axis.ANYWHERE;
+        for (String token : tokens) {
+            if (step == null) {
+                if (!token.equals("*"))
+                    return null;
+                step = new Step(axis);
+                steps.add(step);
+            } else if (token.equals("child") || token.equals("descendant")) {
+                axis = token.equals("child") ? Axis.CHILD : Axis.DESCENDANT;
+                step = null;
+            } else if (!step.addFilter(token)) {
+                return null;
+            }
+        }
+        return step == null ? null : steps;
+    }
+
+    private List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        char quote = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && i + 1 < query.length()) {
+                    token.append(c).append(query.charAt(++i));
+                    continue;
+                }
+                if (c == quote)
+                    quote = 0;
+                token.append(c);
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                token.append(c);
+            } else if (Character.isWhitespace(c)) {
+                if (token.length() > 0)
+                    tokens.add(token.toString());
+                token.setLength(0);
+            } else if ("{}[]()".indexOf(c) >= 0) {
+                return null;
+            } else {
+                token.append(c);
+            }
+        }
+        if (quote != 0)
+            return null;
+        if (token.length() > 0)
+            tokens.add(token.toString());
+        return tokens;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() < 2)
+            return null;
+        char quote = value.charAt(0);
+        if ((quote != '\'' && quote != '"') || value.charAt(value.length() - 1) != quote)
+            return null;
+
+        StringBuilder unquoted = new StringBuilder();
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() - 1)
+                c = value.charAt(++i);
+            unquoted.append(c);
+        }
+        return unquoted.toString();
+    }
+
+    private enum Axis {
+        ANYWHERE, CHILD, DESCENDANT
+    }
+
+    private static class Step {
+        private final Axis axis;
+        private String id;
+        private String text;
+        private String mark;
+        private Integer index;
+
+        private Step(Axis axis) {
+            this.axis = axis;
+        }
+
+        private boolean addFilter(String token) {
+            int separator = token.indexOf(':');
+            if (separator <= 0)
+                return false;
+            String name = token.substring(0, separator);
+            String value = token.substring(separator + 1);
+            if (name.equals("index")) {
+                try {
+                    index = Integer.parseInt(value);
+                    return index >= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+
+            value = unquote(value);
+            if (value == null)
+                return false;
+            if (name.equals("id") && id == null)
+                id = value;
+            else if (name.equals("text") && text == null)
+                text = value;
+            else if (name.equals("marked") && mark == null)
+                mark = value;
+            else
+                return false;
+            return true;
+        }
+
+        private int[] select(ViewSnapshotIndex snapshotIndex, int[] context) {
+            int[] candidates = getCandidates(snapshotIndex);
+            boolean[] selected = new boolean[snapshotIndex.size()];
+            switch (axis) {
+                case ANYWHERE:
+                    selectInRange(snapshotIndex, candidates, 0, snapshotIndex.size(), selected);
+                    break;
+                case CHILD:
+                    for (int parent : context) {
+                        for (int child : snapshotIndex.getChildren(parent)) {
+                            selected[child] = selected[child] || matches(snapshotIndex.getNode(child).getData());
+                        }
+                    }
+                    break;
+                case DESCENDANT:
+                    for (int ancestor : context) {
+                        selectInRange(snapshotIndex, candidates, ancestor + 1, snapshotIndex.getSubtreeEnd(ancestor), selected);
+                    }
+                    break;
+            }
+
+            int count = 0;
+            int[] result = new int[selected.length];
+            for (int position = 0; position < selected.length; position++) {
+                if (selected[position])
+                    result[count++] = position;
+            }
+            if (index != null)
+                return index < count ? new int[]{result[index]} : new int[0];
+            return Arrays.copyOf(result, count);
+        }
+
+        private void selectInRange(ViewSnapshotIndex snapshotIndex, int[] candidates, int from, int to, boolean[] selected) {
+            if (candidates == null) {
+                for (int position = from; position < to; position++) {
+                    selected[position] = selected[position] || matches(snapshotIndex.getNode(position).getData());
+                }
+                return;
+            }
+            int start = Arrays.binarySearch(candidates, from);
+            for (int i = start < 0 ? -start - 1 : start; i < candidates.length && candidates[i] < to; i++) {
+                int position = candidates[i];
+                selected[position] = selected[position] || matches(snapshotIndex.getNode(position).getData());
+            }
+        }
+
+        private int[] getCandidates(ViewSnapshotIndex snapshotIndex) {
+            if (id != null)
+                return snapshotIndex.withId(id);
+            if (text != null)
+                return snapshotIndex.withText(text);
+            if (mark != null)
+                return snapshotIndex.withMark(mark);
+            return null;
+        }
+
+        private boolean matches(UIElement element) {
+            if (element == null)
+                return false;
+            if (id != null && !id.equals(element.getId()))
+                return false;
+            if (text != null && !text.equals(element.getText()))
+                return false;
+            if (mark != null && !mark.equals(element.getId()) && !mark.equals(element.getText())
+                    && !mark.equals(element.getCachedContentDescription()))
+                return false;
+            return true;
+        }
+    }
+}
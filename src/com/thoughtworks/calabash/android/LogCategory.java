@@ -0,0 +1,24 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Kinds of log messages which can be given a level of their own with
+ * {@link AndroidConfiguration#setLogLevel(LogCategory, LogLevel)}
+ */
+public enum LogCategory {
+    /**
+     * Everything not in another category
+     */
+    GENERAL,
+    /**
+     * Output of adb and other commands, which can be large, like dumpsys
+     */
+    COMMAND_OUTPUT,
+    /**
+     * Queries and actions sent to the device
+     */
+    QUERY,
+    /**
+     * Fetching and building the view hierarchy
+     */
+    DUMP
+}
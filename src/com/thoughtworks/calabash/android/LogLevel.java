@@ -0,0 +1,8 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Least severe messages written to the log for a {@link LogCategory}
+ */
+public enum LogLevel {
+    INFO, ERROR, OFF
+}
@@ -0,0 +1,22 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Provides a callback when a call to the device or to adb completes
+ */
+public interface MetricsListener {
+
+    /**
+     * This method will be invoked on the calling thread after every timed operation, it should return quickly
+     *
+     * @param operation
+     *            Name of the operation, like query, touch or 'adb shell'
+     * @param serial
+     *            Serial of the device the operation ran against, empty if not known
+     * @param durationInNanos
+     *            Time the operation took
+     * @param succeeded
+     *            false if the operation failed
+     */
+    void operationCompleted(String operation, String serial, long durationInNanos, boolean succeeded);
+
+}
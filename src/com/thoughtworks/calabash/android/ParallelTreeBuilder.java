@@ -0,0 +1,96 @@
+package com.thoughtworks.calabash.android;
+
+import org.codehaus.jackson.JsonNode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the same tree as {@link TreeBuilder} using several threads, for very large hierarchies. The view dump is
+ * fetched and failures are reported just like the serial builder does. The top levels of the tree are built on the
+ * calling thread until there are enough independent subtrees to keep the executor busy, then each subtree is built
+ * by a task of its own without recursion.
+ * <p/>
+ * Used for the view snapshots when {@link AndroidConfiguration#setTreeBuilderThreads(int)} is more than 1. The
+ * executor is owned by the caller and is not shut down by the builder.
+ */
+public class ParallelTreeBuilder extends TreeBuilder {
+
+    private static final int SUBTREES_PER_THREAD = 4;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public ParallelTreeBuilder(CalabashWrapper calabashWrapper, ExecutorService executor, int parallelism) {
+        this(calabashWrapper, new CalabashHttpClient(calabashWrapper), new TreeNodeBuilder(calabashWrapper), executor,
+                parallelism);
+    }
+
+    public ParallelTreeBuilder(CalabashWrapper calabashWrapper, CalabashHttpClient calabashHttpClient,
+                               TreeNodeBuilder treeNodeBuilder, ExecutorService executor, int parallelism) {
+        super(calabashWrapper, calabashHttpClient, treeNodeBuilder);
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    @Override
+    protected TreeNode buildTree(JsonNode rootJsonNode) throws IOException {
+        final QueryPath rootQuery = QueryPath.root("* index:0");
+        final TreeNode root = getTreeNodeBuilder().buildAt(rootJsonNode, rootQuery);
+
+        // expand level by level until there are enough subtrees, leaves drop out as they are complete
+        List<Child> frontier = Collections.singletonList(new Child(root, rootJsonNode, rootQuery));
+        while (!frontier.isEmpty() && frontier.size() < parallelism * SUBTREES_PER_THREAD) {
+            List<Child> nextLevel = new ArrayList<Child>();
+            for (Child subtree : frontier) {
+                nextLevel.addAll(expand(subtree));
+            }
+            frontier = nextLevel;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Child subtree : frontier) {
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    build(subtree);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building the view hierarchy");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException("Failed to build the view hierarchy: " + e.getCause());
+        }
+        return root;
+    }
+
+    private void build(Child subtree) {
+        Deque<Child> pending = new ArrayDeque<Child>();
+        pending.push(subtree);
+        while (!pending.isEmpty()) {
+            for (Child child : expand(pending.pop())) {
+                pending.push(child);
+            }
+        }
+    }
+
+    private List<Child> expand(Child subtree) {
+        List<Child> children = visibleChildren(subtree.jsonNode, subtree.queryPath);
+        for (Child child : children) {
+            subtree.treeNode.appendChild(child.treeNode);
+        }
+        return children;
+    }
+}
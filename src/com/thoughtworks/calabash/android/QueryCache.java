@@ -0,0 +1,95 @@
+package com.thoughtworks.calabash.android;
+
+import org.jruby.RubyArray;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers query results for a limited time. A time to live of zero or less disables the cache.
+ */
+public class QueryCache {
+
+    public static final int MAX_ENTRIES = 1000;
+    private final long ttlInMs;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final Map<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public QueryCache(long ttlInMs) {
+        this.ttlInMs = ttlInMs;
+    }
+
+    public boolean isEnabled() {
+        return ttlInMs > 0;
+    }
+
+    /**
+     * @return the cached value if present and not expired, null otherwise
+     */
+    public RubyArray get(String key) {
+        if (!isEnabled())
+            return null;
+
+        synchronized (entries) {
+            CachedResult entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null)
+                entries.remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, RubyArray value) {
+        if (!isEnabled() || value == null)
+            return;
+
+        synchronized (entries) {
+            entries.put(key, new CachedResult(value, System.currentTimeMillis() + ttlInMs));
+        }
+    }
+
+    public void invalidate() {
+        if (!isEnabled())
+            return;
+
+        synchronized (entries) {
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.get(), misses.get(), invalidations.get());
+    }
+
+    public static String key(String query, String... args) {
+        StringBuilder key = new StringBuilder(query);
+        if (args != null) {
+            for (String arg : args) {
+                key.append('\u0000').append(arg);
+            }
+        }
+        return key.toString();
+    }
+
+    private static class CachedResult {
+        private final RubyArray value;
+        private final long expiresAt;
+
+        private CachedResult(RubyArray value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
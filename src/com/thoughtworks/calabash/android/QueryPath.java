@@ -0,0 +1,50 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Query of an element in a view tree, kept as a pointer to the parent's path and the element's index among the
+ * visible children. The query string is built only when asked for, so building a tree doesn't allocate a query
+ * string per element that grows with its depth.
+ */
+public final class QueryPath {
+
+    private final QueryPath parent;
+    private final String rootQuery;
+    private final int index;
+
+    private QueryPath(QueryPath parent, String rootQuery, int index) {
+        this.parent = parent;
+        this.rootQuery = rootQuery;
+        this.index = index;
+    }
+
+    static QueryPath root(String rootQuery) {
+        return new QueryPath(null, rootQuery, -1);
+    }
+
+    QueryPath child(int index) {
+        return new QueryPath(this, null, index);
+    }
+
+    @Override
+    public String toString() {
+        int depth = 0;
+        QueryPath root = this;
+        while (root.parent != null) {
+            root = root.parent;
+            depth++;
+        }
+
+        int[] indexes = new int[depth];
+        QueryPath current = this;
+        for (int i = depth - 1; i >= 0; i--) {
+            indexes[i] = current.index;
+            current = current.parent;
+        }
+
+        StringBuilder query = new StringBuilder(root.rootQuery);
+        for (int childIndex : indexes) {
+            query.append(" child * index:").append(childIndex);
+        }
+        return query.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Elements found by a query along with where they were found and how long it took
+ */
+public final class QueryResult {
+
+    private final UIElements elements;
+    private final QuerySource source;
+    private final long timeInMicros;
+    private final long snapshotTimeInMicros;
+
+    public QueryResult(UIElements elements, QuerySource source, long timeInMicros) {
+        this(elements, source, timeInMicros, 0);
+    }
+
+    public QueryResult(UIElements elements, QuerySource source, long timeInMicros, long snapshotTimeInMicros) {
+        this.elements = elements;
+        this.source = source;
+        this.timeInMicros = timeInMicros;
+        this.snapshotTimeInMicros = snapshotTimeInMicros;
+    }
+
+    public UIElements getElements() {
+        return elements;
+    }
+
+    /**
+     * @return SNAPSHOT if the query was answered from a view hierarchy snapshot, DEVICE otherwise
+     */
+    public QuerySource getSource() {
+        return source;
+    }
+
+    /**
+     * @return total time taken to answer the query, including {@link #getSnapshotTimeInMicros()}
+     */
+    public long getTimeInMicros() {
+        return timeInMicros;
+    }
+
+    /**
+     * @return time spent getting the snapshot a SNAPSHOT query was answered from, close to 0 when a held snapshot
+     * was reused
+     */
+    public long getSnapshotTimeInMicros() {
+        return snapshotTimeInMicros;
+    }
+}
@@ -0,0 +1,8 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Where the result of a query came from
+ */
+public enum QuerySource {
+    SNAPSHOT, DEVICE
+}
@@ -0,0 +1,15 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * How recorded responses are served back when replaying, see {@link AndroidConfiguration#setReplayFile(java.io.File, ReplayTiming)}
+ */
+public enum ReplayTiming {
+    /**
+     * responses are returned right away and waits don't sleep between retries
+     */
+    AS_FAST_AS_POSSIBLE,
+    /**
+     * each response is delayed by the latency it was recorded with
+     */
+    RECORDED
+}
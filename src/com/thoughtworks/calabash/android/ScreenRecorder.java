@@ -0,0 +1,262 @@
+package com.thoughtworks.calabash.android;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.thoughtworks.calabash.android.CalabashLogger.error;
+import static com.thoughtworks.calabash.android.CalabashLogger.info;
+
+/**
+ * Records the screen of a device with screenrecord while the test runs. screenrecord stops after three minutes
+ * at most, so the recording is made of segments, a new one being started as soon as the previous one ends. Each
+ * finished segment is pulled from the device and removed from it on a background thread.
+ * <p/>
+ * When only the last seconds are kept, segments older than that are deleted as newer ones arrive. When the
+ * recording is stopped the segments are joined into a single video with ffmpeg if it is on the path, otherwise
+ * they are left as they are along with a list ffmpeg can join them from later.
+ */
+public class ScreenRecorder {
+
+    private static final String VIDEO_NAME = "recording.mp4";
+    private static final String SEGMENT_LIST_NAME = "segments.txt";
+    private final AndroidBridge androidBridge;
+    private final String serial;
+    private final ScreenRecordingOptions options;
+    private final String ffmpeg;
+    private final String remotePrefix = "/sdcard/calabash-recording-" + System.currentTimeMillis() + "-";
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final ExecutorService puller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "calabash-screenrecord-pull");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private Thread recordingThread;
+    private volatile boolean stopping;
+    private String recordingPid;
+    private volatile Exception failure;
+
+    public ScreenRecorder(AndroidBridge androidBridge, String serial, ScreenRecordingOptions options) {
+        this(androidBridge, serial, options, "ffmpeg");
+    }
+
+    ScreenRecorder(AndroidBridge androidBridge, String serial, ScreenRecordingOptions options, String ffmpeg) {
+        this.androidBridge = androidBridge;
+        this.serial = serial;
+        this.options = options;
+        this.ffmpeg = ffmpeg;
+    }
+
+    public synchronized void start() throws CalabashException {
+        if (recordingThread != null)
+            throw new CalabashException("Screen recording was already started");
+        File directory = options.getOutputDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new CalabashException("Could not create recording directory " + directory.getAbsolutePath());
+
+        info("Recording the screen of %s to %s", serial, directory.getAbsolutePath());
+        // the first segment is started right away so that recording is under way once this returns
+        final Process first = androidBridge.startScreenRecord(serial, remotePath(0), options.getSegmentSeconds());
+        recordingThread = new Thread(new Runnable() {
+            public void run() {
+                record(first);
+            }
+        }, "calabash-screenrecord");
+        recordingThread.setDaemon(true);
+        recordingThread.start();
+    }
+
+    private void record(Process first) {
+        Process process = first;
+        for (int index = 0; ; index++) {
+            final String remotePath = remotePath(index);
+            long started = System.currentTimeMillis();
+            int exitCode;
+            try {
+                if (process == null)
+                    process = androidBridge.startScreenRecord(serial, remotePath, options.getSegmentSeconds());
+                String pid = androidBridge.readScreenRecordPid(process);
+                // stop may have been called while the segment was starting
+                if (recording(pid) && pid != null)
+                    androidBridge.stopScreenRecord(serial, pid);
+                exitCode = process.waitFor();
+                process = null;
+            } catch (CalabashException e) {
+                failure = e;
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+                return;
+            } finally {
+                recording(null);
+            }
+
+            if (exitCode != 0 && !stopping) {
+                failure = new CalabashException(String.format("screenrecord failed on %s with exit code %d", serial, exitCode));
+                return;
+            }
+            final Segment segment = new Segment(remotePath, new File(options.getOutputDirectory(),
+                    String.format("segment-%04d.mp4", index)), System.currentTimeMillis() - started);
+            puller.submit(new Runnable() {
+                public void run() {
+                    pull(segment);
+                }
+            });
+            if (stopping)
+                return;
+        }
+    }
+
+    /**
+     * Publishes the pid of the segment being recorded, so that stop interrupts that screenrecord only
+     *
+     * @return true if stop was called before, in which case the caller has to interrupt the segment itself
+     */
+    private synchronized boolean recording(String pid) {
+        recordingPid = pid;
+        return stopping;
+    }
+
+    private String remotePath(int index) {
+        return remotePrefix + index + ".mp4";
+    }
+
+    private void pull(Segment segment) {
+        try {
+            androidBridge.pullFile(serial, segment.remotePath, segment.file);
+            androidBridge.removeFile(serial, segment.remotePath);
+        } catch (CalabashException e) {
+            error("Could not pull screen recording segment %s", e, segment.remotePath);
+            return;
+        }
+
+        synchronized (segments) {
+            segments.add(segment);
+            int keepLastMs = options.getKeepLastSeconds() * 1000;
+            if (keepLastMs == 0)
+                return;
+            long kept = 0;
+            for (Segment each : segments) {
+                kept += each.durationInMs;
+            }
+            // drop the oldest segments as long as the newer ones still cover the time to keep
+            while (segments.size() > 1 && kept - segments.getFirst().durationInMs >= keepLastMs) {
+                Segment oldest = segments.removeFirst();
+                kept -= oldest.durationInMs;
+                if (!oldest.file.delete())
+                    error("Could not delete old screen recording segment %s", oldest.file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Stops recording, waits for the last segment to be pulled and joins the segments
+     *
+     * @return the recording
+     * @throws CalabashException if recording failed before anything was recorded
+     */
+    public ScreenRecording stop() throws CalabashException {
+        String pid;
+        synchronized (this) {
+            if (recordingThread == null)
+                throw new CalabashException("Screen recording was not started");
+            if (stopping)
+                throw new CalabashException("Screen recording was already stopped");
+            stopping = true;
+            pid = recordingPid;
+        }
+
+        try {
+            // without a pid the recording thread interrupts the segment it is starting
+            if (pid != null)
+                androidBridge.stopScreenRecord(serial, pid);
+            recordingThread.join(TimeUnit.SECONDS.toMillis(30));
+            puller.shutdown();
+            puller.awaitTermination(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CalabashException("Interrupted while stopping the screen recording", e);
+        }
+
+        List<File> files = new ArrayList<File>();
+        long durationInMs = 0;
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                files.add(segment.file);
+                durationInMs += segment.durationInMs;
+            }
+        }
+        if (failure != null) {
+            error("Screen recording of %s failed", failure, serial);
+            if (files.isEmpty())
+                throw new CalabashException("Screen recording failed: " + failure.getMessage(), failure);
+        }
+
+        if (files.size() == 1)
+            return new ScreenRecording(files, files.get(0), durationInMs);
+        File video = join(files);
+        return video == null ? new ScreenRecording(files, null, durationInMs)
+                : new ScreenRecording(new ArrayList<File>(), video, durationInMs);
+    }
+
+    private File join(List<File> files) throws CalabashException {
+        if (files.isEmpty())
+            return null;
+        File list = new File(options.getOutputDirectory(), SEGMENT_LIST_NAME);
+        Writer writer = null;
+        try {
+            writer = new FileWriter(list);
+            for (File file : files) {
+                writer.write("file '" + file.getAbsolutePath().replace("'", "'\\''") + "'\n");
+            }
+        } catch (IOException e) {
+            throw new CalabashException("Could not write the segment list " + list.getAbsolutePath(), e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    error("Could not close the segment list", e);
+                }
+            }
+        }
+
+        File video = new File(options.getOutputDirectory(), VIDEO_NAME);
+        String[] command = {ffmpeg, "-y", "-loglevel", "error", "-f", "concat", "-safe", "0", "-i", list.getAbsolutePath(),
+                "-c", "copy", video.getAbsolutePath()};
+        try {
+            Utils.runCommand(command, "Could not join the screen recording segments");
+        } catch (CalabashException e) {
+            info("Could not join the screen recording segments with %s, they are listed in %s", ffmpeg, list.getAbsolutePath());
+            return null;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        list.delete();
+        return video;
+    }
+
+    private static class Segment {
+        private final String remotePath;
+        private final File file;
+        private final long durationInMs;
+
+        Segment(String remotePath, File file, long durationInMs) {
+            this.remotePath = remotePath;
+            this.file = file;
+            this.durationInMs = durationInMs;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.thoughtworks.calabash.android;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a screen recording, see {@link ScreenRecorder}
+ */
+public class ScreenRecording {
+
+    private final List<File> segments;
+    private final File video;
+    private final long durationInMs;
+
+    public ScreenRecording(List<File> segments, File video, long durationInMs) {
+        this.segments = Collections.unmodifiableList(segments);
+        this.video = video;
+        this.durationInMs = durationInMs;
+    }
+
+    /**
+     * @return the segments the recording is made of in the order they were recorded, empty once they were joined
+     * into a single video
+     */
+    public List<File> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return the whole recording as one video, null if the segments could not be joined
+     */
+    public File getVideo() {
+        return video;
+    }
+
+    /**
+     * @return approximate length of the recording kept
+     */
+    public long getDurationInMs() {
+        return durationInMs;
+    }
+
+    public String toString() {
+        return String.format("video: %s, segments: %d, duration: %d ms", video, segments.size(), durationInMs);
+    }
+}
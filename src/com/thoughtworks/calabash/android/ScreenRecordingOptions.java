@@ -0,0 +1,58 @@
+package com.thoughtworks.calabash.android;
+
+import java.io.File;
+
+/**
+ * Options of a screen recording, see {@link AndroidApplication#startRecording(ScreenRecordingOptions)}
+ */
+public final class ScreenRecordingOptions {
+
+    /**
+     * Longest recording screenrecord makes in one go
+     */
+    public static final int DEVICE_TIME_LIMIT_IN_SEC = 180;
+    private final File outputDirectory;
+    private final int keepLastSeconds;
+
+    /**
+     * Keeps the whole recording
+     *
+     * @param outputDirectory directory the video is written to, created if missing
+     */
+    public ScreenRecordingOptions(File outputDirectory) {
+        this(outputDirectory, 0);
+    }
+
+    /**
+     * Keeps at least the last seconds of the recording and drops older parts as the recording goes on, so the
+     * storage used stays bounded however long the test runs. Stop the recording when a failure happens to keep
+     * the moments before it.
+     *
+     * @param outputDirectory directory the video is written to, created if missing
+     * @param keepLastSeconds seconds to keep, 0 to keep everything
+     */
+    public ScreenRecordingOptions(File outputDirectory, int keepLastSeconds) {
+        this.outputDirectory = outputDirectory;
+        this.keepLastSeconds = Math.max(0, keepLastSeconds);
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public int getKeepLastSeconds() {
+        return keepLastSeconds;
+    }
+
+    /**
+     * Gets the length of the segments the recording is made of. Segments are as long as the device allows, or
+     * half the time to keep so that old parts can be dropped in small steps.
+     *
+     * @return length in seconds
+     */
+    public int getSegmentSeconds() {
+        if (keepLastSeconds == 0)
+            return DEVICE_TIME_LIMIT_IN_SEC;
+        return Math.min(DEVICE_TIME_LIMIT_IN_SEC, Math.max(1, (keepLastSeconds + 1) / 2));
+    }
+}
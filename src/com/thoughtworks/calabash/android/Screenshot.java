@@ -0,0 +1,162 @@
+package com.thoughtworks.calabash.android;
+
+import org.apache.commons.io.FileUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Screen contents read straight from the device framebuffer with <code>adb exec-out screencap</code>. Holds
+ * either the PNG produced on the device or the raw RGBA pixels, which are quicker to capture as the device does
+ * not have to encode them. Conversions are done on demand.
+ */
+public class Screenshot {
+
+    private static final int RGBA_8888 = 1;
+    private final long takenAt;
+    private final byte[] png;
+    private final byte[] rgba;
+    private final int width;
+    private final int height;
+
+    private Screenshot(long takenAt, byte[] png, byte[] rgba, int width, int height) {
+        this.takenAt = takenAt;
+        this.png = png;
+        this.rgba = rgba;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a screenshot from the output of <code>screencap -p</code>
+     */
+    public static Screenshot fromPng(byte[] png) throws CalabashException {
+        if (png.length < 24 || (png[0] & 0xff) != 0x89 || png[1] != 'P' || png[2] != 'N' || png[3] != 'G')
+            throw new CalabashException("screencap did not return a PNG image");
+        // width and height are the first fields of the IHDR chunk
+        return new Screenshot(System.currentTimeMillis(), png, null, readInt(png, 16, false), readInt(png, 20, false));
+    }
+
+    /**
+     * Reads a PNG screenshot from disk, like the ones written by {@link AndroidApplication#takeScreenshot(File, String)}
+     */
+    public static Screenshot fromFile(File file) throws CalabashException {
+        try {
+            Screenshot screenshot = fromPng(FileUtils.readFileToByteArray(file));
+            return new Screenshot(file.lastModified(), screenshot.png, null, screenshot.width, screenshot.height);
+        } catch (IOException e) {
+            throw new CalabashException("Could not read screenshot " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Creates a screenshot from the output of <code>screencap</code>, a header of width, height and pixel format,
+     * followed by a color space on newer devices, then the pixels
+     */
+    public static Screenshot fromRaw(byte[] raw) throws CalabashException {
+        if (raw.length < 12)
+            throw new CalabashException("screencap returned " + raw.length + " bytes");
+        int width = readInt(raw, 0, true);
+        int height = readInt(raw, 4, true);
+        int format = readInt(raw, 8, true);
+        if (format != RGBA_8888)
+            throw new CalabashException("Unsupported screencap pixel format " + format);
+        long size = (long) width * height * 4;
+        int headerSize = raw.length - size == 16 ? 16 : 12;
+        if (width <= 0 || height <= 0 || raw.length - headerSize != size)
+            throw new CalabashException(String.format("screencap returned %d bytes for %dx%d", raw.length, width, height));
+        byte[] rgba = new byte[(int) size];
+        System.arraycopy(raw, headerSize, rgba, 0, rgba.length);
+        return new Screenshot(System.currentTimeMillis(), null, rgba, width, height);
+    }
+
+    private static int readInt(byte[] bytes, int offset, boolean littleEndian) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = bytes[offset + (littleEndian ? 3 - i : i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * @return time the screenshot was captured at, in milliseconds since the epoch
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if the pixels are held raw, false if the device encoded them as PNG
+     */
+    public boolean isRaw() {
+        return rgba != null;
+    }
+
+    /**
+     * Gets the raw pixels, four bytes per pixel in RGBA order, row by row. Decodes the PNG if the screenshot was
+     * captured as one.
+     */
+    public byte[] getRgba() throws CalabashException {
+        if (rgba != null)
+            return rgba;
+        BufferedImage image = toBufferedImage();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        byte[] pixels = new byte[width * height * 4];
+        for (int i = 0, p = 0; i < argb.length; i++) {
+            pixels[p++] = (byte) (argb[i] >> 16);
+            pixels[p++] = (byte) (argb[i] >> 8);
+            pixels[p++] = (byte) argb[i];
+            pixels[p++] = (byte) (argb[i] >>> 24);
+        }
+        return pixels;
+    }
+
+    public BufferedImage toBufferedImage() throws CalabashException {
+        if (png != null) {
+            try {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+                if (image == null)
+                    throw new CalabashException("Could not decode screenshot");
+                return image;
+            } catch (IOException e) {
+                throw new CalabashException("Could not decode screenshot", e);
+            }
+        }
+
+        int[] argb = new int[width * height];
+        for (int i = 0, p = 0; i < argb.length; i++, p += 4) {
+            argb[i] = (rgba[p + 3] & 0xff) << 24 | (rgba[p] & 0xff) << 16 | (rgba[p + 1] & 0xff) << 8 | (rgba[p + 2] & 0xff);
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    /**
+     * Gets the screenshot as PNG, encoding the raw pixels if needed
+     */
+    public byte[] toPng() throws CalabashException {
+        if (png != null)
+            return png;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(rgba.length / 4);
+            ImageIO.write(toBufferedImage(), "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new CalabashException("Could not encode screenshot", e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of comparing two screenshots, see {@link ScreenshotDiffer}
+ */
+public class ScreenshotDiff {
+
+    private final boolean matching;
+    private final int hashDistance;
+    private final long differentPixels;
+    private final long comparedPixels;
+    private final List<Rect> differentRegions;
+
+    public ScreenshotDiff(boolean matching, int hashDistance, long differentPixels, long comparedPixels,
+                          List<Rect> differentRegions) {
+        this.matching = matching;
+        this.hashDistance = hashDistance;
+        this.differentPixels = differentPixels;
+        this.comparedPixels = comparedPixels;
+        this.differentRegions = Collections.unmodifiableList(differentRegions);
+    }
+
+    /**
+     * @return true if the screenshots are the same within the tolerance of the differ
+     */
+    public boolean isMatching() {
+        return matching;
+    }
+
+    /**
+     * @return number of bits the perceptual hashes of the screenshots differ in, from 0 to 64
+     */
+    public int getHashDistance() {
+        return hashDistance;
+    }
+
+    /**
+     * @return number of pixels which differ by more than the tolerance, -1 if the pixels were not compared because
+     * the screenshots differ in size or their perceptual hashes were too far apart
+     */
+    public long getDifferentPixels() {
+        return differentPixels;
+    }
+
+    /**
+     * @return number of pixels compared, masked pixels are left out
+     */
+    public long getComparedPixels() {
+        return comparedPixels;
+    }
+
+    /**
+     * @return ratio of different pixels to compared pixels, 1 if the pixels were not compared
+     */
+    public double getDifferentRatio() {
+        if (differentPixels < 0)
+            return 1;
+        return comparedPixels == 0 ? 0 : (double) differentPixels / comparedPixels;
+    }
+
+    /**
+     * @return the tiles which contain different pixels, in screen coordinates
+     */
+    public List<Rect> getDifferentRegions() {
+        return differentRegions;
+    }
+
+    public String toString() {
+        return String.format("matching: %s, hash distance: %d, different pixels: %d of %d, regions: %d", matching,
+                hashDistance, differentPixels, comparedPixels, differentRegions.size());
+    }
+}
@@ -0,0 +1,335 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Compares screenshots for visual regression testing. Screenshots with identical pixels match right away.
+ * Otherwise a 64 bit perceptual hash of each is computed from a small grayscale thumbnail, and screenshots whose
+ * hashes are too far apart are reported as different without looking at every pixel. A hash bit only counts as
+ * different when the thumbnail changed by more than the channel tolerance allows, so noise within the tolerance
+ * never rejects a pair. The remaining pairs are compared pixel by pixel in square tiles, in parallel when an
+ * executor is given.
+ * <p/>
+ * Regions which change from run to run, like clocks and spinners, can be masked with the rect of their element.
+ * Masked pixels are left out of both the hash and the pixel comparison.
+ * <p/>
+ * The executor is owned by the caller and is not shut down by the differ. Configure the differ before comparing,
+ * the comparisons themselves can run from several threads.
+ */
+public class ScreenshotDiffer {
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    private static final int HASH_SAMPLES_PER_CELL = 16;
+    private static final int GRAY_WEIGHTS = 299 + 587 + 114;
+    private final ExecutorService executor;
+    private final List<Rect> masks = new ArrayList<Rect>();
+    private int channelTolerance = 0;
+    private double maxDifferentRatio = 0;
+    private int maxHashDistance = 12;
+    private int tileSize = 64;
+
+    /**
+     * Creates a differ which compares tiles on the calling thread
+     */
+    public ScreenshotDiffer() {
+        this(null);
+    }
+
+    /**
+     * @param executor executor the tiles are compared on, null to compare them on the calling thread
+     */
+    public ScreenshotDiffer(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets how much a color channel of a pixel may change before the pixel counts as different. Defaults to 0
+     *
+     * @param channelTolerance difference from 0 to 255
+     */
+    public void setChannelTolerance(int channelTolerance) {
+        this.channelTolerance = Math.max(0, Math.min(255, channelTolerance));
+    }
+
+    /**
+     * Sets the ratio of compared pixels which may be different for screenshots to still match. Defaults to 0
+     *
+     * @param maxDifferentRatio ratio from 0 to 1
+     */
+    public void setMaxDifferentRatio(double maxDifferentRatio) {
+        this.maxDifferentRatio = Math.max(0, Math.min(1, maxDifferentRatio));
+    }
+
+    /**
+     * Sets how many bits the perceptual hashes may differ in before screenshots are reported as different without
+     * comparing their pixels. Defaults to 12, 64 compares the pixels of every pair.
+     *
+     * @param maxHashDistance number of bits from 0 to 64
+     */
+    public void setMaxHashDistance(int maxHashDistance) {
+        this.maxHashDistance = Math.max(0, Math.min(64, maxHashDistance));
+    }
+
+    /**
+     * Sets the width and height of the tiles pixels are compared in. Defaults to 64
+     *
+     * @param tileSize size in pixels
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(8, tileSize);
+    }
+
+    /**
+     * Leaves a region out of every comparison
+     *
+     * @param rect region in screen coordinates
+     */
+    public void mask(Rect rect) {
+        if (rect != null)
+            masks.add(rect);
+    }
+
+    /**
+     * Leaves the region of an element out of every comparison, for elements which change on their own
+     *
+     * @param element the element, its rect is used
+     */
+    public void mask(UIElement element) {
+        mask(element.getRect());
+    }
+
+    /**
+     * Leaves the regions of the elements out of every comparison
+     */
+    public void mask(UIElements elements) {
+        for (UIElement element : elements) {
+            mask(element);
+        }
+    }
+
+    public ScreenshotDiff diff(Screenshot expected, Screenshot actual) throws CalabashException {
+        return diff(expected, actual, Collections.<Rect>emptyList());
+    }
+
+    /**
+     * Compares two screenshots
+     *
+     * @param expected    the reference screenshot
+     * @param actual      the screenshot taken in this run
+     * @param extraMasks  regions left out of this comparison only, in addition to the masks of the differ
+     * @return the differences
+     * @throws CalabashException
+     */
+    public ScreenshotDiff diff(Screenshot expected, Screenshot actual, Collection<Rect> extraMasks) throws CalabashException {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        if (width != actual.getWidth() || height != actual.getHeight())
+            return new ScreenshotDiff(false, 64, -1, 0, Collections.singletonList(toRect(0, 0, width, height)));
+
+        int[][] maskBounds = toBounds(extraMasks, width, height);
+        byte[] before = expected.getRgba();
+        byte[] after = actual.getRgba();
+        if (maskBounds.length == 0 && Arrays.equals(before, after))
+            return new ScreenshotDiff(true, 0, 0, (long) width * height, Collections.<Rect>emptyList());
+
+        int hashDistance = hashDistance(thumbnail(before, width, height, maskBounds),
+                thumbnail(after, width, height, maskBounds));
+        if (hashDistance > maxHashDistance)
+            return new ScreenshotDiff(false, hashDistance, -1, 0, Collections.singletonList(toRect(0, 0, width, height)));
+
+        List<TileResult> results = compareTiles(before, after, width, height, maskBounds);
+        long differentPixels = 0;
+        long comparedPixels = 0;
+        List<Rect> regions = new ArrayList<Rect>();
+        for (TileResult result : results) {
+            differentPixels += result.differentPixels;
+            comparedPixels += result.comparedPixels;
+            regions.addAll(result.regions);
+        }
+        boolean matching = differentPixels <= maxDifferentRatio * comparedPixels;
+        return new ScreenshotDiff(matching, hashDistance, differentPixels, comparedPixels, regions);
+    }
+
+    /**
+     * Computes the perceptual hash of a screenshot, a difference hash of a 9x8 grayscale thumbnail. Screenshots
+     * which look alike have hashes which differ in few bits.
+     */
+    public long hash(Screenshot screenshot) throws CalabashException {
+        double[] cells = thumbnail(screenshot.getRgba(), screenshot.getWidth(), screenshot.getHeight(),
+                toBounds(Collections.<Rect>emptyList(), screenshot.getWidth(), screenshot.getHeight()));
+        long hash = 0;
+        for (int cy = 0; cy < HASH_HEIGHT; cy++) {
+            for (int cx = 0; cx < HASH_WIDTH - 1; cx++) {
+                hash <<= 1;
+                if (gradient(cells, cx, cy) > 0)
+                    hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Counts the hash bits which flipped by more than the tolerance explains. A channel within the tolerance moves
+     * the gray value of a cell by at most tolerance * GRAY_WEIGHTS, and a gradient by twice that, so a gradient has
+     * to cross a band of that half width around 0 for its bit to count. Without tolerance this is the bit count of
+     * the xor of both hashes.
+     */
+    private int hashDistance(double[] before, double[] after) {
+        double band = (double) channelTolerance * GRAY_WEIGHTS;
+        int distance = 0;
+        for (int cy = 0; cy < HASH_HEIGHT; cy++) {
+            for (int cx = 0; cx < HASH_WIDTH - 1; cx++) {
+                double gradientBefore = gradient(before, cx, cy);
+                double gradientAfter = gradient(after, cx, cy);
+                if ((gradientBefore > band && gradientAfter <= -band) || (gradientAfter > band && gradientBefore <= -band))
+                    distance++;
+            }
+        }
+        return distance;
+    }
+
+    private static double gradient(double[] cells, int cx, int cy) {
+        return cells[cy * HASH_WIDTH + cx + 1] - cells[cy * HASH_WIDTH + cx];
+    }
+
+    private double[] thumbnail(byte[] rgba, int width, int height, int[][] maskBounds) {
+        double[] cells = new double[HASH_WIDTH * HASH_HEIGHT];
+        for (int cy = 0; cy < HASH_HEIGHT; cy++) {
+            int top = cy * height / HASH_HEIGHT;
+            int bottom = Math.max(top + 1, (cy + 1) * height / HASH_HEIGHT);
+            int stepY = Math.max(1, (bottom - top) / HASH_SAMPLES_PER_CELL);
+            for (int cx = 0; cx < HASH_WIDTH; cx++) {
+                int left = cx * width / HASH_WIDTH;
+                int right = Math.max(left + 1, (cx + 1) * width / HASH_WIDTH);
+                int stepX = Math.max(1, (right - left) / HASH_SAMPLES_PER_CELL);
+                // thumbnail cells are sampled rather than averaged over every pixel, which is enough for a hash
+                long sum = 0;
+                int samples = 0;
+                for (int y = top; y < bottom && y < height; y += stepY) {
+                    for (int x = left; x < right && x < width; x += stepX) {
+                        if (isMasked(x, y, maskBounds))
+                            continue;
+                        int p = (y * width + x) * 4;
+                        sum += 299 * (rgba[p] & 0xff) + 587 * (rgba[p + 1] & 0xff) + 114 * (rgba[p + 2] & 0xff);
+                        samples++;
+                    }
+                }
+                cells[cy * HASH_WIDTH + cx] = samples == 0 ? 0 : (double) sum / samples;
+            }
+        }
+        return cells;
+    }
+
+    private List<TileResult> compareTiles(final byte[] before, final byte[] after, final int width, final int height,
+                                          final int[][] maskBounds) throws CalabashException {
+        // one task per row of tiles keeps the number of tasks small on tall screens
+        List<Callable<TileResult>> tasks = new ArrayList<Callable<TileResult>>();
+        for (int top = 0; top < height; top += tileSize) {
+            final int tileTop = top;
+            tasks.add(new Callable<TileResult>() {
+                public TileResult call() {
+                    return compareRow(before, after, width, height, tileTop, maskBounds);
+                }
+            });
+        }
+
+        List<TileResult> results = new ArrayList<TileResult>();
+        try {
+            if (executor == null) {
+                for (Callable<TileResult> task : tasks) {
+                    results.add(task.call());
+                }
+            } else {
+                for (Future<TileResult> result : executor.invokeAll(tasks)) {
+                    results.add(result.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CalabashException("Interrupted while comparing screenshots", e);
+        } catch (ExecutionException e) {
+            throw new CalabashException("Could not compare screenshots: " + e.getCause().getMessage(), e);
+        } catch (Exception e) {
+            throw new CalabashException("Could not compare screenshots", e);
+        }
+        return results;
+    }
+
+    private TileResult compareRow(byte[] before, byte[] after, int width, int height, int top, int[][] maskBounds) {
+        TileResult row = new TileResult();
+        int bottom = Math.min(height, top + tileSize);
+        for (int left = 0; left < width; left += tileSize) {
+            int right = Math.min(width, left + tileSize);
+            int[][] tileMasks = intersecting(maskBounds, left, top, right, bottom);
+            long different = 0;
+            long compared = 0;
+            for (int y = top; y < bottom; y++) {
+                int p = (y * width + left) * 4;
+                for (int x = left; x < right; x++, p += 4) {
+                    if (tileMasks.length > 0 && isMasked(x, y, tileMasks))
+                        continue;
+                    compared++;
+                    if (Math.abs((before[p] & 0xff) - (after[p] & 0xff)) > channelTolerance
+                            || Math.abs((before[p + 1] & 0xff) - (after[p + 1] & 0xff)) > channelTolerance
+                            || Math.abs((before[p + 2] & 0xff) - (after[p + 2] & 0xff)) > channelTolerance
+                            || Math.abs((before[p + 3] & 0xff) - (after[p + 3] & 0xff)) > channelTolerance)
+                        different++;
+                }
+            }
+            row.comparedPixels += compared;
+            row.differentPixels += different;
+            if (different > 0)
+                row.regions.add(toRect(left, top, right - left, bottom - top));
+        }
+        return row;
+    }
+
+    private int[][] toBounds(Collection<Rect> extraMasks, int width, int height) {
+        List<Rect> all = new ArrayList<Rect>(masks);
+        all.addAll(extraMasks);
+        List<int[]> bounds = new ArrayList<int[]>();
+        for (Rect rect : all) {
+            if (rect == null || rect.getX() == null || rect.getY() == null || rect.getWidth() == null || rect.getHeight() == null)
+                continue;
+            int left = Math.max(0, (int) Math.floor(rect.getX()));
+            int top = Math.max(0, (int) Math.floor(rect.getY()));
+            int right = Math.min(width, (int) Math.ceil(rect.getX() + rect.getWidth()));
+            int bottom = Math.min(height, (int) Math.ceil(rect.getY() + rect.getHeight()));
+            if (left < right && top < bottom)
+                bounds.add(new int[]{left, top, right, bottom});
+        }
+        return bounds.toArray(new int[bounds.size()][]);
+    }
+
+    private static int[][] intersecting(int[][] maskBounds, int left, int top, int right, int bottom) {
+        List<int[]> result = new ArrayList<int[]>();
+        for (int[] mask : maskBounds) {
+            if (mask[0] < right && mask[2] > left && mask[1] < bottom && mask[3] > top)
+                result.add(mask);
+        }
+        return result.toArray(new int[result.size()][]);
+    }
+
+    private static boolean isMasked(int x, int y, int[][] maskBounds) {
+        for (int[] mask : maskBounds) {
+            if (x >= mask[0] && x < mask[2] && y >= mask[1] && y < mask[3])
+                return true;
+        }
+        return false;
+    }
+
+    private static Rect toRect(int x, int y, int width, int height) {
+        return new Rect((double) x, (double) y, (double) width, (double) height, x + width / 2.0, y + height / 2.0);
+    }
+
+    private static class TileResult {
+        private long differentPixels;
+        private long comparedPixels;
+        private final List<Rect> regions = new ArrayList<Rect>();
+    }
+}
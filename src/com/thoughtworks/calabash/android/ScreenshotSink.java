@@ -0,0 +1,207 @@
+package com.thoughtworks.calabash.android;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.thoughtworks.calabash.android.CalabashLogger.error;
+import static com.thoughtworks.calabash.android.CalabashLogger.info;
+
+/**
+ * Hashes, encodes and writes screenshots on a pool of background threads, so capturing one only costs the time
+ * to read the framebuffer. A screenshot identical to one already written is not written again, the listener is
+ * given the earlier file instead, as long as that file still holds the same pixels. When a file name is reused for
+ * a different screenshot, later duplicates of what it held are written again.
+ * <p/>
+ * At most a fixed number of screenshots wait to be written. When the queue is full, submitting blocks until a
+ * worker catches up, which keeps memory bounded however fast screenshots are taken.
+ * <p/>
+ * The {@link ScreenshotListener} is invoked on a worker thread once the file is written. With more than one
+ * worker, listeners of consecutive screenshots may be invoked out of order.
+ */
+public class ScreenshotSink {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+    private static final String IMAGE_TYPE = "image/png";
+    private final ThreadPoolExecutor executor;
+    private final ScreenshotListener listener;
+    private final ConcurrentMap<String, FutureTask<File>> written = new ConcurrentHashMap<String, FutureTask<File>>();
+    // content key of the screenshot last written to each file
+    private final ConcurrentMap<File, String> contents = new ConcurrentHashMap<File, String>();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    public ScreenshotSink(ScreenshotListener listener) {
+        this(listener, Math.min(4, Runtime.getRuntime().availableProcessors()), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param listener      invoked once a screenshot is written, may be null
+     * @param threads       number of worker threads
+     * @param queueCapacity number of screenshots which can wait to be written before submitting blocks
+     */
+    public ScreenshotSink(ScreenshotListener listener, int threads, int queueCapacity) {
+        final int workers = Math.max(1, threads);
+        this.listener = listener;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "calabash-screenshot-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                if (executor.isShutdown())
+                    throw new RejectedExecutionException("Screenshot sink is closed");
+                try {
+                    executor.getQueue().put(runnable);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting to queue the screenshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the screenshot to be written as dir/fileName.png, blocks while the queue is full
+     *
+     * @return the file the screenshot is in, which is an earlier file when the screenshot is a duplicate
+     * @throws CalabashException if the sink is closed
+     */
+    public Future<File> submit(final Screenshot screenshot, final File dir, final String fileName) throws CalabashException {
+        try {
+            return executor.submit(new Callable<File>() {
+                public File call() throws Exception {
+                    return process(screenshot, dir, fileName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new CalabashException("Could not queue screenshot " + fileName, e);
+        }
+    }
+
+    private File process(final Screenshot screenshot, final File dir, final String fileName) throws Exception {
+        final String key = digest(screenshot);
+        while (true) {
+            FutureTask<File> write = new FutureTask<File>(new Callable<File>() {
+                public File call() throws Exception {
+                    return write(screenshot, dir, fileName, key);
+                }
+            });
+            FutureTask<File> earlier = written.putIfAbsent(key, write);
+            if (earlier == null) {
+                write.run();
+                File file = get(write, key);
+                writtenCount.incrementAndGet();
+                notifyListener(file);
+                return file;
+            }
+
+            // the earlier write is run by the worker which registered it, so waiting on it can't deadlock
+            File file;
+            try {
+                file = earlier.get();
+            } catch (ExecutionException e) {
+                written.remove(key, earlier);
+                continue;
+            }
+            if (!file.exists() || !key.equals(contents.get(file))) {
+                // deleted, or overwritten by a different screenshot
+                written.remove(key, earlier);
+                continue;
+            }
+            duplicateCount.incrementAndGet();
+            info("Screenshot %s is identical to %s, not written", fileName, file.getName());
+            notifyListener(file);
+            return file;
+        }
+    }
+
+    private File get(FutureTask<File> write, String key) throws Exception {
+        try {
+            return write.get();
+        } catch (ExecutionException e) {
+            written.remove(key, write);
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private void notifyListener(File file) {
+        if (listener != null)
+            listener.screenshotTaken(file.getAbsolutePath(), IMAGE_TYPE, file.getName());
+    }
+
+    private String digest(Screenshot screenshot) throws CalabashException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(screenshot.isRaw() ? screenshot.getRgba() : screenshot.toPng());
+            StringBuilder key = new StringBuilder(screenshot.getWidth() + "x" + screenshot.getHeight() + ":");
+            for (byte b : digest.digest()) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CalabashException("Could not hash screenshot", e);
+        }
+    }
+
+    private File write(Screenshot screenshot, File dir, String fileName, String key) throws CalabashException {
+        String name = fileName.endsWith(".png") ? fileName : fileName + ".png";
+        File file = new File(dir, name).getAbsoluteFile();
+        // recorded before writing, so a duplicate of the old pixels never resolves to the file being overwritten
+        contents.put(file, key);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(screenshot.toPng());
+        } catch (IOException e) {
+            error("Could not write screenshot %s", e, file.getAbsolutePath());
+            throw new CalabashException("Could not write screenshot " + file.getAbsolutePath(), e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    error("Could not close screenshot file", e);
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return number of screenshots written to disk
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * @return number of screenshots skipped because an identical one was already written
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Writes the queued screenshots and stops the worker threads
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.thoughtworks.calabash.android;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.thoughtworks.calabash.android.SnapshotArchiveWriter.*;
+
+/**
+ * Reads view hierarchies back from an archive written by {@link SnapshotArchiveWriter}. Only the index is read
+ * when the archive is opened; the block of a step is memory mapped and decoded when that step is asked for, so
+ * any step can be read without going through the ones before it.
+ */
+public class SnapshotArchiveReader implements Closeable {
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final long[] takenAts;
+
+    public SnapshotArchiveReader(File file) throws CalabashException {
+        this.file = file;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            channel = randomAccessFile.getChannel();
+        } catch (IOException e) {
+            throw new CalabashException("Could not open snapshot archive " + file.getAbsolutePath(), e);
+        }
+
+        try {
+            long size = channel.size();
+            if (size < 8 || map(0, 4).getInt() != MAGIC)
+                throw new CalabashException(file.getAbsolutePath() + " is not a snapshot archive");
+            MappedByteBuffer trailer = size < 24 ? null : map(size - 12, 12);
+            long indexOffset = trailer == null ? -1 : trailer.getLong();
+            if (trailer == null || trailer.getInt() != MAGIC || indexOffset < 8 || indexOffset > size - 16)
+                throw new CalabashException(file.getAbsolutePath() + " has no index, the archive was not closed");
+
+            MappedByteBuffer index = map(indexOffset, size - 12 - indexOffset);
+            int steps = index.getInt();
+            offsets = new long[steps];
+            takenAts = new long[steps];
+            for (int i = 0; i < steps; i++) {
+                offsets[i] = index.getLong();
+                takenAts[i] = index.getLong();
+            }
+        } catch (CalabashException e) {
+            closeQuietly();
+            throw e;
+        } catch (Exception e) {
+            closeQuietly();
+            throw new CalabashException("Could not read index of snapshot archive " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return number of steps in the archive
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * @return time the hierarchy of the step was fetched at, in milliseconds since the epoch
+     */
+    public long getTakenAt(int step) {
+        checkStep(step);
+        return takenAts[step];
+    }
+
+    /**
+     * Reads the view hierarchy of a step. Elements get the given wrapper, so they can be acted upon if the
+     * screen is still the same.
+     *
+     * @param step            step number, starting from 0
+     * @param calabashWrapper wrapper for the elements
+     * @return root elements of the hierarchy
+     * @throws CalabashException
+     */
+    public List<TreeNode> read(int step, CalabashWrapper calabashWrapper) throws CalabashException {
+        checkStep(step);
+        try {
+            MappedByteBuffer header = map(offsets[step], 8);
+            int compressedLength = header.getInt();
+            int rawLength = header.getInt();
+            byte[] compressed = new byte[compressedLength];
+            map(offsets[step] + 8, compressedLength).get(compressed);
+            return decode(ByteBuffer.wrap(inflate(compressed, rawLength)), calabashWrapper);
+        } catch (IOException e) {
+            throw new CalabashException(String.format("Could not read step %d of %s", step, file.getAbsolutePath()), e);
+        } catch (DataFormatException e) {
+            throw new CalabashException(String.format("Step %d of %s is corrupt", step, file.getAbsolutePath()), e);
+        } catch (RuntimeException e) {
+            throw new CalabashException(String.format("Step %d of %s is corrupt", step, file.getAbsolutePath()), e);
+        }
+    }
+
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    private void checkStep(int step) {
+        if (step < 0 || step >= offsets.length)
+            throw new IndexOutOfBoundsException(String.format("Step %d, archive has %d steps", step, offsets.length));
+    }
+
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private byte[] inflate(byte[] compressed, int rawLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int length = inflater.inflate(raw, read, rawLength - read);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new DataFormatException("Unexpected end of block");
+                read += length;
+            }
+            return raw;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private List<TreeNode> decode(ByteBuffer block, CalabashWrapper calabashWrapper) throws IOException {
+        String[] strings = new String[(int) readVarInt(block)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[(int) readVarInt(block)];
+            block.get(bytes);
+            strings[i] = new String(bytes, "UTF-8");
+        }
+
+        List<TreeNode> roots = new ArrayList<TreeNode>();
+        int rootCount = (int) readVarInt(block);
+        Deque<Frame> frames = new ArrayDeque<Frame>();
+        for (int i = 0; i < rootCount; i++) {
+            Frame root = readNode(block, strings, QueryPath.root("* index:" + i), calabashWrapper);
+            roots.add(root.node);
+            pushIfParent(frames, root);
+
+            while (!frames.isEmpty()) {
+                Frame parent = frames.peek();
+                if (parent.nextChild == parent.childCount) {
+                    frames.pop();
+                    continue;
+                }
+                Frame child = readNode(block, strings, parent.queryPath.child(parent.nextChild++), calabashWrapper);
+                parent.node.appendChild(child.node);
+                pushIfParent(frames, child);
+            }
+        }
+        return roots;
+    }
+
+    private void pushIfParent(Deque<Frame> frames, Frame frame) {
+        if (frame.childCount > 0)
+            frames.push(frame);
+    }
+
+    private Frame readNode(ByteBuffer block, String[] strings, QueryPath derivedQuery, CalabashWrapper calabashWrapper) {
+        int childCount = (int) readVarInt(block);
+        int flags = block.get() & 0xFF;
+        if ((flags & FLAG_ELEMENT) == 0)
+            return new Frame(new TreeNode(), derivedQuery, childCount);
+
+        HashMap<Object, Object> data = new HashMap<Object, Object>();
+        data.put("class", readString(block, strings));
+        data.put("id", readString(block, strings));
+        data.put("text", readString(block, strings));
+        data.put("enabled", (flags & FLAG_ENABLED) != 0);
+        data.put("contentDescription", readString(block, strings));
+        String query = readString(block, strings);
+
+        if ((flags & FLAG_RECT) != 0) {
+            String[] names = {"x", "y", "width", "height", "center_x", "center_y"};
+            HashMap<String, String> rect = new HashMap<String, String>();
+            for (String name : names) {
+                double value = (flags & FLAG_COMPACT_RECT) != 0 ? unZigZag(readVarInt(block)) / 2.0 : block.getDouble();
+                if (!Double.isNaN(value))
+                    rect.put(name, String.valueOf(value));
+            }
+            data.put("rect", rect);
+        }
+
+        QueryPath queryPath = query == null ? derivedQuery : QueryPath.root(query);
+        return new Frame(new TreeNode(new UIElement(data, queryPath, calabashWrapper)), queryPath, childCount);
+    }
+
+    private String readString(ByteBuffer block, String[] strings) {
+        int index = (int) readVarInt(block);
+        return index == 0 ? null : strings[index - 1];
+    }
+
+    private static long readVarInt(ByteBuffer block) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = block.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            if (shift > 63)
+                throw new IllegalStateException("Malformed variable length integer");
+        }
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void closeQuietly() {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            CalabashLogger.error("Could not close snapshot archive", e);
+        }
+    }
+
+    private static class Frame {
+        private final TreeNode node;
+        private final QueryPath queryPath;
+        private final int childCount;
+        private int nextChild;
+
+        Frame(TreeNode node, QueryPath queryPath, int childCount) {
+            this.node = node;
+            this.queryPath = queryPath;
+            this.childCount = childCount;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.thoughtworks.calabash.android;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * Writes view hierarchies to a compact binary archive, one step after another. Each step is stored as a
+ * compressed block holding a string dictionary followed by the nodes in pre-order, with strings written as
+ * dictionary indexes and rects as variable length integers. An index of all steps is written at the end when the
+ * writer is closed, so {@link SnapshotArchiveReader} can go straight to any step.
+ * <p/>
+ * Layout of the file:
+ * <pre>
+ * magic, version
+ * step blocks: compressed length, raw length, deflated bytes
+ * index: step count, then offset and time taken for each step
+ * index offset, magic
+ * </pre>
+ * Each step is flushed as it is appended, but an archive which was not closed has no index and can't be read.
+ */
+public class SnapshotArchiveWriter implements Closeable {
+
+    static final int MAGIC = 0x43414a53;
+    static final int VERSION = 1;
+    static final int FLAG_ENABLED = 1;
+    static final int FLAG_RECT = 2;
+    static final int FLAG_COMPACT_RECT = 4;
+    static final int FLAG_ELEMENT = 8;
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    private final List<Long> offsets = new ArrayList<Long>();
+    private final List<Long> takenAts = new ArrayList<Long>();
+    private long position;
+    private boolean closed;
+
+    public SnapshotArchiveWriter(File file) throws CalabashException {
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            position = 8;
+        } catch (IOException e) {
+            throw new CalabashException("Could not create snapshot archive " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Appends a snapshot as the next step
+     *
+     * @param snapshot snapshot to be written
+     * @return the step number, starting from 0
+     * @throws CalabashException
+     */
+    public int append(ViewSnapshot snapshot) throws CalabashException {
+        return append(snapshot.getRoots(), snapshot.getTakenAt());
+    }
+
+    /**
+     * Appends a view hierarchy as the next step
+     *
+     * @param roots   root elements of the hierarchy
+     * @param takenAt time the hierarchy was fetched at, in milliseconds since the epoch
+     * @return the step number, starting from 0
+     * @throws CalabashException
+     */
+    public synchronized int append(List<TreeNode> roots, long takenAt) throws CalabashException {
+        if (closed)
+            throw new CalabashException("Snapshot archive is closed");
+        try {
+            byte[] raw = encode(roots);
+            byte[] compressed = compress(raw);
+            offsets.add(position);
+            takenAts.add(takenAt);
+            out.writeInt(compressed.length);
+            out.writeInt(raw.length);
+            out.write(compressed);
+            out.flush();
+            position += 8 + compressed.length;
+            return offsets.size() - 1;
+        } catch (IOException e) {
+            throw new CalabashException("Could not write snapshot to archive", e);
+        }
+    }
+
+    /**
+     * Writes the index of the steps and closes the file
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            long indexOffset = position;
+            out.writeInt(offsets.size());
+            for (int i = 0; i < offsets.size(); i++) {
+                out.writeLong(offsets.get(i));
+                out.writeLong(takenAts.get(i));
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private byte[] encode(List<TreeNode> roots) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        writeVarInt(nodes, roots.size());
+
+        // iterative pre-order walk carrying the query the node would have if it was built by TreeBuilder
+        Deque<Object[]> pending = new ArrayDeque<Object[]>();
+        for (int i = roots.size() - 1; i >= 0; i--) {
+            pending.push(new Object[]{roots.get(i), "* index:" + i});
+        }
+        while (!pending.isEmpty()) {
+            Object[] next = pending.pop();
+            TreeNode node = (TreeNode) next[0];
+            UIElement element = node.getData();
+            List<TreeNode> children = node.getChildren();
+            writeVarInt(nodes, children.size());
+            writeElement(nodes, element, (String) next[1], dictionary);
+
+            String query = element == null ? (String) next[1] : element.getQuery();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(new Object[]{children.get(i), query + " child * index:" + i});
+            }
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(nodes.size() + dictionary.size() * 16);
+        writeVarInt(block, dictionary.size());
+        for (String value : dictionary.keySet()) {
+            byte[] bytes = value.getBytes("UTF-8");
+            writeVarInt(block, bytes.length);
+            block.write(bytes);
+        }
+        nodes.writeTo(block);
+        return block.toByteArray();
+    }
+
+    private void writeElement(ByteArrayOutputStream nodes, UIElement element, String derivedQuery,
+                              Map<String, Integer> dictionary) throws IOException {
+        if (element == null) {
+            nodes.write(0);
+            return;
+        }
+
+        Rect rect = element.getRect();
+        boolean compactRect = rect != null && isCompact(rect);
+        int flags = FLAG_ELEMENT | (element.isEnabled() ? FLAG_ENABLED : 0) | (rect != null ? FLAG_RECT : 0)
+                | (compactRect ? FLAG_COMPACT_RECT : 0);
+        nodes.write(flags);
+        writeString(nodes, element.getElementClass(), dictionary);
+        writeString(nodes, element.getId(), dictionary);
+        writeString(nodes, element.getText(), dictionary);
+        writeString(nodes, element.getCachedContentDescription(), dictionary);
+        // queries are unique per node, only keep the ones which can't be derived from the position in the tree
+        String query = element.getQuery();
+        writeString(nodes, derivedQuery.equals(query) ? null : query, dictionary);
+
+        if (rect == null)
+            return;
+        Double[] values = {rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight(), rect.getCenter_x(), rect.getCenter_y()};
+        for (Double value : values) {
+            if (compactRect) {
+                // halves are common for centers, so values are stored doubled
+                writeVarInt(nodes, zigZag(Math.round(value * 2)));
+            } else {
+                writeDouble(nodes, value == null ? Double.NaN : value);
+            }
+        }
+    }
+
+    private boolean isCompact(Rect rect) {
+        Double[] values = {rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight(), rect.getCenter_x(), rect.getCenter_y()};
+        for (Double value : values) {
+            if (value == null || value * 2 != Math.rint(value * 2) || Math.abs(value) > Integer.MAX_VALUE)
+                return false;
+        }
+        return true;
+    }
+
+    private void writeString(ByteArrayOutputStream nodes, String value, Map<String, Integer> dictionary) {
+        if (value == null) {
+            writeVarInt(nodes, 0);
+            return;
+        }
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(value, index);
+        }
+        writeVarInt(nodes, index + 1);
+    }
+
+    private byte[] compress(byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeDouble(ByteArrayOutputStream out, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Touchscreen input device of a device, found from the output of <code>getevent -pl</code>, <code>wm size</code>
+ * and the ABI of the device. Turns gestures into a shell script which writes raw touch events to it, so a whole
+ * gesture with any number of fingers is played by one shell command. The script reads the rotation of the screen
+ * itself, which costs no extra command and is never stale.
+ * <p/>
+ * Events are written as input_event records straight into the device node, all the events of a frame with one
+ * printf, and each frame waits until its time from the start of the gesture on the uptime clock of the device. The
+ * time it takes to write a frame is taken out of the wait before the next one, so the gesture keeps its timeline
+ * to the 10 ms the uptime clock counts in. See {@link Gesture}.
+ */
+final class Touchscreen {
+
+    static final String DISCOVERY_SCRIPT = "getevent -pl && wm size && echo \"abi: $(getprop ro.product.cpu.abi)\"";
+    private static final String ORIENTATION_SCRIPT = "dumpsys input | grep -m 1 SurfaceOrientation";
+    // start of the gesture, in whole seconds and hundredths of the uptime, the hundredths prefixed by a 1
+    private static final String START_SCRIPT = "read u i < /proc/uptime; S=${u%.*}; C=1${u#*.}";
+    // waits until $1 ms after the start of the gesture, not at all if that time has passed
+    private static final String WAIT_FUNCTION = "w() { read u i < /proc/uptime; " +
+            "r=$(($1 - (${u%.*} - S) * 1000 - (1${u#*.} - C) * 10)); " +
+            "[ $r -le 0 ] || sleep $((r / 1000)).$((r / 100 % 10))$((r / 10 % 10))$((r % 10)); }";
+    static final long FRAME_IN_MS = 40;
+    // stays below the smallest stdio buffer, so printf writes whole records in a single write
+    private static final int RECORDS_PER_WRITE = 32;
+    private static final int EV_SYN = 0;
+    private static final int EV_KEY = 1;
+    private static final int EV_ABS = 3;
+    private static final int BTN_TOUCH = 0x14a;
+    private static final int ABS_X = 0x00;
+    private static final int ABS_Y = 0x01;
+    private static final int ABS_MT_SLOT = 0x2f;
+    private static final int ABS_MT_POSITION_X = 0x35;
+    private static final int ABS_MT_POSITION_Y = 0x36;
+    private static final int ABS_MT_TRACKING_ID = 0x39;
+    private static final Pattern DEVICE = Pattern.compile("add device \\d+: (\\S+)");
+    private static final Pattern AXIS = Pattern.compile("(ABS_MT_POSITION_X|ABS_MT_POSITION_Y|ABS_MT_SLOT|ABS_X|ABS_Y)\\s*: value -?\\d+, min (-?\\d+), max (-?\\d+)");
+    private static final Pattern SIZE = Pattern.compile("size: (\\d+)x(\\d+)");
+    private static final Pattern ABI = Pattern.compile("abi: (\\S*)");
+    private static final AtomicInteger trackingIds = new AtomicInteger(100);
+
+    private final String device;
+    private final boolean multiTouch;
+    private final int maxPointers;
+    private final int[] xRange;
+    private final int[] yRange;
+    private final int width;
+    private final int height;
+    private final int timeSize;
+
+    /**
+     * @param timeSize size in bytes of the timeval starting an input_event, 16 for 64 bit processes and 8 for 32 bit
+     *                 ones, the kernel reads the records in the layout of the process writing them
+     */
+    Touchscreen(String device, boolean multiTouch, int maxPointers, int[] xRange, int[] yRange, int width, int height,
+                int timeSize) {
+        this.device = device;
+        this.multiTouch = multiTouch;
+        this.maxPointers = maxPointers;
+        this.xRange = xRange;
+        this.yRange = yRange;
+        this.width = width;
+        this.height = height;
+        this.timeSize = timeSize;
+    }
+
+    /**
+     * Picks the touchscreen from the output of {@link #DISCOVERY_SCRIPT}, preferring multi-touch devices
+     */
+    static Touchscreen parse(String output) throws CalabashException {
+        Touchscreen singleTouch = null;
+        int width = 0;
+        int height = 0;
+        Matcher size = SIZE.matcher(output);
+        while (size.find()) {
+            // an override size comes after the physical size and is the one the screen uses
+            width = Integer.parseInt(size.group(1));
+            height = Integer.parseInt(size.group(2));
+        }
+        if (width == 0)
+            throw new CalabashException("Could not find the screen size of the device");
+        Matcher abi = ABI.matcher(output);
+        int timeSize = abi.find() && abi.group(1).contains("64") ? 16 : 8;
+
+        for (String section : output.split("(?=add device )")) {
+            Matcher device = DEVICE.matcher(section);
+            if (!device.find())
+                continue;
+            int[] mtX = null, mtY = null, x = null, y = null, slots = null;
+            Matcher axis = AXIS.matcher(section);
+            while (axis.find()) {
+                int[] range = {Integer.parseInt(axis.group(2)), Integer.parseInt(axis.group(3))};
+                String name = axis.group(1);
+                if (name.equals("ABS_MT_POSITION_X")) mtX = range;
+                else if (name.equals("ABS_MT_POSITION_Y")) mtY = range;
+                else if (name.equals("ABS_MT_SLOT")) slots = range;
+                else if (name.equals("ABS_X")) x = range;
+                else y = range;
+            }
+            if (mtX != null && mtY != null && slots != null)
+                return new Touchscreen(device.group(1), true, slots[1] - slots[0] + 1, mtX, mtY, width, height,
+                        timeSize);
+            if (singleTouch == null && x != null && y != null && section.contains("BTN_TOUCH"))
+                singleTouch = new Touchscreen(device.group(1), false, 1, x, y, width, height, timeSize);
+        }
+        if (singleTouch == null)
+            throw new CalabashException("Could not find a touchscreen on the device");
+        return singleTouch;
+    }
+
+    int getMaxPointers() {
+        return maxPointers;
+    }
+
+    /**
+     * Writes the script playing the gesture. The gesture is sampled every {@link #FRAME_IN_MS} and at each of its
+     * points, fingers going down, moving and lifting in every frame are written as one input report. The script
+     * holds the events for every rotation of the screen and plays those of the current one, as coordinates of the
+     * gesture are in the rotated screen.
+     *
+     * @throws CalabashException if the touchscreen can't track that many fingers
+     */
+    String toScript(Gesture gesture) throws CalabashException {
+        int pointerCount = gesture.getPointerCount();
+        if (pointerCount > maxPointers)
+            throw new CalabashException(String.format("Gesture uses %d fingers but the touchscreen of the device tracks %d",
+                    pointerCount, maxPointers));
+
+        StringBuilder script = new StringBuilder("D=").append(device).append('\n');
+        script.append(WAIT_FUNCTION).append('\n');
+        script.append("case \"$(").append(ORIENTATION_SCRIPT).append(")\" in\n");
+        for (int rotation = 1; rotation < 4; rotation++) {
+            script.append("*").append(rotation).append(")\n");
+            appendFrames(script, gesture, rotation);
+            script.append(";;\n");
+        }
+        // no rotation, or none found
+        script.append("*)\n");
+        appendFrames(script, gesture, 0);
+        script.append(";;\nesac\n");
+        return script.toString();
+    }
+
+    private void appendFrames(StringBuilder script, Gesture gesture, int rotation) {
+        int pointerCount = gesture.getPointerCount();
+        int[][] last = new int[pointerCount][];
+        int[] trackingId = new int[pointerCount];
+        boolean touching = false;
+        script.append(START_SCRIPT).append('\n');
+        for (long time : frameTimes(gesture)) {
+            List<int[]> frame = new ArrayList<int[]>();
+            boolean anyDown = false;
+            for (int i = 0; i < pointerCount; i++) {
+                GesturePoint point = gesture.positionAt(i, time);
+                if (point == null) {
+                    if (last[i] != null) {
+                        if (multiTouch) {
+                            frame.add(event(EV_ABS, ABS_MT_SLOT, i));
+                            frame.add(event(EV_ABS, ABS_MT_TRACKING_ID, -1));
+                        }
+                        last[i] = null;
+                    }
+                    continue;
+                }
+                anyDown = true;
+                int[] raw = toRaw(point, rotation);
+                if (last[i] != null && last[i][0] == raw[0] && last[i][1] == raw[1])
+                    continue;
+                if (multiTouch) {
+                    frame.add(event(EV_ABS, ABS_MT_SLOT, i));
+                    if (last[i] == null) {
+                        trackingId[i] = trackingIds.incrementAndGet() & 0xffff;
+                        frame.add(event(EV_ABS, ABS_MT_TRACKING_ID, trackingId[i]));
+                    }
+                    frame.add(event(EV_ABS, ABS_MT_POSITION_X, raw[0]));
+                    frame.add(event(EV_ABS, ABS_MT_POSITION_Y, raw[1]));
+                } else {
+                    frame.add(event(EV_ABS, ABS_X, raw[0]));
+                    frame.add(event(EV_ABS, ABS_Y, raw[1]));
+                }
+                last[i] = raw;
+            }
+            if (anyDown != touching) {
+                frame.add(event(EV_KEY, BTN_TOUCH, anyDown ? 1 : 0));
+                touching = anyDown;
+            }
+            if (frame.isEmpty())
+                continue;
+            frame.add(event(EV_SYN, 0, 0));
+            if (time > 0)
+                script.append("w ").append(time).append('\n');
+            appendWrites(script, frame);
+        }
+    }
+
+    private void appendWrites(StringBuilder script, List<int[]> events) {
+        for (int start = 0; start < events.size(); start += RECORDS_PER_WRITE) {
+            script.append("printf '");
+            for (int[] event : events.subList(start, Math.min(events.size(), start + RECORDS_PER_WRITE))) {
+                appendRecord(script, event[0], event[1], event[2]);
+            }
+            script.append("' >> $D\n");
+        }
+    }
+
+    // an input_event in little endian, the kernel sets the time itself so it is left as zeros
+    private void appendRecord(StringBuilder script, int type, int code, int value) {
+        for (int i = 0; i < timeSize; i++) {
+            appendByte(script, 0);
+        }
+        appendByte(script, type);
+        appendByte(script, type >> 8);
+        appendByte(script, code);
+        appendByte(script, code >> 8);
+        for (int shift = 0; shift < 32; shift += 8) {
+            appendByte(script, value >> shift);
+        }
+    }
+
+    private static void appendByte(StringBuilder script, int value) {
+        String octal = Integer.toOctalString(value & 0xff);
+        script.append('\\');
+        for (int i = octal.length(); i < 3; i++) {
+            script.append('0');
+        }
+        script.append(octal);
+    }
+
+    private static SortedSet<Long> frameTimes(Gesture gesture) {
+        SortedSet<Long> times = new TreeSet<Long>();
+        long duration = gesture.getDurationInMs();
+        for (long time = 0; time < duration; time += FRAME_IN_MS) {
+            times.add(time);
+        }
+        for (List<GesturePoint> pointer : gesture.getPointers()) {
+            for (GesturePoint point : pointer) {
+                times.add(point.getTimeInMs());
+            }
+            // one frame after the last point lifts the finger
+            times.add(pointer.get(pointer.size() - 1).getTimeInMs() + 1);
+        }
+        return times;
+    }
+
+    // screen coordinates are in the rotated screen, the touchscreen reports in its natural orientation
+    private int[] toRaw(GesturePoint point, int rotation) {
+        double x = point.getX();
+        double y = point.getY();
+        double naturalX, naturalY;
+        switch (rotation) {
+            case 1:
+                naturalX = width - 1 - y;
+                naturalY = x;
+                break;
+            case 2:
+                naturalX = width - 1 - x;
+                naturalY = height - 1 - y;
+                break;
+            case 3:
+                naturalX = y;
+                naturalY = height - 1 - x;
+                break;
+            default:
+                naturalX = x;
+                naturalY = y;
+        }
+        return new int[]{scale(naturalX, width, xRange), scale(naturalY, height, yRange)};
+    }
+
+    private static int scale(double value, int size, int[] range) {
+        long raw = Math.round(range[0] + value * (range[1] - range[0]) / Math.max(1, size - 1));
+        return (int) Math.max(range[0], Math.min(range[1], raw));
+    }
+
+    private static int[] event(int type, int code, int value) {
+        return new int[]{type, code, value};
+    }
+}
@@ -0,0 +1,224 @@
+package com.thoughtworks.calabash.android;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the spans of a run, like setup phases, emulator boot steps, device calls, pauses and waits, for viewing
+ * on a timeline. Spans are kept in a fixed size ring buffer which overwrites the oldest spans once full. Recording
+ * a span takes a slot with a single atomic increment and never locks.
+ * <p/>
+ * Spans are written in the Chrome trace event format, one file per device, which can be loaded in chrome://tracing
+ * or Perfetto. Spans recorded on the same thread nest by time, so a wait shows the queries it made inside it.
+ * <p/>
+ * Every device call timed by {@link CalabashMetrics} becomes a span when the recorder is set with
+ * {@link AndroidConfiguration#setTraceRecorder(TraceRecorder)}.
+ */
+public class TraceRecorder implements MetricsListener {
+
+    /**
+     * Recorder which records nothing, used when tracing is off
+     */
+    public static final TraceRecorder DISABLED = new TraceRecorder(0);
+    private static final String DEVICE_CATEGORY = "device";
+    private final AtomicReferenceArray<Span> spans;
+    private final AtomicLong sequence = new AtomicLong();
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param capacity number of spans kept, 0 to disable recording
+     */
+    public TraceRecorder(int capacity) {
+        this.spans = new AtomicReferenceArray<Span>(Math.max(0, capacity));
+    }
+
+    public boolean isEnabled() {
+        return spans.length() > 0;
+    }
+
+    /**
+     * Marks the start of a span, to be passed to {@link #end(long, String, String, String)}
+     *
+     * @return the start time
+     */
+    public long begin() {
+        return isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a span which started at the given time and ends now
+     *
+     * @param start    value returned by {@link #begin()}
+     * @param category category of the span, like setup, adb or device
+     * @param name     name of the span
+     * @param serial   serial of the device the span belongs to, null or empty for spans of the whole run
+     */
+    public void end(long start, String category, String name, String serial) {
+        if (!isEnabled())
+            return;
+        add(start, System.nanoTime() - start, category, name, serial);
+    }
+
+    public void operationCompleted(String operation, String serial, long durationInNanos, boolean succeeded) {
+        if (!isEnabled())
+            return;
+        String category = operation.startsWith("adb") ? "adb" : DEVICE_CATEGORY;
+        add(System.nanoTime() - durationInNanos, durationInNanos, category, succeeded ? operation : operation + " (failed)", serial);
+    }
+
+    private void add(long start, long duration, String category, String name, String serial) {
+        Thread thread = Thread.currentThread();
+        Span span = new Span(start - origin, duration, category, name, serial == null ? "" : serial, thread.getId(), thread.getName());
+        int slot = (int) (sequence.getAndIncrement() % spans.length());
+        spans.set(slot, span);
+    }
+
+    /**
+     * @return number of spans recorded since the start, including the ones overwritten
+     */
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    /**
+     * Gets the spans still in the buffer, ordered by start time
+     */
+    List<Span> getSpans() {
+        List<Span> result = new ArrayList<Span>();
+        for (int i = 0; i < spans.length(); i++) {
+            Span span = spans.get(i);
+            if (span != null)
+                result.add(span);
+        }
+        Collections.sort(result, new Comparator<Span>() {
+            public int compare(Span first, Span second) {
+                return first.start < second.start ? -1 : first.start > second.start ? 1 : 0;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return serials of the devices spans were recorded for
+     */
+    public Set<String> getSerials() {
+        Set<String> serials = new TreeSet<String>();
+        for (Span span : getSpans()) {
+            if (span.serial.length() > 0)
+                serials.add(span.serial);
+        }
+        return serials;
+    }
+
+    /**
+     * Writes one trace file per device to the directory, named trace-&lt;serial&gt;.json. Spans which belong to the
+     * whole run, like setup, are part of every file. If no device was used a single trace.json is written.
+     *
+     * @return the files written
+     * @throws CalabashException
+     */
+    public List<File> writeChromeTraces(File directory) throws CalabashException {
+        List<File> files = new ArrayList<File>();
+        Set<String> serials = getSerials();
+        if (serials.isEmpty())
+            serials = Collections.singleton("");
+        for (String serial : serials) {
+            File file = new File(directory, serial.length() == 0 ? "trace.json" : "trace-" + serial.replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+            OutputStream out = null;
+            try {
+                out = new BufferedOutputStream(new FileOutputStream(file));
+                writeChromeTrace(out, serial);
+            } catch (IOException e) {
+                throw new CalabashException("Could not write trace " + file.getAbsolutePath(), e);
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        CalabashLogger.error("Could not close trace file", e);
+                    }
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Writes the spans of a device and of the whole run in the Chrome trace event format
+     *
+     * @param serial serial of the device, empty for only the spans of the whole run
+     */
+    public void writeChromeTrace(OutputStream out, String serial) throws IOException {
+        JsonGenerator generator = new JsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeStringField("displayTimeUnit", "ms");
+        generator.writeArrayFieldStart("traceEvents");
+
+        generator.writeStartObject();
+        generator.writeStringField("name", "process_name");
+        generator.writeStringField("ph", "M");
+        generator.writeNumberField("pid", 1);
+        generator.writeObjectFieldStart("args");
+        generator.writeStringField("name", serial.length() == 0 ? "calabash" : serial);
+        generator.writeEndObject();
+        generator.writeEndObject();
+
+        Map<Long, String> threads = new TreeMap<Long, String>();
+        for (Span span : getSpans()) {
+            if (span.serial.length() > 0 && !span.serial.equals(serial))
+                continue;
+            threads.put(span.threadId, span.threadName);
+            generator.writeStartObject();
+            generator.writeStringField("name", span.name);
+            generator.writeStringField("cat", span.category);
+            generator.writeStringField("ph", "X");
+            generator.writeNumberField("ts", span.start / 1000.0);
+            generator.writeNumberField("dur", span.duration / 1000.0);
+            generator.writeNumberField("pid", 1);
+            generator.writeNumberField("tid", span.threadId);
+            generator.writeEndObject();
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            generator.writeStartObject();
+            generator.writeStringField("name", "thread_name");
+            generator.writeStringField("ph", "M");
+            generator.writeNumberField("pid", 1);
+            generator.writeNumberField("tid", thread.getKey());
+            generator.writeObjectFieldStart("args");
+            generator.writeStringField("name", thread.getValue());
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    static final class Span {
+        private final long start;
+        private final long duration;
+        private final String category;
+        private final String name;
+        private final String serial;
+        private final long threadId;
+        private final String threadName;
+
+        Span(long start, long duration, String category, String name, String serial, long threadId, String threadName) {
+            this.start = start;
+            this.duration = duration;
+            this.category = category;
+            this.name = name;
+            this.serial = serial;
+            this.threadId = threadId;
+            this.threadName = threadName;
+        }
+    }
+}
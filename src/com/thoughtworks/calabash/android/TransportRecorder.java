@@ -0,0 +1,58 @@
+package com.thoughtworks.calabash.android;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes every call made to the device along with its response and latency, one JSON object per line. Responses
+ * are kept as JSON text so they can be turned back into the same ruby values when replayed by
+ * {@link TransportReplayer}.
+ */
+final class TransportRecorder implements Closeable {
+
+    static final String OPERATION = "operation";
+    static final String KEY = "key";
+    static final String LATENCY = "latencyInMs";
+    static final String RESULT = "result";
+    static final String ERROR = "error";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Writer writer;
+
+    TransportRecorder(File file) throws CalabashException {
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        } catch (IOException e) {
+            throw new CalabashException("Could not create recording " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @param operation name of the call, like query or touch
+     * @param key       arguments of the call, identifying it among calls of the same operation
+     * @param result    response as JSON text, null for calls without a response
+     * @param error     message of the failure, null if the call succeeded
+     */
+    synchronized void record(String operation, String key, long latencyInMs, String result, String error) {
+        Map<String, Object> entry = new LinkedHashMap<String, Object>();
+        entry.put(OPERATION, operation);
+        entry.put(KEY, key);
+        entry.put(LATENCY, latencyInMs);
+        entry.put(RESULT, result);
+        entry.put(ERROR, error);
+        try {
+            writer.write(mapper.writeValueAsString(entry));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            CalabashLogger.error("Could not record %s %s", e, operation, key);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
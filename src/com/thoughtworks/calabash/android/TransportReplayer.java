@@ -0,0 +1,120 @@
+package com.thoughtworks.calabash.android;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.thoughtworks.calabash.android.TransportRecorder.*;
+
+/**
+ * Serves calls from a recording written by {@link TransportRecorder} instead of a device. Calls are matched by
+ * operation and key, and repeated calls get the recorded responses in the order they were recorded, so a run
+ * which makes the same calls sees the same screens.
+ */
+final class TransportReplayer {
+
+    private final Map<String, Deque<Response>> responses = new HashMap<String, Deque<Response>>();
+    private final ReplayTiming timing;
+
+    TransportReplayer(File file, ReplayTiming timing) throws CalabashException {
+        this.timing = timing;
+        ObjectMapper mapper = new ObjectMapper();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                JsonNode entry = mapper.readTree(line);
+                String id = id(entry.get(OPERATION).getTextValue(), text(entry.get(KEY)));
+                Deque<Response> queue = responses.get(id);
+                if (queue == null) {
+                    queue = new ArrayDeque<Response>();
+                    responses.put(id, queue);
+                }
+                queue.add(new Response(text(entry.get(RESULT)), text(entry.get(ERROR)), entry.get(LATENCY).getLongValue()));
+            }
+        } catch (Exception e) {
+            throw new CalabashException("Could not read recording " + file.getAbsolutePath(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    CalabashLogger.error("Could not close recording", e);
+                }
+            }
+        }
+    }
+
+    ReplayTiming getTiming() {
+        return timing;
+    }
+
+    /**
+     * Gets the next recorded response of the call, waiting for its recorded latency when replaying with
+     * {@link ReplayTiming#RECORDED}
+     *
+     * @return the response
+     * @throws CalabashException when nothing, or nothing more, was recorded for the call
+     */
+    Response next(String operation, String key) throws CalabashException {
+        Response response;
+        synchronized (this) {
+            Deque<Response> queue = responses.get(id(operation, key));
+            response = queue == null ? null : queue.poll();
+        }
+        if (response == null)
+            throw new CalabashException(String.format("No recorded response left for %s %s", operation, key));
+
+        if (timing == ReplayTiming.RECORDED && response.latencyInMs > 0) {
+            try {
+                Thread.sleep(response.latencyInMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CalabashException("Interrupted while replaying " + operation, e);
+            }
+        }
+        return response;
+    }
+
+    private static String id(String operation, String key) {
+        return operation + '\u0000' + key;
+    }
+
+    private static String text(JsonNode node) {
+        return node == null || node.isNull() ? null : node.getTextValue();
+    }
+
+    static final class Response {
+        private final String result;
+        private final String error;
+        private final long latencyInMs;
+
+        Response(String result, String error, long latencyInMs) {
+            this.result = result;
+            this.error = error;
+            this.latencyInMs = latencyInMs;
+        }
+
+        /**
+         * @return response as JSON text, null for calls without a response
+         */
+        String getResult() {
+            return result;
+        }
+
+        /**
+         * @return message of the recorded failure, null if the call succeeded
+         */
+        String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Tells a tree traversal how to go on after visiting an element
+ */
+public enum TraversalAction {
+    /**
+     * visit the children of the element and go on
+     */
+    CONTINUE,
+    /**
+     * don't visit the children of the element, go on with the rest of the tree
+     */
+    SKIP_CHILDREN,
+    /**
+     * end the traversal
+     */
+    STOP
+}
@@ -0,0 +1,16 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Provides callback while traversing elements, deciding how the traversal goes on
+ */
+public interface TraversalCallback {
+
+    /**
+     * This function gets called for each UIElement visited
+     *
+     * @param element      Current element
+     * @param nestingLevel Nesting level. This indicates how deep the element in the tree
+     * @return whether to visit the children of the element, skip them or stop
+     */
+    TraversalAction onElement(UIElement element, int nestingLevel);
+}
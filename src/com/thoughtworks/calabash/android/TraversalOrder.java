@@ -0,0 +1,15 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * Order in which a tree traversal visits the elements
+ */
+public enum TraversalOrder {
+    /**
+     * an element, then each of its subtrees in turn, the same order as {@link InspectCallback}
+     */
+    DEPTH_FIRST,
+    /**
+     * all the elements of a nesting level before the next level
+     */
+    BREADTH_FIRST
+}
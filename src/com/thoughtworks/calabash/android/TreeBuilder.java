@@ -31,6 +31,10 @@ public class TreeBuilder {
         this.treeNodeBuilder = treeNodeBuilder;
     }
 
+    TreeNodeBuilder getTreeNodeBuilder() {
+        return treeNodeBuilder;
+    }
+
     public TreeNode createTreeFrom(UIElement root) throws CalabashException {
         Set<UIElement> inspectedElements = new HashSet<UIElement>();
         String elementQuery = root.getQuery();
@@ -153,44 +157,109 @@ public class TreeBuilder {
         return -1;
     }
 
+    /**
+     * Loads a view hierarchy recorded in a snapshot archive instead of fetching it from the device
+     *
+     * @param archive archive to read from
+     * @param step    step number, starting from 0
+     * @return root elements of the recorded hierarchy
+     * @throws CalabashException
+     */
+    public List<TreeNode> createTreeFrom(SnapshotArchiveReader archive, int step) throws CalabashException {
+        return archive.read(step, calabashWrapper);
+    }
+
     public List<TreeNode> createTree() {
-        List<TreeNode> treeNodes = null;
+        List<TreeNode> treeNodes = new ArrayList<TreeNode>();
         try {
-            info("Fetching view hierarchy");
-            treeNodes = new ArrayList<TreeNode>();
-            final JsonNode jsonNode = mapper.readTree(calabashHttpClient.getViewDump());
-            final JsonNode childNodes = jsonNode.get("children");
-            if (childNodes == null) {
-                return treeNodes;
-            }
-            JsonNode rootJsonNode = childNodes.get(0);
-            final TreeNode rootTreeNode = treeNodeBuilder.buildFrom(rootJsonNode, "* index:0");
-            addChildren(rootTreeNode, rootJsonNode);
-            treeNodes.add(rootTreeNode);
-
+            info(LogCategory.DUMP, "Fetching view hierarchy");
+            treeNodes = buildTree(calabashHttpClient.getViewDump());
         } catch (MalformedURLException e) {
             error("malformed url", e);
         } catch (IOException e) {
             error("exception while fetching view hierarchy", e);
         }
-        info("Done fetching view hierarchy");
+        info(LogCategory.DUMP, "Done fetching view hierarchy");
         return treeNodes;
     }
 
-    private void addChildren(TreeNode treeNode, JsonNode jsonNode) throws IOException {
+    /**
+     * Same as {@link #createTree()}, but a view dump that can't be fetched or parsed is reported instead of
+     * being treated as an empty screen
+     *
+     * @return root elements of the view hierarchy
+     * @throws CalabashException when the view dump fails
+     */
+    public List<TreeNode> fetchTree() throws CalabashException {
+        info(LogCategory.DUMP, "Fetching view hierarchy");
+        String dump = calabashHttpClient.fetchViewDump();
+        try {
+            List<TreeNode> treeNodes = buildTree(dump);
+            info(LogCategory.DUMP, "Done fetching view hierarchy");
+            return treeNodes;
+        } catch (IOException e) {
+            error("exception while parsing view hierarchy", e);
+            throw new CalabashException("Failed to parse view hierarchy. " + e.getMessage(), e);
+        }
+    }
+
+    private List<TreeNode> buildTree(String dump) throws IOException {
+        List<TreeNode> treeNodes = new ArrayList<TreeNode>();
+        final JsonNode jsonNode = mapper.readTree(dump);
+        final JsonNode childNodes = jsonNode.get("children");
+        if (childNodes == null) {
+            return treeNodes;
+        }
+        treeNodes.add(buildTree(childNodes.get(0)));
+        return treeNodes;
+    }
+
+    /**
+     * Builds the tree of the root view of a dump
+     */
+    protected TreeNode buildTree(JsonNode rootJsonNode) throws IOException {
+        final QueryPath rootQuery = QueryPath.root("* index:0");
+        final TreeNode rootTreeNode = treeNodeBuilder.buildAt(rootJsonNode, rootQuery);
+        addChildren(rootTreeNode, rootJsonNode, rootQuery);
+        return rootTreeNode;
+    }
+
+    // queries are built from the position of the element when first used, not concatenated for every element
+    private void addChildren(TreeNode treeNode, JsonNode jsonNode, QueryPath queryPath) {
+        for (Child child : visibleChildren(jsonNode, queryPath)) {
+            addChildren(child.treeNode, child.jsonNode, child.queryPath);
+            treeNode.appendChild(child.treeNode);
+        }
+    }
+
+    List<Child> visibleChildren(JsonNode jsonNode, QueryPath queryPath) {
+        List<Child> visible = new ArrayList<Child>();
+        final JsonNode children = jsonNode.get("children");
+        if (children == null)
+            return visible;
         int i = 0;
-        final Iterator<JsonNode> children = jsonNode.get("children").getElements();
-        while (children.hasNext()) {
-            final JsonNode childJsonNode = children.next();
-            if (childJsonNode.get("visible").getBooleanValue()) {
-                final String query = treeNode.getData().getQuery() + " child * index:" + i;
-                final TreeNode childTreeNode = treeNodeBuilder.buildFrom(childJsonNode, query);
-                addChildren(childTreeNode, childJsonNode);
-
-                treeNode.appendChild(childTreeNode);
+        final Iterator<JsonNode> elements = children.getElements();
+        while (elements.hasNext()) {
+            final JsonNode childJsonNode = elements.next();
+            final JsonNode visibleNode = childJsonNode.get("visible");
+            if (visibleNode != null && visibleNode.getBooleanValue()) {
+                final QueryPath childQuery = queryPath.child(i);
+                visible.add(new Child(treeNodeBuilder.buildAt(childJsonNode, childQuery), childJsonNode, childQuery));
                 i++;
             }
         }
+        return visible;
+    }
 
+    static class Child {
+        final TreeNode treeNode;
+        final JsonNode jsonNode;
+        final QueryPath queryPath;
+
+        Child(TreeNode treeNode, JsonNode jsonNode, QueryPath queryPath) {
+            this.treeNode = treeNode;
+            this.jsonNode = jsonNode;
+            this.queryPath = queryPath;
+        }
     }
 }
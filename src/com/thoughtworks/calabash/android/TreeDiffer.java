@@ -0,0 +1,142 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.*;
+
+/**
+ * Finds the differences between two snapshots of the view hierarchy. Every subtree carries a structural hash of
+ * itself and everything below it, so subtrees which did not change are matched by hash and skipped without
+ * walking them. Only elements whose hashes differ are compared property by property.
+ * <p/>
+ * When a whole subtree appears or disappears only its root is reported. A subtree which was removed from one
+ * parent and added to another without other changes is reported as {@link ViewChange.Type#MOVED}.
+ */
+public class TreeDiffer {
+
+    public ViewDiff diff(ViewSnapshot from, ViewSnapshot to) {
+        ViewSnapshotIndex before = from.getIndex();
+        ViewSnapshotIndex after = to.getIndex();
+        List<ViewChange> changes = new ArrayList<ViewChange>();
+        List<Integer> removed = new ArrayList<Integer>();
+        List<Integer> added = new ArrayList<Integer>();
+
+        Deque<int[][]> pending = new ArrayDeque<int[][]>();
+        pending.push(new int[][]{toArray(before.getRoots()), toArray(after.getRoots())});
+        while (!pending.isEmpty()) {
+            int[][] siblings = pending.pop();
+            diffSiblings(before, after, siblings[0], siblings[1], pending, changes, removed, added);
+        }
+
+        matchMovedSubtrees(before, after, changes, removed, added);
+        return new ViewDiff(from, to, changes);
+    }
+
+    private void diffSiblings(ViewSnapshotIndex before, ViewSnapshotIndex after, int[] oldNodes, int[] newNodes,
+                              Deque<int[][]> pending, List<ViewChange> changes, List<Integer> removed, List<Integer> added) {
+        boolean[] oldMatched = new boolean[oldNodes.length];
+        int[] matches = new int[newNodes.length];
+        Arrays.fill(matches, -1);
+
+        // identical subtrees first, these need no further work
+        Map<Long, Deque<Integer>> bySubtreeHash = new HashMap<Long, Deque<Integer>>();
+        for (int i = 0; i < oldNodes.length; i++) {
+            enqueue(bySubtreeHash, before.getSubtreeHash(oldNodes[i]), i);
+        }
+        for (int i = 0; i < newNodes.length; i++) {
+            Integer match = poll(bySubtreeHash, after.getSubtreeHash(newNodes[i]));
+            if (match != null) {
+                oldMatched[match] = true;
+                matches[i] = match;
+            }
+        }
+
+        // then the same element by class and id, or by class in order for elements without an id
+        Map<String, Deque<Integer>> byIdentity = new HashMap<String, Deque<Integer>>();
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (!oldMatched[i])
+                enqueue(byIdentity, identity(before.getNode(oldNodes[i])), i);
+        }
+        for (int i = 0; i < newNodes.length; i++) {
+            if (matches[i] != -1)
+                continue;
+            Integer match = poll(byIdentity, identity(after.getNode(newNodes[i])));
+            if (match == null) {
+                added.add(newNodes[i]);
+                continue;
+            }
+            oldMatched[match] = true;
+            compare(before, after, oldNodes[match], newNodes[i], pending, changes);
+        }
+
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (!oldMatched[i])
+                removed.add(oldNodes[i]);
+        }
+    }
+
+    private void compare(ViewSnapshotIndex before, ViewSnapshotIndex after, int oldNode, int newNode,
+                         Deque<int[][]> pending, List<ViewChange> changes) {
+        TreeNode oldTreeNode = before.getNode(oldNode);
+        TreeNode newTreeNode = after.getNode(newNode);
+        if (before.getPropertiesHash(oldNode) != after.getPropertiesHash(newNode))
+            changes.add(new ViewChange(ViewChange.Type.CHANGED, oldTreeNode, newTreeNode));
+        if (before.getRectHash(oldNode) != after.getRectHash(newNode))
+            changes.add(new ViewChange(ViewChange.Type.MOVED, oldTreeNode, newTreeNode));
+        if (before.getSubtreeHash(oldNode) != after.getSubtreeHash(newNode))
+            pending.push(new int[][]{before.getChildren(oldNode), after.getChildren(newNode)});
+    }
+
+    private void matchMovedSubtrees(ViewSnapshotIndex before, ViewSnapshotIndex after, List<ViewChange> changes,
+                                    List<Integer> removed, List<Integer> added) {
+        Map<Long, Deque<Integer>> byShape = new HashMap<Long, Deque<Integer>>();
+        for (int i = 0; i < removed.size(); i++) {
+            enqueue(byShape, before.getShapeHash(removed.get(i)), i);
+        }
+
+        boolean[] removedMatched = new boolean[removed.size()];
+        for (Integer node : added) {
+            Integer match = poll(byShape, after.getShapeHash(node));
+            if (match == null) {
+                changes.add(new ViewChange(ViewChange.Type.ADDED, null, after.getNode(node)));
+            } else {
+                removedMatched[match] = true;
+                changes.add(new ViewChange(ViewChange.Type.MOVED, before.getNode(removed.get(match)), after.getNode(node)));
+            }
+        }
+        for (int i = 0; i < removed.size(); i++) {
+            if (!removedMatched[i])
+                changes.add(new ViewChange(ViewChange.Type.REMOVED, before.getNode(removed.get(i)), null));
+        }
+    }
+
+    private String identity(TreeNode node) {
+        UIElement element = node.getData();
+        if (element == null)
+            return "";
+        String id = element.getId();
+        if (id == null || id.length() == 0 || "null".equals(id))
+            return element.getElementClass();
+        return element.getElementClass() + "#" + id;
+    }
+
+    private static <K> void enqueue(Map<K, Deque<Integer>> map, K key, int value) {
+        Deque<Integer> values = map.get(key);
+        if (values == null) {
+            values = new ArrayDeque<Integer>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static <K> Integer poll(Map<K, Deque<Integer>> map, K key) {
+        Deque<Integer> values = map.get(key);
+        return values == null ? null : values.poll();
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
@@ -12,14 +12,25 @@ public class TreeNodeBuilder {
     }
 
     public TreeNode buildFrom(JsonNode jsonNode, String query) {
+        return new TreeNode(new UIElement(toMap(jsonNode), query, calabashWrapper));
+    }
+
+    /**
+     * Builds a node whose query is built from its position in the tree when first used
+     */
+    public TreeNode buildAt(JsonNode jsonNode, QueryPath queryPath) {
+        return new TreeNode(new UIElement(toMap(jsonNode), queryPath, calabashWrapper));
+    }
+
+    private HashMap<Object, Object> toMap(JsonNode jsonNode) {
         final HashMap<Object, Object> map = new HashMap<Object, Object>();
         map.put("class", getProperty(jsonNode, "type"));
         map.put("id", getProperty(jsonNode, "id"));
         map.put("text", getProperty(jsonNode, "value"));
         map.put("enabled", getBooleanProperty(jsonNode, "enabled"));
+        map.put("contentDescription", getTextProperty(jsonNode, "label"));
         createRect(jsonNode, map);
-
-        return new TreeNode(new UIElement(map, query, calabashWrapper));
+        return map;
     }
 
     private void createRect(JsonNode jsonNode, HashMap<Object, Object> map) {
@@ -46,6 +57,11 @@ public class TreeNodeBuilder {
         return propertyNode == null ? "null" : propertyNode.getTextValue();
     }
 
+    private String getTextProperty(JsonNode jsonNode, String property) {
+        final JsonNode propertyNode = jsonNode.get(property);
+        return propertyNode == null ? null : propertyNode.getTextValue();
+    }
+
     private Double getPropertyAsDouble(JsonNode jsonNode, String property) {
         final JsonNode propertyNode = jsonNode.get(property);
         return propertyNode == null ? null : propertyNode.getDoubleValue();
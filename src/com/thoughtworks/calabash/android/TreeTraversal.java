@@ -0,0 +1,53 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Walks element trees without recursion, so deep layouts can't overflow the stack. The callback can skip the
+ * children of an element or stop the walk, which lets searches end as soon as they find what they look for.
+ */
+public final class TreeTraversal {
+
+    private TreeTraversal() {
+    }
+
+    /**
+     * Visits the elements of the trees in the given order
+     *
+     * @param roots    roots of the trees
+     * @param order    depth first or breadth first
+     * @param callback callback to be executed for each visited element
+     * @return the element for which the callback returned {@link TraversalAction#STOP}, null if every element
+     *         was visited
+     */
+    public static UIElement traverse(List<TreeNode> roots, TraversalOrder order, TraversalCallback callback) {
+        Deque<TreeNode> nodes = new ArrayDeque<TreeNode>();
+        Deque<Integer> levels = new ArrayDeque<Integer>();
+        boolean depthFirst = order == TraversalOrder.DEPTH_FIRST;
+        // a stack for depth first, so the roots and children are added last to first
+        for (int i = 0; i < roots.size(); i++) {
+            TreeNode root = roots.get(depthFirst ? roots.size() - 1 - i : i);
+            nodes.add(root);
+            levels.add(0);
+        }
+
+        while (!nodes.isEmpty()) {
+            TreeNode node = depthFirst ? nodes.pollLast() : nodes.pollFirst();
+            int level = depthFirst ? levels.pollLast() : levels.pollFirst();
+            TraversalAction action = callback.onElement(node.getData(), level);
+            if (action == TraversalAction.STOP)
+                return node.getData();
+            if (action == TraversalAction.SKIP_CHILDREN)
+                continue;
+
+            List<TreeNode> children = node.getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                nodes.add(children.get(depthFirst ? children.size() - 1 - i : i));
+                levels.add(level + 1);
+            }
+        }
+        return null;
+    }
+}
@@ -8,6 +8,7 @@ import org.jruby.RubyArray;
 import org.jruby.RubyHash;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,17 +23,36 @@ public class UIElement implements AndroidElementAction {
 
     private final Map<Object, Object> data;
     private final String query;
+    private final QueryPath queryPath;
     private final CalabashWrapper calabashWrapper;
+    private final Map<String, CachedProperty> propertyCache = new HashMap<String, CachedProperty>();
+    private long propertyCacheActionCount = -1;
 
     public UIElement(RubyHash data, String query, CalabashWrapper calabashWrapper) {
         this.data = (Map<Object, Object>) Utils.toJavaHash(data);
         this.query = query;
+        this.queryPath = null;
         this.calabashWrapper = calabashWrapper;
     }
 
     public UIElement(HashMap<Object, Object> data, String query, CalabashWrapper calabashWrapper) {
+        this((Map<Object, Object>) data, query, calabashWrapper);
+    }
+
+    private UIElement(Map<Object, Object> data, String query, CalabashWrapper calabashWrapper) {
         this.data = data;
         this.query = query;
+        this.queryPath = null;
+        this.calabashWrapper = calabashWrapper;
+    }
+
+    /**
+     * Creates an element whose query is built from its position in the tree when first used
+     */
+    UIElement(HashMap<Object, Object> data, QueryPath queryPath, CalabashWrapper calabashWrapper) {
+        this.data = data;
+        this.query = null;
+        this.queryPath = queryPath;
         this.calabashWrapper = calabashWrapper;
     }
 
@@ -119,12 +139,28 @@ public class UIElement implements AndroidElementAction {
         return getElementProperty("contentDescription");
     }
 
+    String getCachedContentDescription() {
+        Object contentDescription = data.get("contentDescription");
+        return contentDescription == null ? null : contentDescription.toString();
+    }
+
     private String getElementProperty(String property) throws CalabashException {
-        Object description = data.get(property);
-        if (description == null) {
-            description = getProperty(property);
+        return Utils.toString(getElementProperties(property).get(property));
+    }
+
+    private Map<String, Object> getElementProperties(String... properties) throws CalabashException {
+        Map<String, Object> values = new HashMap<String, Object>();
+        List<String> missing = new ArrayList<String>();
+        for (String property : properties) {
+            Object value = data.get(property);
+            if (value == null)
+                missing.add(property);
+            else
+                values.put(property, value);
         }
-        return Utils.toString(description);
+        if (!missing.isEmpty())
+            values.putAll(getProperties(missing.toArray(new String[missing.size()])));
+        return values;
     }
 
     /**
@@ -133,7 +169,7 @@ public class UIElement implements AndroidElementAction {
      * @return query
      */
     public String getQuery() {
-        return this.query;
+        return query != null ? query : queryPath.toString();
     }
 
     /**
@@ -166,7 +202,7 @@ public class UIElement implements AndroidElementAction {
      * @throws CalabashException
      */
     public UIElements children() throws CalabashException {
-        String q = query + " child *";
+        String q = getQuery() + " child *";
         RubyArray result = calabashWrapper.query(q);
         return new UIElements(result, q, calabashWrapper);
     }
@@ -184,6 +220,19 @@ public class UIElement implements AndroidElementAction {
         Utils.inspectElement(tree, 0, callback);
     }
 
+    /**
+     * Visits the current element and it's child elements in the given order. The callback decides whether to
+     * go into the children of each element or to stop.
+     *
+     * @param order    depth first or breadth first
+     * @param callback Callback to be invoked
+     * @return the element the traversal stopped at, null if every element was visited
+     * @throws CalabashException
+     */
+    public UIElement traverse(TraversalOrder order, TraversalCallback callback) throws CalabashException {
+        return TreeTraversal.traverse(Collections.singletonList(getTree()), order, callback);
+    }
+
     /**
      * set the checked property of the element. It is advisable to do it only on a check box
      *
@@ -203,7 +252,77 @@ public class UIElement implements AndroidElementAction {
      */
     public Object getProperty(String selector) throws CalabashException {
         RubyArray rubyArray = calabashWrapper.query(this.getQuery(), selector);
-        Object value = Utils.toJavaObject(rubyArray.get(0));
+        return toPropertyValue(rubyArray.get(0));
+    }
+
+    /**
+     * get the values of many <code>selectors</code> of the element in a single call. When the query cache is
+     * enabled with {@link AndroidConfiguration#setQueryCacheTtlInMs(long)}, values are remembered for that long or
+     * until the next action is performed. Values are always fetched from the device while waiting for a condition.
+     *
+     * @param selectors the properties of the element
+     * @return map of selector to its value
+     * @throws CalabashException
+     */
+    public Map<String, Object> getProperties(String... selectors) throws CalabashException {
+        Map<String, Object> values = new HashMap<String, Object>();
+        List<String> missing = new ArrayList<String>();
+        synchronized (propertyCache) {
+            boolean cacheable = invalidatePropertyCacheIfStale();
+            long now = System.currentTimeMillis();
+            for (String selector : selectors) {
+                CachedProperty cached = cacheable ? propertyCache.get(selector) : null;
+                if (cached != null && cached.expiresAt > now)
+                    values.put(selector, cached.value);
+                else
+                    missing.add(selector);
+            }
+        }
+        if (missing.isEmpty())
+            return values;
+
+        if (missing.size() == 1) {
+            Object value = getProperty(missing.get(0));
+            cacheProperty(missing.get(0), value);
+            values.put(missing.get(0), value);
+            return values;
+        }
+
+        String[] missingSelectors = missing.toArray(new String[missing.size()]);
+        RubyArray results = calabashWrapper.queryProperties(this.getQuery(), missingSelectors);
+        for (int i = 0; i < missingSelectors.length; i++) {
+            Object value = toPropertyValue(((RubyArray) results.get(i)).get(0));
+            cacheProperty(missingSelectors[i], value);
+            values.put(missingSelectors[i], value);
+        }
+        return values;
+    }
+
+    void cacheProperty(String selector, Object value) {
+        synchronized (propertyCache) {
+            if (invalidatePropertyCacheIfStale())
+                propertyCache.put(selector, new CachedProperty(value, System.currentTimeMillis() + calabashWrapper.getQueryCacheTtlInMs()));
+        }
+    }
+
+    /**
+     * @return true if properties can be cached right now
+     */
+    private boolean invalidatePropertyCacheIfStale() {
+        long actionCount = calabashWrapper.getActionCount();
+        if (propertyCacheActionCount != actionCount) {
+            propertyCache.clear();
+            propertyCacheActionCount = actionCount;
+        }
+        if (calabashWrapper.getQueryCacheTtlInMs() <= 0 || calabashWrapper.isWaiting()) {
+            propertyCache.clear();
+            return false;
+        }
+        return true;
+    }
+
+    static Object toPropertyValue(Object rubyValue) {
+        Object value = Utils.toJavaObject(rubyValue);
         if (value != null && value.toString().toLowerCase().contains("no accessor")) {
             return null;
         }
@@ -211,7 +330,7 @@ public class UIElement implements AndroidElementAction {
     }
 
     public void touch() throws CalabashException {
-        calabashWrapper.touch(query);
+        calabashWrapper.touch(getQuery());
     }
 
     public void longPress() throws CalabashException {
@@ -251,9 +370,24 @@ public class UIElement implements AndroidElementAction {
      * @throws CalabashException
      */
     public TreeNode getTree() throws CalabashException {
+        ViewSnapshot snapshot = calabashWrapper.getViewSnapshotService().peek();
+        TreeNode node = snapshot == null ? null : findIn(snapshot.getRoots());
+        if (node != null)
+            return node;
         return new TreeBuilder(calabashWrapper).createTreeFrom(this);
     }
 
+    private TreeNode findIn(List<TreeNode> nodes) {
+        for (TreeNode node : nodes) {
+            if (this.equals(node.getData()))
+                return node;
+            TreeNode found = findIn(node.getChildren());
+            if (found != null)
+                return found;
+        }
+        return null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -286,12 +420,23 @@ public class UIElement implements AndroidElementAction {
 
     public String toString() {
         try {
+            Map<String, Object> descriptions = getElementProperties("description", "contentDescription");
             return String.format("id: %s, class: %s, text: %s, description: %s, content description: %s, enabled: %s, rect: %s",
-                    getId(), getElementClass(), getText(), getDescription(), getContentDescription(), isEnabled(), getRect());
+                    getId(), getElementClass(), getText(), Utils.toString(descriptions.get("description")),
+                    Utils.toString(descriptions.get("contentDescription")), isEnabled(), getRect());
         } catch (CalabashException e) {
             error("Unable to get string value of element", e);
         }
         return "";
     }
 
+    private static class CachedProperty {
+        private final Object value;
+        private final long expiresAt;
+
+        private CachedProperty(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
@@ -7,6 +7,9 @@ import org.jruby.RubyArray;
 import org.jruby.RubyHash;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,16 +20,30 @@ import java.util.regex.Pattern;
 public final class UIElements extends ArrayList<UIElement> implements AndroidElementAction {
 
     private static final long serialVersionUID = 3506802535880079938L;
+    private transient String baseQuery;
+    private transient CalabashWrapper wrapper;
 
     public UIElements() {
     }
 
+    /**
+     * Creates the list from elements found without going to the device. Each element keeps the query of its
+     * position in the view tree, which locates it whatever else the device would match.
+     */
+    static UIElements fromElements(List<UIElement> elements) {
+        UIElements uiElements = new UIElements();
+        uiElements.addAll(elements);
+        return uiElements;
+    }
+
     public UIElements(RubyArray elements, String query, CalabashWrapper wrapper)
             throws CalabashException {
         query = query.trim();
-        Pattern pattern = Pattern.compile("^.+index:[0-9]+$");
-        Matcher matcher = pattern.matcher(query);
-        boolean indexedQuery = matcher.matches();
+        boolean indexedQuery = isIndexedQuery(query);
+        if (!indexedQuery) {
+            this.baseQuery = query;
+            this.wrapper = wrapper;
+        }
 
         for (int i = 0; i < elements.size(); i++) {
             try {
@@ -42,6 +59,12 @@ public final class UIElements extends ArrayList<UIElement> implements AndroidEle
         }
     }
 
+    private static boolean isIndexedQuery(String query) {
+        Pattern pattern = Pattern.compile("^.+index:[0-9]+$");
+        Matcher matcher = pattern.matcher(query);
+        return matcher.matches();
+    }
+
     /**
      * Gets the first element in the list
      *
@@ -56,6 +79,57 @@ public final class UIElements extends ArrayList<UIElement> implements AndroidEle
         return this.get(0);
     }
 
+    /**
+     * Gets the values of the <code>selectors</code> for every element in the list. When the elements came from the
+     * same query and are still in the order it returned them, all of them are fetched with one call per selector
+     * instead of one call per element and selector.
+     *
+     * @param selectors the properties of the elements
+     * @return map of selector to its value, for each element in the list
+     * @throws CalabashException
+     */
+    public List<Map<String, Object>> getProperties(String... selectors) throws CalabashException {
+        if (baseQuery != null && !isEmpty()) {
+            List<Map<String, Object>> prefetched = prefetchProperties(selectors);
+            if (prefetched != null)
+                return prefetched;
+        }
+
+        List<Map<String, Object>> properties = new ArrayList<Map<String, Object>>();
+        for (UIElement element : this) {
+            properties.add(element.getProperties(selectors));
+        }
+        return properties;
+    }
+
+    private List<Map<String, Object>> prefetchProperties(String[] selectors) throws CalabashException {
+        // the list may have been sorted or changed since it was created, values are mapped by position
+        for (int j = 0; j < size(); j++) {
+            if (!(baseQuery + " index:" + j).equals(get(j).getQuery()))
+                return null;
+        }
+        RubyArray results = wrapper.queryProperties(baseQuery, selectors);
+        for (int i = 0; i < selectors.length; i++) {
+            RubyArray values = (RubyArray) results.get(i);
+            // elements changed since the list was created, fetch them one by one
+            if (values.size() != size())
+                return null;
+        }
+        List<Map<String, Object>> properties = new ArrayList<Map<String, Object>>();
+        for (int j = 0; j < size(); j++) {
+            properties.add(new HashMap<String, Object>());
+        }
+        for (int i = 0; i < selectors.length; i++) {
+            RubyArray values = (RubyArray) results.get(i);
+            for (int j = 0; j < size(); j++) {
+                Object value = UIElement.toPropertyValue(values.get(j));
+                properties.get(j).put(selectors[i], value);
+                get(j).cacheProperty(selectors[i], value);
+            }
+        }
+        return properties;
+    }
+
     private void ensureCollectionIsNotEmpty() throws CalabashException {
         if (this.size() == 0) {
             throw new CalabashException(
@@ -8,6 +8,7 @@ import org.jruby.RubyHash;
 import org.jruby.RubyObject;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -76,11 +77,13 @@ final class Utils {
         return map;
     }
 
-    public static void inspectElement(TreeNode node, int nestingLevel, InspectCallback callback) {
-        callback.onEachElement(node.getData(), nestingLevel);
-        for (TreeNode childNode : node.getChildren()) {
-            inspectElement(childNode, nestingLevel + 1, callback);
-        }
+    public static void inspectElement(TreeNode node, final int nestingLevel, final InspectCallback callback) {
+        TreeTraversal.traverse(Collections.singletonList(node), TraversalOrder.DEPTH_FIRST, new TraversalCallback() {
+            public TraversalAction onElement(UIElement element, int level) {
+                callback.onEachElement(element, nestingLevel + level);
+                return TraversalAction.CONTINUE;
+            }
+        });
     }
 
     public static String runCommand(String[] command, String onExceptionMessage) throws CalabashException {
@@ -90,14 +93,13 @@ final class Utils {
             exitCode = process.waitFor();
             String error = toString(process.getErrorStream());
             String output = toString(process.getInputStream());
-            CalabashLogger.info(output);
+            CalabashLogger.info(LogCategory.COMMAND_OUTPUT, output);
 
             if (exitCode == 0) {
                 return output;
             } else {
                 CalabashLogger.error("Executing command failed");
-                CalabashLogger.info(output);
-                CalabashLogger.error(error);
+                CalabashLogger.error(LogCategory.COMMAND_OUTPUT, error);
                 throw new CalabashException(onExceptionMessage);
             }
         } catch (Exception e) {
@@ -112,14 +114,50 @@ final class Utils {
             process.waitFor();
             String error = toString(process.getErrorStream());
             String output = toString(process.getInputStream());
-            CalabashLogger.info(output);
-            CalabashLogger.error(error);
+            CalabashLogger.info(LogCategory.COMMAND_OUTPUT, output);
+            CalabashLogger.error(LogCategory.COMMAND_OUTPUT, error);
             return output;
         } catch (Exception e) {
             throw new CalabashException(String.format("Failed to execute command %s, %s", getStringFromArray(command), e.getMessage()), e);
         }
     }
 
+    /**
+     * Runs the command and returns its output as bytes, for commands with binary output
+     */
+    public static byte[] runCommandForBytes(String[] command, String onExceptionMessage) throws CalabashException {
+        try {
+            Process process = executeCommand(command);
+            byte[] output = toByteArray(process.getInputStream());
+            String error = toString(process.getErrorStream());
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                CalabashLogger.error("Executing command failed");
+                CalabashLogger.error(LogCategory.COMMAND_OUTPUT, error);
+                throw new CalabashException(onExceptionMessage);
+            }
+            return output;
+        } catch (CalabashException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CalabashException(onExceptionMessage, e);
+        }
+    }
+
+    private static byte[] toByteArray(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
     public static Process runCommandInBackGround(String[] command, String onExceptionMessage) throws CalabashException {
         try {
             return executeCommand(command);
@@ -130,9 +168,10 @@ final class Utils {
     }
 
     private static Process executeCommand(String[] command) throws Exception {
-        String cmd = getStringFromArray(command);
-        CalabashLogger.info("Executing command");
-        CalabashLogger.info(cmd);
+        if (CalabashLogger.isInfoEnabled(LogCategory.GENERAL)) {
+            CalabashLogger.info("Executing command");
+            CalabashLogger.info(getStringFromArray(command));
+        }
         return Runtime.getRuntime().exec(command);
     }
 
@@ -0,0 +1,60 @@
+package com.thoughtworks.calabash.android;
+
+/**
+ * A single difference between two snapshots of the view hierarchy
+ */
+public class ViewChange {
+
+    public enum Type {
+        /**
+         * element is only present in the newer snapshot
+         */
+        ADDED,
+        /**
+         * element is only present in the older snapshot
+         */
+        REMOVED,
+        /**
+         * element changed its position or size, or moved under another parent
+         */
+        MOVED,
+        /**
+         * element changed its class, id, text, content description or enabled state
+         */
+        CHANGED
+    }
+
+    private final Type type;
+    private final TreeNode before;
+    private final TreeNode after;
+
+    public ViewChange(Type type, TreeNode before, TreeNode after) {
+        this.type = type;
+        this.before = before;
+        this.after = after;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the element in the older snapshot, null for {@link Type#ADDED}
+     */
+    public TreeNode getBefore() {
+        return before;
+    }
+
+    /**
+     * @return the element in the newer snapshot, null for {@link Type#REMOVED}
+     */
+    public TreeNode getAfter() {
+        return after;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s before: %s, after: %s", type,
+                before == null ? null : before.getData(), after == null ? null : after.getData());
+    }
+}
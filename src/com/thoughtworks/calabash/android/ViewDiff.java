@@ -0,0 +1,60 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Differences between two snapshots of the view hierarchy, see {@link TreeDiffer}
+ */
+public class ViewDiff {
+
+    private final ViewSnapshot from;
+    private final ViewSnapshot to;
+    private final List<ViewChange> changes;
+
+    public ViewDiff(ViewSnapshot from, ViewSnapshot to, List<ViewChange> changes) {
+        this.from = from;
+        this.to = to;
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    public ViewSnapshot getFrom() {
+        return from;
+    }
+
+    public ViewSnapshot getTo() {
+        return to;
+    }
+
+    public List<ViewChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Gets the changes of the given type
+     *
+     * @param type type of the changes
+     * @return changes of that type, empty if there are none
+     */
+    public List<ViewChange> getChanges(ViewChange.Type type) {
+        List<ViewChange> result = new ArrayList<ViewChange>();
+        for (ViewChange change : changes) {
+            if (change.getType() == type)
+                result.add(change);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the screen did not change between the snapshots
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d changes between snapshot %d and %d", changes.size(), from.getVersion(), to.getVersion());
+    }
+}
@@ -0,0 +1,69 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed view hierarchy of the screen at a point in time. Snapshots are shared between callers, the list of roots
+ * can't be modified and the nodes must not be.
+ */
+public class ViewSnapshot {
+
+    private final List<TreeNode> roots;
+    private final long version;
+    private final long takenAt;
+    private final long actionCount;
+    private ViewSnapshotIndex index;
+
+    public ViewSnapshot(List<TreeNode> roots, long version, long takenAt, long actionCount) {
+        this.roots = Collections.unmodifiableList(new ArrayList<TreeNode>(roots));
+        this.version = version;
+        this.takenAt = takenAt;
+        this.actionCount = actionCount;
+    }
+
+    /**
+     * Gets the root elements of the hierarchy
+     *
+     * @return unmodifiable list of root elements, empty if the screen has no visible views
+     */
+    public List<TreeNode> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Gets the version of the snapshot. Every fetch of the view hierarchy gets a higher version than the previous one
+     *
+     * @return version stamp
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the time the hierarchy was fetched at
+     *
+     * @return time in milliseconds since the epoch
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * @return milliseconds since the hierarchy was fetched
+     */
+    public long getAgeInMs() {
+        return System.currentTimeMillis() - takenAt;
+    }
+
+    long getActionCount() {
+        return actionCount;
+    }
+
+    synchronized ViewSnapshotIndex getIndex() {
+        if (index == null)
+            index = new ViewSnapshotIndex(roots);
+        return index;
+    }
+}
@@ -0,0 +1,199 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.*;
+
+/**
+ * Pre-order numbering of the nodes of a snapshot along with lookups by id, text and mark. Every lookup returns
+ * positions in pre-order, so the descendants of a node are the positions between the node and its subtree end.
+ */
+class ViewSnapshotIndex {
+
+    private static final int[] NONE = new int[0];
+    private final List<TreeNode> nodes = new ArrayList<TreeNode>();
+    private final List<Integer> subtreeEnds = new ArrayList<Integer>();
+    private final Map<String, List<Integer>> byId = new HashMap<String, List<Integer>>();
+    private final Map<String, List<Integer>> byText = new HashMap<String, List<Integer>>();
+    private final Map<String, List<Integer>> byMark = new HashMap<String, List<Integer>>();
+    private final Map<TreeNode, Integer> positions = new IdentityHashMap<TreeNode, Integer>();
+    private final List<Integer> roots = new ArrayList<Integer>();
+    private long[] propertiesHashes;
+    private long[] rectHashes;
+    private long[] subtreeHashes;
+    private long[] shapeHashes;
+
+    ViewSnapshotIndex(List<TreeNode> roots) {
+        for (TreeNode root : roots) {
+            this.roots.add(nodes.size());
+            add(root);
+        }
+        computeHashes();
+    }
+
+    private void add(TreeNode root) {
+        // iterative pre-order walk, a node's subtree ends when its exit marker is popped
+        Deque<Object> pending = new ArrayDeque<Object>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof Integer) {
+                subtreeEnds.set((Integer) next, nodes.size());
+                continue;
+            }
+            TreeNode node = (TreeNode) next;
+            int position = nodes.size();
+            nodes.add(node);
+            subtreeEnds.add(position + 1);
+            positions.put(node, position);
+            indexElement(node.getData(), position);
+
+            pending.push(position);
+            List<TreeNode> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+            }
+        }
+    }
+
+    private void indexElement(UIElement element, int position) {
+        if (element == null)
+            return;
+        String id = element.getId();
+        String text = element.getText();
+        put(byId, id, position);
+        put(byText, text, position);
+        put(byMark, id, position);
+        if (!text.equals(id))
+            put(byMark, text, position);
+        String contentDescription = element.getCachedContentDescription();
+        if (contentDescription != null && !contentDescription.equals(id) && !contentDescription.equals(text))
+            put(byMark, contentDescription, position);
+    }
+
+    private void put(Map<String, List<Integer>> index, String key, int position) {
+        if (key == null || key.length() == 0)
+            return;
+        List<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new ArrayList<Integer>();
+            index.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    private void computeHashes() {
+        // children always come after their parent in pre-order, so walking backwards hashes children first
+        int size = nodes.size();
+        propertiesHashes = new long[size];
+        rectHashes = new long[size];
+        subtreeHashes = new long[size];
+        shapeHashes = new long[size];
+        for (int position = size - 1; position >= 0; position--) {
+            UIElement element = nodes.get(position).getData();
+            propertiesHashes[position] = element == null ? 0 : hash(element.getElementClass(), element.getId(),
+                    element.getText(), String.valueOf(element.isEnabled()), element.getCachedContentDescription());
+            rectHashes[position] = element == null ? 0 : hash(String.valueOf(element.getRect()));
+            long subtreeHash = mix(propertiesHashes[position], rectHashes[position]);
+            long shapeHash = propertiesHashes[position];
+            for (int child : getChildren(position)) {
+                subtreeHash = mix(subtreeHash, subtreeHashes[child]);
+                shapeHash = mix(shapeHash, shapeHashes[child]);
+            }
+            subtreeHashes[position] = subtreeHash;
+            shapeHashes[position] = shapeHash;
+        }
+    }
+
+    private static long hash(String... values) {
+        long hash = 0xcbf29ce484222325L;
+        for (String value : values) {
+            if (value == null) {
+                hash = mix(hash, 0);
+                continue;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+            hash = mix(hash, value.length());
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        long mixed = (hash ^ value) + 0x9e3779b97f4a7c15L + (hash << 6) + (hash >>> 2);
+        mixed = (mixed ^ (mixed >>> 30)) * 0xbf58476d1ce4e5b9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94d049bb133111ebL;
+        return mixed ^ (mixed >>> 31);
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    List<Integer> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Hash of the element's own properties, without its rect
+     */
+    long getPropertiesHash(int position) {
+        return propertiesHashes[position];
+    }
+
+    long getRectHash(int position) {
+        return rectHashes[position];
+    }
+
+    /**
+     * Hash of the element and everything below it, equal hashes mean identical subtrees
+     */
+    long getSubtreeHash(int position) {
+        return subtreeHashes[position];
+    }
+
+    /**
+     * Hash of the element and everything below it ignoring rects, equal hashes mean the subtree only moved
+     */
+    long getShapeHash(int position) {
+        return shapeHashes[position];
+    }
+
+    TreeNode getNode(int position) {
+        return nodes.get(position);
+    }
+
+    int getSubtreeEnd(int position) {
+        return subtreeEnds.get(position);
+    }
+
+    int[] getChildren(int position) {
+        List<TreeNode> children = nodes.get(position).getChildren();
+        int[] result = new int[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            result[i] = positions.get(children.get(i));
+        }
+        return result;
+    }
+
+    int[] withId(String id) {
+        return toArray(byId.get(id));
+    }
+
+    int[] withText(String text) {
+        return toArray(byText.get(text));
+    }
+
+    int[] withMark(String mark) {
+        return toArray(byMark.get(mark));
+    }
+
+    private int[] toArray(List<Integer> positions) {
+        if (positions == null)
+            return NONE;
+        int[] result = new int[positions.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = positions.get(i);
+        }
+        return result;
+    }
+}
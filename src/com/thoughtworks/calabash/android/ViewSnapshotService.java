@@ -0,0 +1,127 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static com.thoughtworks.calabash.android.CalabashLogger.info;
+
+/**
+ * Holds the latest view hierarchy of a device. Callers asking for a snapshot within the allowed age get the
+ * held one, concurrent callers share a single fetch of the view dump, and any action performed on the device makes
+ * the held snapshot stale.
+ */
+public class ViewSnapshotService {
+
+    private final CalabashWrapper calabashWrapper;
+    private final TreeBuilder treeBuilder;
+    private final long defaultMaxAgeInMs;
+    private ViewSnapshot latest;
+    private FutureTask<ViewSnapshot> inFlight;
+    private long version = 0;
+
+    public ViewSnapshotService(CalabashWrapper calabashWrapper, TreeBuilder treeBuilder, long defaultMaxAgeInMs) {
+        this.calabashWrapper = calabashWrapper;
+        this.treeBuilder = treeBuilder;
+        this.defaultMaxAgeInMs = defaultMaxAgeInMs;
+    }
+
+    /**
+     * Gets a snapshot no older than the default max age
+     *
+     * @return the snapshot
+     * @throws CalabashException
+     */
+    public ViewSnapshot snapshot() throws CalabashException {
+        return snapshot(defaultMaxAgeInMs);
+    }
+
+    /**
+     * Gets a snapshot of the view hierarchy. The held snapshot is returned if it is not older than
+     * <code>maxAgeInMs</code> and no action was performed after it was taken. Otherwise the view dump is fetched,
+     * or the fetch already running for another caller is joined.
+     *
+     * @param maxAgeInMs maximum acceptable age of the snapshot in milliseconds
+     * @return the snapshot
+     * @throws CalabashException
+     */
+    public ViewSnapshot snapshot(long maxAgeInMs) throws CalabashException {
+        FutureTask<ViewSnapshot> fetch;
+        boolean fetchOwner = false;
+        synchronized (this) {
+            if (isFresh(latest, maxAgeInMs))
+                return latest;
+
+            if (inFlight == null) {
+                inFlight = new FutureTask<ViewSnapshot>(new Callable<ViewSnapshot>() {
+                    public ViewSnapshot call() throws Exception {
+                        return fetch();
+                    }
+                });
+                fetchOwner = true;
+            }
+            fetch = inFlight;
+        }
+
+        if (fetchOwner) {
+            fetch.run();
+            synchronized (this) {
+                inFlight = null;
+            }
+        }
+        return getResult(fetch);
+    }
+
+    /**
+     * Gets the held snapshot if it is not older than the default max age and no action was performed after it was
+     * taken. Never fetches the view dump.
+     *
+     * @return the held snapshot, null if there is none or it is stale
+     */
+    public synchronized ViewSnapshot peek() {
+        return isFresh(latest, defaultMaxAgeInMs) ? latest : null;
+    }
+
+    /**
+     * Drops the held snapshot, the next caller fetches a new one
+     */
+    public synchronized void invalidate() {
+        latest = null;
+    }
+
+    private boolean isFresh(ViewSnapshot snapshot, long maxAgeInMs) {
+        // reuse depends on timing, which a replay can't reproduce
+        if (calabashWrapper.isRecording() || calabashWrapper.isReplaying())
+            return false;
+        return snapshot != null
+                && snapshot.getActionCount() == calabashWrapper.getActionCount()
+                && snapshot.getAgeInMs() <= maxAgeInMs;
+    }
+
+    private ViewSnapshot fetch() throws CalabashException {
+        long actionCount = calabashWrapper.getActionCount();
+        long takenAt = System.currentTimeMillis();
+        // a failed dump throws before anything is held, so it is never mistaken for an empty screen
+        List<TreeNode> roots = treeBuilder.fetchTree();
+        synchronized (this) {
+            ViewSnapshot snapshot = new ViewSnapshot(roots, ++version, takenAt, actionCount);
+            latest = snapshot;
+            info("Took view snapshot version %d", snapshot.getVersion());
+            return snapshot;
+        }
+    }
+
+    private ViewSnapshot getResult(FutureTask<ViewSnapshot> fetch) throws CalabashException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CalabashException("Interrupted while waiting for view snapshot", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CalabashException)
+                throw (CalabashException) e.getCause();
+            throw new CalabashException("Failed to take view snapshot. " + e.getCause().getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.thoughtworks.calabash.android;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.thoughtworks.calabash.android.TestUtils.createViewDump;
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+
+/**
+ * Stand-in for the calabash instrumentation test server, so the client side can be exercised and benchmarked
+ * without an emulator. Serves the view dump on {@code /dump}, query results on {@code /map}, a success response
+ * for every action posted to {@code /} and {@code pong} on {@code /ping}. Every response can be delayed by a fixed
+ * latency to mimic the round trip to a device.
+ * <p/>
+ * The server listens on a free port of the loopback interface, pass {@link #getPort()} to the code under test as
+ * the test server port.
+ */
+public class FakeTestServer {
+
+    private static final String ACTION_RESPONSE = "{\"success\": true, \"message\": \"\", \"bonusInformation\": []}";
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, String> queryResults = new ConcurrentHashMap<String, String>();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private volatile byte[] viewDump = "{}".getBytes();
+    private volatile long latencyInMs;
+
+    public FakeTestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/dump", new Handler() {
+            byte[] respond(HttpExchange exchange) {
+                return viewDump;
+            }
+        });
+        server.createContext("/map", new Handler() {
+            byte[] respond(HttpExchange exchange) throws IOException {
+                final JsonNode request = mapper.readTree(exchange.getRequestBody());
+                final String results = queryResults.get(request.get("query").getTextValue());
+                return String.format("{\"outcome\": \"SUCCESS\", \"results\": %s}", results == null ? "[]" : results).getBytes("UTF-8");
+            }
+        });
+        server.createContext("/ping", new Handler() {
+            byte[] respond(HttpExchange exchange) {
+                return "pong".getBytes();
+            }
+        });
+        server.createContext("/", new Handler() {
+            byte[] respond(HttpExchange exchange) throws IOException {
+                IOUtils.toByteArray(exchange.getRequestBody());
+                return ACTION_RESPONSE.getBytes();
+            }
+        });
+    }
+
+    public FakeTestServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Delays every response, 0 to respond right away
+     */
+    public FakeTestServer setLatency(long latencyInMs) {
+        this.latencyInMs = latencyInMs;
+        return this;
+    }
+
+    public FakeTestServer setViewDump(String dump) {
+        try {
+            this.viewDump = dump.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Serves a fixture from tests/resources as the view dump
+     */
+    public FakeTestServer setViewDumpFromResource(String fileName) throws IOException {
+        return setViewDump(readFileFromResources(fileName));
+    }
+
+    /**
+     * Serves a synthetic view dump of the given size, see {@link TestUtils#createViewDump(int, int)}
+     */
+    public FakeTestServer setViewDump(int viewCount, int childrenPerView) {
+        return setViewDump(createViewDump(viewCount, childrenPerView));
+    }
+
+    /**
+     * Sets the results returned for a query
+     *
+     * @param query   the query as sent by the client
+     * @param results JSON array of the matching elements
+     */
+    public FakeTestServer setQueryResults(String query, String results) {
+        queryResults.put(query, results);
+        return this;
+    }
+
+    public FakeTestServer setQueryResultsFromResource(String query, String fileName) throws IOException {
+        return setQueryResults(query, readFileFromResources(fileName));
+    }
+
+    /**
+     * @return number of requests served on the given path, like "/dump"
+     */
+    public int getRequestCount(String path) {
+        final AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private abstract class Handler implements HttpHandler {
+
+        abstract byte[] respond(HttpExchange exchange) throws IOException;
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                count(exchange.getHttpContext().getPath());
+                if (latencyInMs > 0)
+                    Thread.sleep(latencyInMs);
+                final byte[] body = respond(exchange);
+                exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void count(String path) {
+            synchronized (requestCounts) {
+                AtomicInteger count = requestCounts.get(path);
+                if (count == null) {
+                    count = new AtomicInteger();
+                    requestCounts.put(path, count);
+                }
+                count.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.thoughtworks.calabash.android;
+
+import java.util.List;
+
+/**
+ * Lets the unit tests reach the few package private pieces they need to replace or observe
+ */
+public class TestHooks {
+
+    /**
+     * Replaces the sink device interactions are reported to, null for none
+     *
+     * @return the sink used so far, to be restored after the test
+     */
+    public static CalabashEventSink setEventSink(CalabashEventSink sink) {
+        return CalabashEvents.setSink(sink);
+    }
+
+    public static void initializeLogger(AndroidConfiguration configuration) throws CalabashException {
+        CalabashLogger.initialize(configuration);
+    }
+
+    public static void logInfo(LogCategory category, String message, Object... args) {
+        CalabashLogger.info(category, message, args);
+    }
+
+    public static void logError(LogCategory category, String message) {
+        CalabashLogger.error(category, message);
+    }
+
+    public static boolean isLogInfoEnabled(LogCategory category) {
+        return CalabashLogger.isInfoEnabled(category);
+    }
+
+    public static boolean isLogErrorEnabled(LogCategory category) {
+        return CalabashLogger.isErrorEnabled(category);
+    }
+
+    public static void flushLog() {
+        CalabashLogger.flush();
+    }
+
+    /**
+     * @return number of log messages dropped so far because the queue was full
+     */
+    public static long getDroppedLogCount() {
+        return CalabashLogger.getDroppedCount();
+    }
+
+    public static int getLogQueueCapacity() {
+        return CalabashLogger.QUEUE_CAPACITY;
+    }
+
+    /**
+     * @return a recorder joining its segments with the given ffmpeg command
+     */
+    public static ScreenRecorder newScreenRecorder(AndroidBridge androidBridge, String serial, ScreenRecordingOptions options,
+                                                   String ffmpeg) {
+        return new ScreenRecorder(androidBridge, serial, options, ffmpeg);
+    }
+
+    /**
+     * @return the shell commands the sequence is typed with
+     */
+    public static List<String> toShellCommands(KeySequence sequence) throws CalabashException {
+        return sequence.toShellCommands();
+    }
+
+    public static int getMaxKeyCommandLength() {
+        return KeySequence.MAX_COMMAND_LENGTH;
+    }
+
+    public static DeviceShell newDeviceShell(String[] command, String serial, long timeoutInMs) {
+        return new DeviceShell(command, serial, null, timeoutInMs);
+    }
+
+    /**
+     * @param afterTyping run after every sequence typed, null for nothing
+     */
+    public static Keyboard newKeyboard(DeviceShell shell, Runnable afterTyping) {
+        return new Keyboard(shell, afterTyping);
+    }
+
+    public static QueryCache getQueryCache(CalabashWrapper calabashWrapper) {
+        return calabashWrapper.getQueryCache();
+    }
+
+    /**
+     * @param discoveryOutput what the device answers to <code>getevent -pl && wm size</code>
+     * @return the script playing the gesture on the touchscreen of the device
+     */
+    public static String touchscreenScript(String discoveryOutput, Gesture gesture) throws CalabashException {
+        return Touchscreen.parse(discoveryOutput).toScript(gesture);
+    }
+
+    public static int getTouchscreenMaxPointers(String discoveryOutput) throws CalabashException {
+        return Touchscreen.parse(discoveryOutput).getMaxPointers();
+    }
+
+    public static long getGestureFrameInMs() {
+        return Touchscreen.FRAME_IN_MS;
+    }
+}
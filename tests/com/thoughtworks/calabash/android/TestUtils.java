@@ -102,6 +102,32 @@ public class TestUtils {
         return false;
     }
 
+    /**
+     * Creates a view dump of a synthetic screen where every view has the given number of visible children,
+     * filled breadth first up to the given number of views
+     */
+    public static String createViewDump(int viewCount, int childrenPerView) {
+        final StringBuilder dump = new StringBuilder("{\"children\": [");
+        appendView(dump, 0, viewCount, childrenPerView);
+        return dump.append("]}").toString();
+    }
+
+    private static void appendView(StringBuilder dump, int view, int viewCount, int childrenPerView) {
+        dump.append(String.format("{\"type\": \"android.widget.TextView\", \"id\": \"view%d\", \"value\": \"text %d\", " +
+                "\"enabled\": true, \"visible\": true, \"label\": null, \"rect\": {\"x\": %d, \"y\": %d, \"width\": 100, " +
+                "\"height\": 20, \"center_x\": %d, \"center_y\": %d}, \"children\": [", view, view, view % 1000, view / 1000,
+                view % 1000 + 50, view / 1000 + 10));
+        for (int i = 1; i <= childrenPerView; i++) {
+            final int child = view * childrenPerView + i;
+            if (child >= viewCount)
+                break;
+            if (i > 1)
+                dump.append(", ");
+            appendView(dump, child, viewCount, childrenPerView);
+        }
+        dump.append("]}");
+    }
+
     public static String readFileFromResources(final String fileName) throws IOException {
         final File file = new File("tests/resources/" + fileName);
         return FileUtils.readFileToString(file, "UTF-8");
@@ -0,0 +1,58 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.BatchQueryResult;
+import com.thoughtworks.calabash.android.CalabashException;
+import com.thoughtworks.calabash.android.CalabashWrapper;
+import org.jruby.RubyArray;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BatchQueryResultTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldCreateElementsAndTimingsForEachQuery() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final RubyArray results = mock(RubyArray.class);
+        final RubyArray firstResult = getQueryResult(12L);
+        final RubyArray secondResult = getQueryResult(30L);
+        when(results.size()).thenReturn(2);
+        when(results.get(0)).thenReturn(firstResult);
+        when(results.get(1)).thenReturn(secondResult);
+
+        final BatchQueryResult batch = new BatchQueryResult(results, new String[]{"button", "* id:'foo'"}, wrapper);
+
+        assertEquals(2, batch.size());
+        assertEquals("button", batch.getQuery(0));
+        assertEquals("* id:'foo'", batch.getQuery(1));
+        assertEquals(12L, batch.getQueryTimeInMs(0));
+        assertEquals(30L, batch.getQueryTimeInMs(1));
+        assertEquals(42L, batch.getTotalQueryTimeInMs());
+    }
+
+    @Test
+    public void shouldFailWhenResultCountDoesNotMatchQueries() throws Exception {
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("Expected results for 2 queries, got 1");
+
+        final RubyArray results = mock(RubyArray.class);
+        when(results.size()).thenReturn(1);
+
+        new BatchQueryResult(results, new String[]{"button", "textView"}, mock(CalabashWrapper.class));
+    }
+
+    private RubyArray getQueryResult(long timeInMs) {
+        final RubyArray elements = mock(RubyArray.class);
+        when(elements.size()).thenReturn(0);
+        final RubyArray queryResult = mock(RubyArray.class);
+        when(queryResult.get(0)).thenReturn(elements);
+        when(queryResult.get(1)).thenReturn(timeInMs);
+        return queryResult;
+    }
+}
@@ -0,0 +1,115 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class CalabashEventsTest {
+
+    @Mock
+    private CalabashWrapper wrapper;
+    private FakeTestServer server;
+    private CalabashEventSink previousSink;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        server = new FakeTestServer().start();
+        when(wrapper.getTestServerPort()).thenReturn(String.valueOf(server.getPort()));
+        previousSink = TestHooks.setEventSink(null);
+    }
+
+    @After
+    public void tearDown() {
+        TestHooks.setEventSink(previousSink);
+        server.stop();
+    }
+
+    @Test
+    public void shouldEmitAnEventForEveryInteraction() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        TestHooks.setEventSink(sink);
+
+        new ConditionalWaiter(new CountingCondition()).run(1000);
+
+        assertEquals(1, sink.events.size());
+        assertEquals("conditionalWait|screen is ready|0|true", sink.events.get(0));
+    }
+
+    @Test
+    public void shouldReportAWaitWhoseConditionThrewAsFailed() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        TestHooks.setEventSink(sink);
+
+        try {
+            new ConditionalWaiter(new ICondition("screen is ready") {
+                @Override
+                public boolean test() throws CalabashException {
+                    throw new CalabashException("device went away");
+                }
+            }).run(1, 0);
+        } catch (CalabashException expected) {
+        }
+
+        assertEquals("conditionalWait|screen is ready|0|false", sink.events.get(0));
+    }
+
+    @Test
+    public void shouldReportViewDumpSizeInBytes() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        TestHooks.setEventSink(sink);
+        server.setViewDump("{\"children\": [], \"value\": \"caf\u00e9 \u2615\"}");
+
+        String dump = new CalabashHttpClient(wrapper).getViewDump();
+
+        assertTrue(dump.getBytes("UTF-8").length > dump.length());
+        assertEquals("getViewDump||" + dump.getBytes("UTF-8").length + "|true", sink.events.get(0));
+    }
+
+    @Test
+    public void shouldNotBuildEventArgumentsWithoutASink() throws Exception {
+        CountingCondition condition = new CountingCondition();
+
+        new ConditionalWaiter(condition).run(1000);
+        new ConditionalWaiter(condition).run(1, 0);
+
+        assertEquals(0, condition.descriptions);
+    }
+
+    private static class CountingCondition extends ICondition {
+        private int descriptions;
+
+        @Override
+        public boolean test() {
+            return true;
+        }
+
+        @Override
+        public String getDescription() {
+            descriptions++;
+            return "screen is ready";
+        }
+    }
+
+    private static class RecordingSink implements CalabashEventSink {
+        private final List<String> events = new ArrayList<String>();
+
+        public Object begin(String operation) {
+            return operation;
+        }
+
+        public void commit(Object event, String query, String serial, long bytes, int retries, boolean succeeded) {
+            events.add(event + "|" + query + "|" + bytes + "|" + succeeded);
+        }
+    }
+}
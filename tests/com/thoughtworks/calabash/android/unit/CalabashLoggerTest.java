@@ -0,0 +1,144 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.AndroidConfiguration;
+import com.thoughtworks.calabash.android.LogCategory;
+import com.thoughtworks.calabash.android.LogLevel;
+import com.thoughtworks.calabash.android.TestHooks;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.thoughtworks.calabash.android.TestUtils.createTempDir;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CalabashLoggerTest {
+
+    private static final String LOGGER_NAME = "com.thoughtworks.calabash.android.CalabashLogger";
+
+    @Test
+    public void shouldWriteMessagesOfEnabledCategoriesInTheBackground() throws Exception {
+        File logsDirectory = createTempDir("calabash-logger-test");
+        AndroidConfiguration configuration = new AndroidConfiguration();
+        configuration.setLogsDirectory(logsDirectory);
+        configuration.setLogLevel(LogCategory.COMMAND_OUTPUT, LogLevel.OFF);
+        configuration.setLogLevel(LogCategory.QUERY, LogLevel.ERROR);
+        TestHooks.initializeLogger(configuration);
+
+        TestHooks.logInfo(LogCategory.GENERAL, "Using the serial: %s", "emulator-5554");
+        TestHooks.logInfo(LogCategory.GENERAL, "%s = %s from configuration", "ANDROID_HOME", "/opt/android");
+        TestHooks.logInfo(LogCategory.COMMAND_OUTPUT, "package:/system/framework/framework-res.apk");
+        TestHooks.logError(LogCategory.COMMAND_OUTPUT, "adb: device offline");
+        TestHooks.logInfo(LogCategory.QUERY, "Executing query - %s", "* id:'button'");
+        TestHooks.logError(LogCategory.QUERY, "query failed");
+        TestHooks.flushLog();
+
+        String log = FileUtils.readFileToString(new File(logsDirectory, "calabash-android-java.log"));
+        assertTrue(log.contains("Using the serial: emulator-5554"));
+        assertTrue(log.contains("ANDROID_HOME = /opt/android from configuration"));
+        assertTrue(log.contains("query failed"));
+        assertFalse(log.contains("framework-res.apk"));
+        assertFalse(log.contains("device offline"));
+        assertFalse(log.contains("Executing query"));
+    }
+
+    @Test
+    public void shouldNotLogBelowTheCategoryLevel() throws Exception {
+        AndroidConfiguration configuration = new AndroidConfiguration();
+        configuration.setLogsDirectory(createTempDir("calabash-logger-test"));
+        configuration.setLogLevel(LogCategory.DUMP, LogLevel.OFF);
+        TestHooks.initializeLogger(configuration);
+
+        assertTrue(TestHooks.isLogInfoEnabled(LogCategory.GENERAL));
+        assertFalse(TestHooks.isLogInfoEnabled(LogCategory.DUMP));
+        assertFalse(TestHooks.isLogErrorEnabled(LogCategory.DUMP));
+    }
+
+    @Test
+    public void shouldDropAndCountMessagesWhenTheQueueIsFull() throws Exception {
+        File logsDirectory = createTempDir("calabash-logger-overflow-test");
+        AndroidConfiguration configuration = new AndroidConfiguration();
+        configuration.setLogsDirectory(logsDirectory);
+        TestHooks.initializeLogger(configuration);
+        TestHooks.flushLog();
+        BlockingAppender appender = new BlockingAppender();
+        Logger.getLogger(LOGGER_NAME).addAppender(appender);
+        long droppedBefore = TestHooks.getDroppedLogCount();
+        try {
+            TestHooks.logInfo(LogCategory.GENERAL, "blocks the writer");
+            assertTrue(appender.entered.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < TestHooks.getLogQueueCapacity() + 10; i++) {
+                TestHooks.logInfo(LogCategory.GENERAL, "message %d", i);
+            }
+
+            assertEquals(10, TestHooks.getDroppedLogCount() - droppedBefore);
+        } finally {
+            appender.release.countDown();
+            TestHooks.flushLog();
+            Logger.getLogger(LOGGER_NAME).removeAppender(appender);
+        }
+        TestHooks.logInfo(LogCategory.GENERAL, "after the overflow");
+        TestHooks.flushLog();
+
+        String log = FileUtils.readFileToString(new File(logsDirectory, "calabash-android-java.log"));
+        assertTrue(log.contains("dropped 10 messages"));
+    }
+
+    @Test
+    public void shouldFormatMutableArgumentsWhenTheyAreLogged() throws Exception {
+        File logsDirectory = createTempDir("calabash-logger-format-test");
+        AndroidConfiguration configuration = new AndroidConfiguration();
+        configuration.setLogsDirectory(logsDirectory);
+        TestHooks.initializeLogger(configuration);
+        TestHooks.flushLog();
+        BlockingAppender appender = new BlockingAppender();
+        Logger.getLogger(LOGGER_NAME).addAppender(appender);
+        StringBuilder arguments = new StringBuilder("[\"first\"]");
+        try {
+            TestHooks.logInfo(LogCategory.GENERAL, "blocks the writer");
+            assertTrue(appender.entered.await(5, TimeUnit.SECONDS));
+
+            TestHooks.logInfo(LogCategory.GENERAL, "Executing with arguments %s", arguments);
+            arguments.setLength(0);
+            arguments.append("[\"second\"]");
+        } finally {
+            appender.release.countDown();
+            TestHooks.flushLog();
+            Logger.getLogger(LOGGER_NAME).removeAppender(appender);
+        }
+
+        String log = FileUtils.readFileToString(new File(logsDirectory, "calabash-android-java.log"));
+        assertTrue(log.contains("Executing with arguments [\"first\"]"));
+        assertFalse(log.contains("Executing with arguments [\"second\"]"));
+    }
+
+    private static class BlockingAppender extends AppenderSkeleton {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        protected void append(LoggingEvent event) {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void close() {
+        }
+
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.CalabashMetrics;
+import com.thoughtworks.calabash.android.LatencyStatistics;
+import com.thoughtworks.calabash.android.MetricsListener;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class CalabashMetricsTest {
+
+    private static final long MILLI = 1000000;
+
+    @Test
+    public void shouldComputePercentilesPerOperationAndSerial() {
+        CalabashMetrics metrics = new CalabashMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.record("query", "emulator-5554", i * MILLI, true);
+        }
+        metrics.record("query", "emulator-5556", 500 * MILLI, false);
+
+        LatencyStatistics statistics = metrics.getStatistics("query", "emulator-5554");
+
+        assertEquals(100, statistics.getCount());
+        assertEquals(0, statistics.getFailures());
+        assertEquals(50.5, statistics.getMean(), 0.01);
+        assertEquals(50, statistics.getP50(), 50 * 0.07);
+        assertEquals(95, statistics.getP95(), 95 * 0.07);
+        assertEquals(99, statistics.getP99(), 99 * 0.07);
+        assertEquals(100, statistics.getMax(), 0.001);
+        assertEquals(1, metrics.getStatistics("query", "emulator-5556").getFailures());
+        assertEquals(2, metrics.getStatistics().size());
+    }
+
+    @Test
+    public void shouldReturnEmptyStatisticsForUnknownOperation() {
+        LatencyStatistics statistics = new CalabashMetrics().getStatistics("touch", "emulator-5554");
+
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getMax(), 0);
+    }
+
+    @Test
+    public void shouldNotifyListeners() {
+        MetricsListener listener = mock(MetricsListener.class);
+        CalabashMetrics metrics = new CalabashMetrics();
+        metrics.addListener(listener);
+
+        metrics.record("adb shell", "emulator-5554", 42, true);
+
+        verify(listener).operationCompleted("adb shell", "emulator-5554", 42, true);
+    }
+
+    @Test
+    public void shouldExposeStatisticsOverJmx() throws Exception {
+        CalabashMetrics metrics = new CalabashMetrics();
+        metrics.record("touch", "emulator-5554", 10 * MILLI, true);
+        metrics.registerMBean();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Set<ObjectName> names = server.queryNames(new ObjectName("com.thoughtworks.calabash.android:type=CalabashMetrics,*"), null);
+            assertTrue(names.size() >= 1);
+
+            boolean found = false;
+            for (ObjectName name : names) {
+                TabularData statistics = (TabularData) server.getAttribute(name, "Statistics");
+                found |= statistics.containsKey(new Object[]{"touch emulator-5554"});
+            }
+            assertTrue(found);
+        } finally {
+            metrics.unregisterMBean();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CompactViewSnapshotTest {
+
+    private ViewSnapshot snapshot;
+    private CompactViewSnapshot compact;
+
+    @Before
+    public void setUp() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final CalabashHttpClient httpClient = mock(CalabashHttpClient.class);
+        when(httpClient.getViewDump()).thenReturn(readFileFromResources("nested-view-dump.json"));
+        final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper));
+        snapshot = new ViewSnapshot(treeBuilder.createTree(), 3, 1000L, 0);
+        compact = new CompactViewSnapshot(snapshot, wrapper);
+    }
+
+    @Test
+    public void shouldKeepStructureInIndexArrays() {
+        assertEquals(3, compact.size());
+        assertArrayEquals(new int[]{0}, compact.getRootIndexes());
+        assertEquals(-1, compact.getParent(0));
+        assertEquals(1, compact.getFirstChild(0));
+        assertEquals(-1, compact.getFirstChild(1));
+        assertEquals(2, compact.getNextSibling(1));
+        assertEquals(-1, compact.getNextSibling(2));
+        assertEquals(0, compact.getParent(2));
+        assertEquals("button1", compact.getId(2));
+        assertEquals("android.widget.ImageView", compact.getElementClass(2));
+        assertEquals(371.0, compact.getRect(2).getX(), 0);
+    }
+
+    @Test
+    public void shouldCreateElementsEqualToTheOriginalOnDemand() {
+        final TreeNode original = snapshot.getRoots().get(0).getChildren().get(1);
+        final UIElement element = compact.getElement(2);
+
+        assertEquals(original.getData(), element);
+        assertEquals(original.getData().getQuery(), element.getQuery());
+        assertEquals(original.getData().isEnabled(), element.isEnabled());
+    }
+
+    @Test
+    public void shouldCreateTreeViewsWithoutChanges() {
+        final List<TreeNode> roots = compact.getRoots();
+
+        assertEquals(1, roots.size());
+        assertEquals(2, roots.get(0).getChildren().size());
+        assertEquals(3, compact.toViewSnapshot().getVersion());
+        assertTrue(new TreeDiffer().diff(snapshot, compact.toViewSnapshot()).isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DeviceShellTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private DeviceShell shell;
+
+    @Before
+    public void setUp() {
+        shell = TestHooks.newDeviceShell(new String[]{"sh"}, "emulator-5554", 2000);
+    }
+
+    @After
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Test
+    public void shouldKeepTheShellOpenAcrossCommands() throws Exception {
+        shell.run("FIELD=name");
+
+        assertEquals("name\n", shell.run("echo $FIELD"));
+        assertEquals("one\ntwo\n", shell.run("echo one && echo two"));
+    }
+
+    @Test
+    public void shouldFailOnNonZeroExitStatus() throws Exception {
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("'echo oops >&2; false' failed on emulator-5554 with exit code 1: oops");
+
+        shell.run("echo oops >&2; false");
+    }
+
+    @Test
+    public void shouldOpenANewShellWhenTheShellDies() throws Exception {
+        shell.run("FIELD=name");
+        try {
+            shell.run("exit 3");
+            fail("expected the command to fail");
+        } catch (CalabashException e) {
+            assertEquals("Shell of emulator-5554 was closed", e.getMessage());
+        }
+
+        assertEquals("\n", shell.run("echo $FIELD"));
+    }
+
+    @Test
+    public void shouldGiveUpOnCommandsWhichDoNotFinishInTime() throws Exception {
+        try {
+            shell.run("sleep 5");
+            fail("expected the command to time out");
+        } catch (CalabashException e) {
+            assertEquals("Shell of emulator-5554 did not answer in time", e.getMessage());
+        }
+
+        assertEquals("ok\n", shell.run("echo ok"));
+    }
+
+    @Test
+    public void shouldTypeThroughTheShell() throws Exception {
+        shell.run("input() { LAST=\"$LAST|$*\"; }");
+
+        final AtomicInteger typed = new AtomicInteger();
+        Keyboard keyboard = TestHooks.newKeyboard(shell, new Runnable() {
+            public void run() {
+                typed.incrementAndGet();
+            }
+        });
+
+        keyboard.type(new KeySequence().text("john doe").tab());
+        keyboard.pressBackspace();
+
+        assertEquals("|text john%sdoe|keyevent KEYCODE_TAB|keyevent KEYCODE_DEL\n", shell.run("echo \"$LAST\""));
+        assertEquals(2, typed.get());
+    }
+
+    @Test
+    public void shouldNotBlockOnWhatTheShellCommandPrintsToStandardError() throws Exception {
+        shell.close();
+        // more than a pipe buffer of errors before the shell starts reading commands
+        shell = TestHooks.newDeviceShell(new String[]{"sh", "-c",
+                "i=0; while [ $i -lt 5000 ]; do echo 'error: this line is written to standard error' >&2; i=$((i+1)); done; exec sh"},
+                "emulator-5554", 5000);
+
+        assertEquals("ok\n", shell.run("echo ok"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.junit.Assert.*;
+
+public class DumpScannerTest {
+
+    @Test
+    public void shouldVisitEachViewWithDepthAndParentRect() throws Exception {
+        final List<String> visited = new ArrayList<String>();
+        final List<Rect> parentRects = new ArrayList<Rect>();
+
+        new DumpScanner().scan(stream(readFileFromResources("nested-view-dump.json")), new DumpVisitor() {
+            public void visit(DumpNode node, int depth, Rect parentRect) {
+                visited.add(node.getId() + ":" + depth);
+                parentRects.add(parentRect);
+            }
+        });
+
+        // the dump lists children before the rect, so children are visited first
+        assertEquals(3, visited.size());
+        assertEquals("button:1", visited.get(0));
+        assertEquals("button1:1", visited.get(1));
+        assertEquals("null:0", visited.get(2));
+        assertEquals(1920.0, parentRects.get(0).getWidth(), 0);
+        assertNull(parentRects.get(2));
+    }
+
+    @Test
+    public void shouldReadPropertiesOfViews() throws Exception {
+        final String dump = "{\"children\": [{\"rect\": {\"x\": 0, \"y\": 0, \"width\": 100, \"height\": 50}, " +
+                "\"children\": [{\"type\": \"android.widget.Button\", \"id\": \"ok\", \"value\": \"OK\", \"label\": \"confirm\", " +
+                "\"enabled\": true, \"visible\": false, \"path\": [0, 1], \"action\": {\"type\": \"touch\"}, " +
+                "\"rect\": {\"x\": 10.5, \"y\": 2, \"width\": 20, \"height\": 10}, \"children\": []}]}]}";
+        final List<DumpNode> nodes = new ArrayList<DumpNode>();
+        final List<Rect> parentRects = new ArrayList<Rect>();
+
+        new DumpScanner().scan(stream(dump), new DumpVisitor() {
+            public void visit(DumpNode node, int depth, Rect parentRect) {
+                nodes.add(node);
+                parentRects.add(parentRect);
+            }
+        });
+
+        assertEquals(2, nodes.size());
+        final DumpNode button = nodes.get(0);
+        assertEquals("android.widget.Button", button.getElementClass());
+        assertEquals("ok", button.getId());
+        assertEquals("OK", button.getText());
+        assertEquals("confirm", button.getContentDescription());
+        assertTrue(button.isEnabled());
+        assertFalse(button.isVisible());
+        assertEquals(10.5, button.getRect().getX(), 0);
+        assertEquals(100.0, parentRects.get(0).getWidth(), 0);
+    }
+
+    @Test(expected = CalabashException.class)
+    public void shouldFailOnMalformedDump() throws Exception {
+        new DumpScanner().scan(stream("{\"children\": [{\"id\": "), new DumpVisitor() {
+            public void visit(DumpNode node, int depth, Rect parentRect) {
+            }
+        });
+    }
+
+    private ByteArrayInputStream stream(String dump) throws Exception {
+        return new ByteArrayInputStream(dump.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,108 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class FakeTestServerTest {
+
+    @Mock
+    private CalabashWrapper wrapper;
+    private FakeTestServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        server = new FakeTestServer().start();
+        when(wrapper.getTestServerPort()).thenReturn(String.valueOf(server.getPort()));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void shouldServeViewDumpFixture() throws Exception {
+        server.setViewDumpFromResource("nested-view-dump.json");
+
+        final String dump = new CalabashHttpClient(wrapper).getViewDump();
+
+        final ObjectMapper mapper = new ObjectMapper();
+        assertEquals(mapper.readTree(readFileFromResources("nested-view-dump.json")), mapper.readTree(dump));
+        assertEquals(1, server.getRequestCount("/dump"));
+    }
+
+    @Test
+    public void shouldBuildTreeFromServedDump() throws Exception {
+        server.setViewDump(40, 3);
+        final TreeBuilder treeBuilder = new TreeBuilder(wrapper, new CalabashHttpClient(wrapper), new TreeNodeBuilder(wrapper));
+
+        final List<TreeNode> tree = treeBuilder.createTree();
+
+        assertEquals(1, tree.size());
+        assertEquals("view0", tree.get(0).getData().getId());
+        assertEquals(3, tree.get(0).getChildren().size());
+    }
+
+    @Test
+    public void shouldDelayResponsesByLatency() throws Exception {
+        server.setLatency(100);
+        final long start = System.currentTimeMillis();
+
+        new CalabashHttpClient(wrapper).getViewDump();
+
+        assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+
+    @Test
+    public void shouldServeQueryResults() throws Exception {
+        server.setQueryResults("* id:'button'", "[{\"id\": \"button\"}]");
+
+        assertEquals("{\"outcome\": \"SUCCESS\", \"results\": [{\"id\": \"button\"}]}", post("/map", "{\"query\": \"* id:'button'\"}"));
+        assertEquals("{\"outcome\": \"SUCCESS\", \"results\": []}", post("/map", "{\"query\": \"* id:'other'\"}"));
+    }
+
+    @Test
+    public void shouldTimeStreamedDumpUntilItIsClosed() throws Exception {
+        final CalabashMetrics metrics = new CalabashMetrics();
+        when(wrapper.getMetrics()).thenReturn(metrics);
+        server.setViewDump(40, 3);
+
+        final InputStream dump = new CalabashHttpClient(wrapper).openViewDump();
+        IOUtils.toByteArray(dump);
+        assertEquals(0, metrics.getStatistics("openViewDump").getCount());
+        dump.close();
+        dump.close();
+
+        final LatencyStatistics statistics = metrics.getStatistics("openViewDump");
+        assertEquals(1, statistics.getCount());
+        assertEquals(0, statistics.getFailures());
+    }
+
+    private String post(String path, String body) throws Exception {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        final OutputStream out = connection.getOutputStream();
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        return IOUtils.toString(connection.getInputStream(), "UTF-8");
+    }
+}
@@ -0,0 +1,51 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class GestureBuilderTest {
+
+    private final Rect rect = new Rect(100.0, 200.0, 400.0, 100.0, 300.0, 250.0);
+
+    @Test
+    public void shouldBuildPathThroughSeveralPoints() {
+        Gesture gesture = new GestureBuilder().startAt(10, 10).lineTo(100, 10, 200).hold(50).lineTo(100, 300, 100).build();
+
+        assertEquals(1, gesture.getPointerCount());
+        assertEquals(Arrays.asList(new GesturePoint(10, 10, 0), new GesturePoint(100, 10, 200), new GesturePoint(100, 10, 250),
+                new GesturePoint(100, 300, 350)), gesture.getPointers().get(0));
+        assertEquals(350, gesture.getDurationInMs());
+    }
+
+    @Test
+    public void shouldUseCoordinatesRelativeToTheElement() {
+        Gesture gesture = GestureBuilder.swipe(rect, Direction.LEFT, 300);
+
+        assertEquals(Arrays.asList(new GesturePoint(460, 250, 0), new GesturePoint(140, 250, 300)), gesture.getPointers().get(0));
+    }
+
+    @Test
+    public void shouldTimeFlingsFromTheirVelocity() {
+        Gesture gesture = new GestureBuilder().startAt(500, 1500).fling(0, -1000, 5000).build();
+
+        assertEquals(new GesturePoint(500, 500, 200), gesture.getPointers().get(0).get(1));
+    }
+
+    @Test
+    public void shouldPinchWithTwoFingers() {
+        Gesture gesture = GestureBuilder.pinch(rect, 0.2, 0.8, 400);
+
+        assertEquals(2, gesture.getPointerCount());
+        assertEquals(Arrays.asList(new GesturePoint(260, 250, 0), new GesturePoint(140, 250, 400)), gesture.getPointers().get(0));
+        assertEquals(Arrays.asList(new GesturePoint(340, 250, 0), new GesturePoint(460, 250, 400)), gesture.getPointers().get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotMoveBeforeAFingerIsDown() {
+        new GestureBuilder().lineTo(10, 10, 100);
+    }
+}
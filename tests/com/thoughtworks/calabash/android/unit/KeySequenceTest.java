@@ -0,0 +1,75 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeySequenceTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldChainEventsInOneCommand() throws Exception {
+        KeySequence sequence = new KeySequence().text("john").tab().text(42).key(66);
+
+        assertEquals(Arrays.asList("input text 'john' && input keyevent KEYCODE_TAB && input text '42' && input keyevent 66"),
+                TestHooks.toShellCommands(sequence));
+    }
+
+    @Test
+    public void shouldEscapeSpacesAndQuotes() throws Exception {
+        List<String> commands = TestHooks.toShellCommands(new KeySequence().text("it's a $HOME; `ls`"));
+
+        assertEquals(Arrays.asList("input text 'it'\\''s%sa%s$HOME;%s`ls`'"), commands);
+    }
+
+    @Test
+    public void shouldTypeNewLinesAndTabsAsKeys() throws Exception {
+        List<String> commands = TestHooks.toShellCommands(new KeySequence().text("a\nb\t"));
+
+        assertEquals(Arrays.asList("input text 'a' && input keyevent KEYCODE_ENTER && input text 'b' && input keyevent KEYCODE_TAB"),
+                commands);
+    }
+
+    @Test
+    public void shouldSplitLongSequencesIntoSeveralCommands() throws Exception {
+        KeySequence sequence = new KeySequence();
+        for (int i = 0; i < 100; i++) {
+            sequence.text("field" + i).tab();
+        }
+
+        List<String> commands = TestHooks.toShellCommands(sequence);
+
+        assertTrue(commands.size() > 1);
+        StringBuilder joined = new StringBuilder();
+        for (String command : commands) {
+            assertTrue(command.length() <= TestHooks.getMaxKeyCommandLength());
+            joined.append(joined.length() == 0 ? "" : " && ").append(command);
+        }
+        assertTrue(joined.toString().startsWith("input text 'field0' && input keyevent KEYCODE_TAB && input text 'field1'"));
+        assertTrue(joined.toString().endsWith("input text 'field99' && input keyevent KEYCODE_TAB"));
+    }
+
+    @Test
+    public void shouldRejectCharactersInputCantType() throws Exception {
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("only printable ASCII is supported");
+
+        TestHooks.toShellCommands(new KeySequence().text("caf\u00e9"));
+    }
+
+    @Test
+    public void shouldRejectInvalidKeyCodes() throws Exception {
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("Invalid key code KEYCODE_A; reboot");
+
+        TestHooks.toShellCommands(new KeySequence().key("KEYCODE_A; reboot"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.apache.commons.io.FileUtils;
+import org.jruby.RubyArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KeyboardTest {
+
+    private static final String SERIAL = "emulator-5554";
+    private File directory;
+    private CalabashWrapper calabashWrapper;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("keyboard", "");
+        directory.delete();
+        new File(directory, "gems/calabash-android-0.0.0").mkdirs();
+        File apk = new File(directory, "app.apk");
+        apk.createNewFile();
+        // adb opens a local shell in which input logs what it types
+        File bin = new File(directory, "bin");
+        bin.mkdirs();
+        File typed = new File(directory, "typed");
+        script(bin, "input", "echo \"$*\" >> '" + typed.getAbsolutePath() + "'");
+        File adb = script(bin, "adb", "PATH='" + bin.getAbsolutePath() + "':$PATH exec sh");
+
+        Environment environment = mock(Environment.class);
+        when(environment.getAdb()).thenReturn(adb.getAbsolutePath());
+        AndroidConfiguration configuration = new AndroidConfiguration();
+        configuration.setQueryCacheTtlInMs(60000);
+        calabashWrapper = new CalabashWrapper(directory, apk, configuration, environment);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        calabashWrapper.dispose();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void shouldMissTheQueryCacheAfterTyping() throws Exception {
+        QueryCache queryCache = TestHooks.getQueryCache(calabashWrapper);
+        String key = QueryCache.key("* id:'name'");
+        queryCache.put(key, mock(RubyArray.class));
+        assertNotNull(queryCache.get(key));
+
+        calabashWrapper.getKeyboard(SERIAL).type(new KeySequence().text("john"));
+
+        assertNull(queryCache.get(key));
+        assertEquals(1, calabashWrapper.getActionCount());
+        assertEquals(1, calabashWrapper.getQueryCacheStatistics().getMisses());
+        assertEquals("text john\n", FileUtils.readFileToString(new File(directory, "typed")));
+    }
+
+    @Test
+    public void shouldCountEveryKeyPressAsAnAction() throws Exception {
+        Keyboard keyboard = calabashWrapper.getKeyboard(SERIAL);
+
+        keyboard.writeTextEvent("john");
+        keyboard.pressBackspace();
+
+        assertEquals(2, calabashWrapper.getActionCount());
+        assertEquals("text john\nkeyevent KEYCODE_DEL\n", FileUtils.readFileToString(new File(directory, "typed")));
+    }
+
+    private File script(File bin, String name, String body) throws Exception {
+        File script = new File(bin, name);
+        FileUtils.writeStringToFile(script, "#!/bin/sh\n" + body + "\n");
+        script.setExecutable(true);
+        return script;
+    }
+}
@@ -0,0 +1,89 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocalQueryEvaluatorTest {
+
+    private LocalQueryEvaluator evaluator;
+    private ViewSnapshot snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final CalabashHttpClient httpClient = mock(CalabashHttpClient.class);
+        when(httpClient.getViewDump()).thenReturn(readFileFromResources("nested-view-dump.json"));
+        final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper));
+        snapshot = new ViewSnapshot(treeBuilder.createTree(), 1, System.currentTimeMillis(), 0);
+        evaluator = new LocalQueryEvaluator();
+    }
+
+    @Test
+    public void shouldFindElementsById() {
+        final UIElements elements = evaluator.evaluate("* id:'button1'", snapshot);
+
+        assertEquals(1, elements.size());
+        assertEquals("android.widget.ImageView", elements.get(0).getElementClass());
+        assertEquals(positionOf("button1"), elements.get(0).getQuery());
+    }
+
+    @Test
+    public void shouldFindElementsByText() {
+        final UIElements elements = evaluator.evaluate("* text:'New Button'", snapshot);
+
+        assertEquals(2, elements.size());
+        assertEquals("button", elements.get(0).getId());
+    }
+
+    @Test
+    public void shouldLeaveStepsNamingAClassToTheDevice() {
+        // the device matches sub classes, like AppCompatButton for button
+        assertFalse(evaluator.isSupported("button text:'New Button'"));
+        assertFalse(evaluator.isSupported("* index:0 descendant imageview"));
+        assertFalse(evaluator.isSupported("android.widget.Button"));
+        assertNull(evaluator.evaluate("button text:'New Button'", snapshot));
+    }
+
+    @Test
+    public void shouldFindElementsByMarkAndIndex() {
+        final UIElements elements = evaluator.evaluate("* marked:'New Button' index:1", snapshot);
+
+        assertEquals(1, elements.size());
+        assertEquals("button1", elements.get(0).getId());
+        assertEquals(positionOf("button1"), elements.get(0).getQuery());
+    }
+
+    @Test
+    public void shouldFindChildrenAndDescendants() {
+        assertEquals(2, evaluator.evaluate("* index:0 child *", snapshot).size());
+        assertEquals(2, evaluator.evaluate("* index:0 descendant *", snapshot).size());
+        assertEquals(0, evaluator.evaluate("* id:'button' child *", snapshot).size());
+        assertEquals("button1", evaluator.evaluate("* index:0 descendant * id:'button1'", snapshot).get(0).getId());
+    }
+
+    @Test
+    public void shouldNotAnswerUnsupportedQueries() {
+        assertFalse(evaluator.isSupported("webView css:'#Server'"));
+        assertFalse(evaluator.isSupported("button {text BEGINSWITH 'New'}"));
+        assertFalse(evaluator.isSupported("all button"));
+        assertFalse(evaluator.isSupported("button parent *"));
+        assertNull(evaluator.evaluate("* contentDescription:'foo'", snapshot));
+    }
+
+    // query of the element in the view tree, which locates it on the device
+    private String positionOf(final String id) {
+        final UIElement element = TreeTraversal.traverse(snapshot.getRoots(), TraversalOrder.DEPTH_FIRST, new TraversalCallback() {
+            public TraversalAction onElement(UIElement element, int level) {
+                return id.equals(element.getId()) ? TraversalAction.STOP : TraversalAction.CONTINUE;
+            }
+        });
+        assertTrue(element.getQuery().startsWith("* index:0 child "));
+        return element.getQuery();
+    }
+}
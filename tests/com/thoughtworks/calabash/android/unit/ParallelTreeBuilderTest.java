@@ -0,0 +1,96 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.thoughtworks.calabash.android.TestUtils.createViewDump;
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ParallelTreeBuilderTest {
+
+    private CalabashWrapper wrapper;
+    private CalabashHttpClient httpClient;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        wrapper = mock(CalabashWrapper.class);
+        httpClient = mock(CalabashHttpClient.class);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldBuildTheSameTreeAsTheSerialBuilder() throws Exception {
+        when(httpClient.fetchViewDump()).thenReturn(createViewDump(2000, 3));
+
+        assertSameTrees(new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper)).fetchTree(),
+                new ParallelTreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper), executor, 4).fetchTree());
+    }
+
+    @Test
+    public void shouldLeaveOutInvisibleViews() throws Exception {
+        when(httpClient.fetchViewDump()).thenReturn(readFileFromResources("nested-invisible-view-dump.json"));
+
+        assertSameTrees(new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper)).fetchTree(),
+                new ParallelTreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper), executor, 4).fetchTree());
+    }
+
+    @Test
+    public void shouldReportAViewDumpWhichCantBeFetched() throws Exception {
+        when(httpClient.fetchViewDump()).thenThrow(new CalabashException("connection refused"));
+        try {
+            new ParallelTreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper), executor, 4).fetchTree();
+            fail("a failed dump is not an empty screen");
+        } catch (CalabashException e) {
+            assertEquals("connection refused", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldBuildQueriesFromThePositionInTheTree() throws Exception {
+        when(httpClient.fetchViewDump()).thenReturn(readFileFromResources("nested-view-dump.json"));
+
+        final TreeNode root = new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper)).fetchTree().get(0);
+
+        assertEquals("* index:0", root.getData().getQuery());
+        assertEquals("* index:0 child * index:1", root.getChildren().get(1).getData().getQuery());
+    }
+
+    private void assertSameTrees(List<TreeNode> expectedRoots, List<TreeNode> actualRoots) {
+        assertEquals(expectedRoots.size(), actualRoots.size());
+        final Deque<TreeNode[]> pending = new ArrayDeque<TreeNode[]>();
+        for (int i = 0; i < expectedRoots.size(); i++) {
+            pending.push(new TreeNode[]{expectedRoots.get(i), actualRoots.get(i)});
+        }
+        int compared = 0;
+        while (!pending.isEmpty()) {
+            final TreeNode[] pair = pending.pop();
+            assertEquals(pair[0].getData(), pair[1].getData());
+            assertEquals(pair[0].getData().getQuery(), pair[1].getData().getQuery());
+            assertEquals(pair[0].getChildren().size(), pair[1].getChildren().size());
+            for (int i = 0; i < pair[0].getChildren().size(); i++) {
+                pending.push(new TreeNode[]{pair[0].getChildren().get(i), pair[1].getChildren().get(i)});
+            }
+            compared++;
+        }
+        assertTrue(compared > 0);
+    }
+}
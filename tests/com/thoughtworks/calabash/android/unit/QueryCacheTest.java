@@ -0,0 +1,58 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.CacheStatistics;
+import com.thoughtworks.calabash.android.QueryCache;
+import org.jruby.RubyArray;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class QueryCacheTest {
+
+    @Test
+    public void shouldReturnCachedResultsAndCountHitsAndMisses() {
+        final QueryCache cache = new QueryCache(60000);
+        final RubyArray results = mock(RubyArray.class);
+
+        assertNull(cache.get(QueryCache.key("button", "text")));
+        cache.put(QueryCache.key("button", "text"), results);
+
+        assertSame(results, cache.get(QueryCache.key("button", "text")));
+        assertNull(cache.get(QueryCache.key("button")));
+        final CacheStatistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getHits());
+        assertEquals(2, statistics.getMisses());
+    }
+
+    @Test
+    public void shouldForgetResultsOnInvalidate() {
+        final QueryCache cache = new QueryCache(60000);
+        cache.put(QueryCache.key("button"), mock(RubyArray.class));
+
+        cache.invalidate();
+
+        assertNull(cache.get(QueryCache.key("button")));
+        assertEquals(1, cache.getStatistics().getInvalidations());
+    }
+
+    @Test
+    public void shouldForgetResultsAfterTimeToLive() throws Exception {
+        final QueryCache cache = new QueryCache(1);
+        cache.put(QueryCache.key("button"), mock(RubyArray.class));
+
+        Thread.sleep(10);
+
+        assertNull(cache.get(QueryCache.key("button")));
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() {
+        final QueryCache cache = new QueryCache(0);
+        cache.put(QueryCache.key("button"), mock(RubyArray.class));
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get(QueryCache.key("button")));
+        assertEquals(0, cache.getStatistics().getMisses());
+    }
+}
@@ -0,0 +1,166 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.thoughtworks.calabash.android.TestUtils.createTempDir;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ScreenRecorderTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private static final String SERIAL = "emulator-5554";
+    private AndroidBridge androidBridge;
+    private File directory;
+    private CountDownLatch stopped;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = createTempDir("screen-recording");
+        FileUtils.cleanDirectory(directory);
+        androidBridge = mock(AndroidBridge.class);
+        stopped = new CountDownLatch(1);
+        final AtomicInteger pids = new AtomicInteger(100);
+        when(androidBridge.readScreenRecordPid(any(Process.class))).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) {
+                return String.valueOf(pids.getAndIncrement());
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                stopped.countDown();
+                return null;
+            }
+        }).when(androidBridge).stopScreenRecord(eq(SERIAL), anyString());
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                FileUtils.writeStringToFile((File) invocation.getArguments()[2], (String) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(androidBridge).pullFile(eq(SERIAL), anyString(), any(File.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void shouldRollOverToNewSegmentsAndPullThem() throws Exception {
+        segmentsLast(100);
+        ScreenRecorder recorder = TestHooks.newScreenRecorder(androidBridge, SERIAL, new ScreenRecordingOptions(directory), "no-such-ffmpeg");
+
+        recorder.start();
+        Thread.sleep(450);
+        ScreenRecording recording = recorder.stop();
+
+        assertNull(recording.getVideo());
+        assertTrue(recording.getSegments().size() >= 3);
+        for (File segment : recording.getSegments()) {
+            assertTrue(segment.exists());
+        }
+        assertTrue(new File(directory, "segments.txt").exists());
+        verify(androidBridge, atLeast(3)).startScreenRecord(eq(SERIAL), anyString(), eq(180));
+        verify(androidBridge, times(recording.getSegments().size())).removeFile(eq(SERIAL), anyString());
+    }
+
+    @Test
+    public void shouldKeepOnlyTheLastSeconds() throws Exception {
+        segmentsLast(200);
+        ScreenRecorder recorder = TestHooks.newScreenRecorder(androidBridge, SERIAL, new ScreenRecordingOptions(directory, 1), "no-such-ffmpeg");
+
+        recorder.start();
+        Thread.sleep(2000);
+        ScreenRecording recording = recorder.stop();
+
+        assertTrue(recording.getDurationInMs() >= 1000);
+        assertTrue(recording.getDurationInMs() < 1500);
+        assertFalse(new File(directory, "segment-0000.mp4").exists());
+        assertEquals(recording.getSegments().size(), directory.listFiles().length - 1);
+        verify(androidBridge, atLeastOnce()).startScreenRecord(eq(SERIAL), anyString(), eq(1));
+    }
+
+    @Test
+    public void shouldReturnASingleSegmentAsTheVideo() throws Exception {
+        Process process = process(new Answer<Integer>() {
+            public Integer answer(InvocationOnMock invocation) throws Exception {
+                stopped.await(5, TimeUnit.SECONDS);
+                return 0;
+            }
+        });
+        when(androidBridge.startScreenRecord(eq(SERIAL), anyString(), anyInt())).thenReturn(process);
+        ScreenRecorder recorder = TestHooks.newScreenRecorder(androidBridge, SERIAL, new ScreenRecordingOptions(directory), "no-such-ffmpeg");
+
+        recorder.start();
+        ScreenRecording recording = recorder.stop();
+
+        assertEquals(new File(directory, "segment-0000.mp4"), recording.getVideo());
+        assertTrue(recording.getVideo().exists());
+    }
+
+    @Test
+    public void shouldStopOnlyTheScreenrecordOfTheSegmentBeingRecorded() throws Exception {
+        segmentsLast(100);
+        ScreenRecorder recorder = TestHooks.newScreenRecorder(androidBridge, SERIAL, new ScreenRecordingOptions(directory), "no-such-ffmpeg");
+
+        recorder.start();
+        Thread.sleep(250);
+        ScreenRecording recording = recorder.stop();
+
+        String lastPid = String.valueOf(100 + recording.getSegments().size() - 1);
+        verify(androidBridge).stopScreenRecord(SERIAL, lastPid);
+        verify(androidBridge, times(1)).stopScreenRecord(eq(SERIAL), anyString());
+    }
+
+    @Test
+    public void shouldFailWhenScreenrecordFails() throws Exception {
+        Process process = process(new Answer<Integer>() {
+            public Integer answer(InvocationOnMock invocation) {
+                return 1;
+            }
+        });
+        when(androidBridge.startScreenRecord(eq(SERIAL), anyString(), anyInt())).thenReturn(process);
+        ScreenRecorder recorder = TestHooks.newScreenRecorder(androidBridge, SERIAL, new ScreenRecordingOptions(directory), "no-such-ffmpeg");
+        recorder.start();
+        Thread.sleep(100);
+
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("screenrecord failed on emulator-5554 with exit code 1");
+
+        recorder.stop();
+    }
+
+    private void segmentsLast(final long durationInMs) throws Exception {
+        when(androidBridge.startScreenRecord(eq(SERIAL), anyString(), anyInt())).thenAnswer(new Answer<Process>() {
+            public Process answer(InvocationOnMock invocation) throws Exception {
+                return process(new Answer<Integer>() {
+                    public Integer answer(InvocationOnMock invocation) throws Exception {
+                        stopped.await(durationInMs, TimeUnit.MILLISECONDS);
+                        return 0;
+                    }
+                });
+            }
+        });
+    }
+
+    private Process process(Answer<Integer> waitFor) throws Exception {
+        Process process = mock(Process.class);
+        when(process.waitFor()).thenAnswer(waitFor);
+        return process;
+    }
+}
@@ -0,0 +1,177 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.Rect;
+import com.thoughtworks.calabash.android.Screenshot;
+import com.thoughtworks.calabash.android.ScreenshotDiff;
+import com.thoughtworks.calabash.android.ScreenshotDiffer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ScreenshotDifferTest {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 300;
+
+    @Test
+    public void shouldMatchIdenticalScreenshots() throws Exception {
+        ScreenshotDiff diff = new ScreenshotDiffer().diff(screen(new int[WIDTH * HEIGHT]), screen(new int[WIDTH * HEIGHT]));
+
+        assertTrue(diff.isMatching());
+        assertEquals(0, diff.getDifferentPixels());
+        assertEquals(WIDTH * HEIGHT, diff.getComparedPixels());
+    }
+
+    @Test
+    public void shouldFindTheTileWithDifferentPixels() throws Exception {
+        int[] changed = gradient();
+        fill(changed, 70, 140, 10, 10, 0xff0000);
+
+        ScreenshotDiff diff = new ScreenshotDiffer().diff(screen(gradient()), screen(changed));
+
+        assertFalse(diff.isMatching());
+        assertEquals(100, diff.getDifferentPixels());
+        assertEquals(Arrays.asList(new Rect(64.0, 128.0, 64.0, 64.0, 96.0, 160.0)), diff.getDifferentRegions());
+    }
+
+    @Test
+    public void shouldIgnoreChangesWithinTolerance() throws Exception {
+        int[] changed = gradient(3);
+        ScreenshotDiffer differ = new ScreenshotDiffer();
+        differ.setChannelTolerance(4);
+
+        assertTrue(differ.diff(screen(gradient()), screen(changed)).isMatching());
+    }
+
+    @Test
+    public void shouldNotRejectNoiseWithinToleranceByTheHash() throws Exception {
+        int[] flat = new int[WIDTH * HEIGHT];
+        int[] noisy = new int[WIDTH * HEIGHT];
+        Random random = new Random(42);
+        for (int i = 0; i < flat.length; i++) {
+            int gray = 128 + random.nextInt(3) - 1;
+            flat[i] = 128 << 16 | 128 << 8 | 128;
+            noisy[i] = gray << 16 | gray << 8 | gray;
+        }
+        ScreenshotDiffer differ = new ScreenshotDiffer();
+        differ.setChannelTolerance(4);
+
+        ScreenshotDiff diff = differ.diff(screen(flat), screen(noisy));
+
+        assertTrue(diff.isMatching());
+        assertEquals(0, diff.getHashDistance());
+        assertEquals(0, diff.getDifferentPixels());
+    }
+
+    @Test
+    public void shouldMatchWhenFewPixelsDifferWithinRatio() throws Exception {
+        int[] changed = gradient();
+        fill(changed, 0, 0, 6, 10, 0xffffff);
+        ScreenshotDiffer differ = new ScreenshotDiffer();
+        differ.setMaxDifferentRatio(0.001);
+
+        ScreenshotDiff diff = differ.diff(screen(gradient()), screen(changed));
+
+        assertTrue(diff.isMatching());
+        assertEquals(60, diff.getDifferentPixels());
+    }
+
+    @Test
+    public void shouldLeaveMaskedRegionsOut() throws Exception {
+        int[] changed = gradient();
+        fill(changed, 10, 10, 30, 20, 0x00ff00);
+        ScreenshotDiffer differ = new ScreenshotDiffer();
+        differ.mask(new Rect(10.0, 10.0, 30.0, 20.0, 25.0, 20.0));
+
+        ScreenshotDiff diff = differ.diff(screen(gradient()), screen(changed));
+
+        assertTrue(diff.isMatching());
+        assertEquals(WIDTH * HEIGHT - 600, diff.getComparedPixels());
+    }
+
+    @Test
+    public void shouldRejectScreenshotsWithDistantHashesWithoutComparingPixels() throws Exception {
+        int[] inverted = gradient();
+        for (int i = 0; i < inverted.length; i++) {
+            inverted[i] = ~inverted[i] & 0xffffff;
+        }
+
+        ScreenshotDiff diff = new ScreenshotDiffer().diff(screen(gradient()), screen(inverted));
+
+        assertFalse(diff.isMatching());
+        assertTrue(diff.getHashDistance() > 12);
+        assertEquals(-1, diff.getDifferentPixels());
+    }
+
+    @Test
+    public void shouldReportScreenshotsOfDifferentSizes() throws Exception {
+        ScreenshotDiff diff = new ScreenshotDiffer().diff(screen(gradient()), Screenshot.fromRaw(raw(new int[4], 2, 2)));
+
+        assertFalse(diff.isMatching());
+        assertEquals(1.0, diff.getDifferentRatio(), 0);
+    }
+
+    @Test
+    public void shouldCompareTilesInParallel() throws Exception {
+        int[] changed = gradient();
+        fill(changed, 150, 250, 40, 40, 0x0000ff);
+        fill(changed, 0, 0, 5, 5, 0x0000ff);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ScreenshotDiff sequential = new ScreenshotDiffer().diff(screen(gradient()), screen(changed));
+            ScreenshotDiff parallel = new ScreenshotDiffer(executor).diff(screen(gradient()), screen(changed));
+
+            assertEquals(sequential.getDifferentPixels(), parallel.getDifferentPixels());
+            assertEquals(sequential.getDifferentRegions(), parallel.getDifferentRegions());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int[] gradient() {
+        return gradient(0);
+    }
+
+    private int[] gradient(int brightness) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int gray = (x + y) * 240 / (WIDTH + HEIGHT) + brightness;
+                pixels[y * WIDTH + x] = gray << 16 | gray << 8 | gray;
+            }
+        }
+        return pixels;
+    }
+
+    private void fill(int[] pixels, int left, int top, int width, int height, int rgb) {
+        for (int y = top; y < top + height; y++) {
+            for (int x = left; x < left + width; x++) {
+                pixels[y * WIDTH + x] = rgb;
+            }
+        }
+    }
+
+    private Screenshot screen(int[] rgb) throws Exception {
+        return Screenshot.fromRaw(raw(rgb, WIDTH, HEIGHT));
+    }
+
+    private byte[] raw(int[] rgb, int width, int height) {
+        byte[] raw = new byte[12 + rgb.length * 4];
+        int[] header = {width, height, 1};
+        for (int i = 0; i < 12; i++) {
+            raw[i] = (byte) (header[i / 4] >>> (8 * (i % 4)));
+        }
+        for (int i = 0, p = 12; i < rgb.length; i++, p += 4) {
+            raw[p] = (byte) (rgb[i] >> 16);
+            raw[p + 1] = (byte) (rgb[i] >> 8);
+            raw[p + 2] = (byte) rgb[i];
+            raw[p + 3] = (byte) 0xff;
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,156 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.CalabashException;
+import com.thoughtworks.calabash.android.Screenshot;
+import com.thoughtworks.calabash.android.ScreenshotListener;
+import com.thoughtworks.calabash.android.ScreenshotSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.Future;
+
+import static com.thoughtworks.calabash.android.TestUtils.createTempDir;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ScreenshotTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldReadRawScreencapWithOldHeader() throws Exception {
+        Screenshot screenshot = Screenshot.fromRaw(rawScreencap(2, 1, 12));
+
+        assertTrue(screenshot.isRaw());
+        assertEquals(2, screenshot.getWidth());
+        assertEquals(1, screenshot.getHeight());
+        BufferedImage image = screenshot.toBufferedImage();
+        assertEquals(0xffff0000, image.getRGB(0, 0));
+        assertEquals(0xff00ff00, image.getRGB(1, 0));
+    }
+
+    @Test
+    public void shouldReadRawScreencapWithColorSpaceHeader() throws Exception {
+        Screenshot screenshot = Screenshot.fromRaw(rawScreencap(2, 1, 16));
+
+        assertEquals(0xff00ff00, screenshot.toBufferedImage().getRGB(1, 0));
+    }
+
+    @Test
+    public void shouldRoundTripThroughPng() throws Exception {
+        byte[] png = Screenshot.fromRaw(rawScreencap(2, 1, 12)).toPng();
+
+        Screenshot screenshot = Screenshot.fromPng(png);
+
+        assertEquals(2, screenshot.getWidth());
+        assertEquals(1, screenshot.getHeight());
+        byte[] rgba = screenshot.getRgba();
+        assertEquals((byte) 0xff, rgba[0]);
+        assertEquals((byte) 0xff, rgba[5]);
+    }
+
+    @Test
+    public void shouldFailForTruncatedScreencap() throws Exception {
+        byte[] raw = rawScreencap(2, 2, 12);
+        byte[] truncated = new byte[raw.length - 3];
+        System.arraycopy(raw, 0, truncated, 0, truncated.length);
+
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("screencap returned 25 bytes for 2x2");
+
+        Screenshot.fromRaw(truncated);
+    }
+
+    @Test
+    public void shouldWritePngInBackgroundAndNotifyListener() throws Exception {
+        ScreenshotListener listener = mock(ScreenshotListener.class);
+        ScreenshotSink sink = new ScreenshotSink(listener);
+        File dir = createTempDir("screenshots");
+
+        File file = sink.submit(Screenshot.fromRaw(rawScreencap(2, 1, 12)), dir, "step1").get();
+        sink.close();
+
+        assertEquals("step1.png", file.getName());
+        assertEquals(2, ImageIO.read(file).getWidth());
+        verify(listener).screenshotTaken(file.getAbsolutePath(), "image/png", "step1.png");
+        file.delete();
+    }
+
+    @Test
+    public void shouldReferenceEarlierFileForIdenticalScreenshots() throws Exception {
+        ScreenshotListener listener = mock(ScreenshotListener.class);
+        ScreenshotSink sink = new ScreenshotSink(listener, 2, 1);
+        File dir = createTempDir("screenshots");
+
+        File first = sink.submit(Screenshot.fromRaw(rawScreencap(2, 1, 12)), dir, "step1").get();
+        Future<File> second = sink.submit(Screenshot.fromRaw(rawScreencap(2, 1, 12)), dir, "step2");
+        Future<File> third = sink.submit(Screenshot.fromRaw(rawScreencap(1, 2, 12)), dir, "step3");
+        sink.close();
+
+        assertEquals(first, second.get());
+        assertFalse(new File(dir, "step2.png").exists());
+        assertEquals("step3.png", third.get().getName());
+        assertEquals(2, sink.getWrittenCount());
+        assertEquals(1, sink.getDuplicateCount());
+        verify(listener, times(2)).screenshotTaken(first.getAbsolutePath(), "image/png", "step1.png");
+        first.delete();
+        third.get().delete();
+    }
+
+    @Test
+    public void shouldWriteAgainWhenDedupedFileWasOverwritten() throws Exception {
+        ScreenshotSink sink = new ScreenshotSink(null, 1, 1);
+        File dir = createTempDir("screenshots");
+
+        File first = sink.submit(Screenshot.fromRaw(rawScreencap(2, 1, 12)), dir, "step1").get();
+        sink.submit(Screenshot.fromRaw(rawScreencap(1, 2, 12)), dir, "step1").get();
+        File again = sink.submit(Screenshot.fromRaw(rawScreencap(2, 1, 12)), dir, "step2").get();
+        sink.close();
+
+        assertEquals("step2.png", again.getName());
+        assertEquals(2, ImageIO.read(again).getWidth());
+        assertEquals(1, ImageIO.read(first).getWidth());
+        assertEquals(0, sink.getDuplicateCount());
+        first.delete();
+        again.delete();
+    }
+
+    @Test
+    public void shouldFailToSubmitOnceClosed() throws Exception {
+        ScreenshotSink sink = new ScreenshotSink(null);
+        sink.close();
+
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("Could not queue screenshot step1");
+
+        sink.submit(Screenshot.fromRaw(rawScreencap(2, 1, 12)), createTempDir("screenshots"), "step1");
+    }
+
+    // red and green pixels alternating
+    private byte[] rawScreencap(int width, int height, int headerSize) {
+        byte[] raw = new byte[headerSize + width * height * 4];
+        writeInt(raw, 0, width);
+        writeInt(raw, 4, height);
+        writeInt(raw, 8, 1);
+        for (int i = 0; i < width * height; i++) {
+            int p = headerSize + i * 4;
+            raw[p + (i % 2 == 0 ? 0 : 1)] = (byte) 0xff;
+            raw[p + 3] = (byte) 0xff;
+        }
+        return raw;
+    }
+
+    private void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
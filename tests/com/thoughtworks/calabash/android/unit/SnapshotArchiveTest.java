@@ -0,0 +1,111 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.thoughtworks.calabash.android.TestUtils.createViewDump;
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SnapshotArchiveTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private CalabashWrapper wrapper;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        wrapper = mock(CalabashWrapper.class);
+        file = File.createTempFile("snapshots", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldReadBackAnyStep() throws Exception {
+        final List<TreeNode> nested = createTree(readFileFromResources("nested-view-dump.json"));
+        final List<TreeNode> large = createTree(createViewDump(500, 3));
+        final SnapshotArchiveWriter writer = new SnapshotArchiveWriter(file);
+        assertEquals(0, writer.append(nested, 1000L));
+        assertEquals(1, writer.append(large, 2000L));
+        writer.close();
+
+        final SnapshotArchiveReader reader = new SnapshotArchiveReader(file);
+        assertEquals(2, reader.size());
+        assertEquals(2000L, reader.getTakenAt(1));
+        assertSameTree(large, new TreeBuilder(wrapper, mock(CalabashHttpClient.class), new TreeNodeBuilder(wrapper)).createTreeFrom(reader, 1));
+        assertSameTree(nested, reader.read(0, wrapper));
+        reader.close();
+        assertTrue(file.length() < createViewDump(500, 3).length() / 10);
+    }
+
+    @Test
+    public void shouldKeepQueriesWhichCannotBeDerivedAndRectsWithFractions() throws Exception {
+        final HashMap<Object, Object> data = new HashMap<Object, Object>();
+        data.put("id", "foo");
+        final HashMap<String, String> rect = new HashMap<String, String>();
+        rect.put("x", "0.3");
+        rect.put("y", "1");
+        rect.put("width", "2");
+        rect.put("height", "3");
+        rect.put("center_x", "1.3");
+        rect.put("center_y", "2.5");
+        data.put("rect", rect);
+        final TreeNode root = new TreeNode(new UIElement(data, "* id:'foo'", wrapper));
+        root.appendChild(new TreeNode(new UIElement(new HashMap<Object, Object>(), "* id:'foo' child * index:0", wrapper)));
+        final SnapshotArchiveWriter writer = new SnapshotArchiveWriter(file);
+        writer.append(Collections.singletonList(root), 0L);
+        writer.close();
+
+        final SnapshotArchiveReader reader = new SnapshotArchiveReader(file);
+        final TreeNode read = reader.read(0, wrapper).get(0);
+        reader.close();
+
+        assertEquals("* id:'foo'", read.getData().getQuery());
+        assertEquals(0.3, read.getData().getRect().getX(), 0);
+        assertEquals("* id:'foo' child * index:0", read.getChildren().get(0).getData().getQuery());
+        assertNull(read.getChildren().get(0).getData().getRect());
+    }
+
+    @Test
+    public void shouldFailOnArchiveWhichWasNotClosed() throws Exception {
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("archive was not closed");
+
+        final SnapshotArchiveWriter writer = new SnapshotArchiveWriter(file);
+        writer.append(createTree(createViewDump(50, 3)), 0L);
+
+        new SnapshotArchiveReader(file);
+    }
+
+    private List<TreeNode> createTree(String dump) {
+        final CalabashHttpClient httpClient = mock(CalabashHttpClient.class);
+        when(httpClient.getViewDump()).thenReturn(dump);
+        return new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper)).createTree();
+    }
+
+    private void assertSameTree(List<TreeNode> expected, List<TreeNode> actual) {
+        final ViewSnapshot before = new ViewSnapshot(expected, 1, 0, 0);
+        final ViewSnapshot after = new ViewSnapshot(actual, 2, 0, 0);
+        assertTrue(new TreeDiffer().diff(before, after).isEmpty());
+        assertEquals(expected.get(0).getChildren().get(0).getData().getQuery(),
+                actual.get(0).getChildren().get(0).getData().getQuery());
+    }
+}
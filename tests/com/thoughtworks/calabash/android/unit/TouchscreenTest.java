@@ -0,0 +1,210 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TouchscreenTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private static final String GETEVENT = "add device 1: /dev/input/event0\n" +
+            "  name:     \"qwerty2\"\n" +
+            "  events:\n" +
+            "    KEY (0001): KEY_ESC KEY_1\n" +
+            "add device 2: /dev/input/event1\n" +
+            "  name:     \"virtio_input_multi_touch_1\"\n" +
+            "  events:\n" +
+            "    KEY (0001): BTN_TOUCH\n" +
+            "    ABS (0003): ABS_X                 : value 0, min 0, max 32767, fuzz 0, flat 0, resolution 0\n" +
+            "                ABS_Y                 : value 0, min 0, max 32767, fuzz 0, flat 0, resolution 0\n" +
+            "                ABS_MT_SLOT           : value 0, min 0, max 9, fuzz 0, flat 0, resolution 0\n" +
+            "                ABS_MT_POSITION_X     : value 0, min 0, max 1079, fuzz 0, flat 0, resolution 0\n" +
+            "                ABS_MT_POSITION_Y     : value 0, min 0, max 1919, fuzz 0, flat 0, resolution 0\n" +
+            "                ABS_MT_TRACKING_ID    : value 0, min 0, max 65535, fuzz 0, flat 0, resolution 0\n" +
+            "  input props:\n" +
+            "    INPUT_PROP_DIRECT\n" +
+            "Physical size: 1080x1920\n" +
+            "abi: x86_64\n";
+    // the uptime the device shell reads, stopped
+    private static final String STOPPED_CLOCK = "read() { eval \"$1=100.00\"; }";
+
+    private DeviceShell shell;
+
+    @Before
+    public void setUp() {
+        // plays scripts locally, into a file instead of the touchscreen
+        shell = TestHooks.newDeviceShell(new String[]{"sh"}, "emulator-5554", 2000);
+    }
+
+    @After
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Test
+    public void shouldFindTheMultiTouchScreen() throws Exception {
+        assertEquals(10, TestHooks.getTouchscreenMaxPointers(GETEVENT));
+        assertTrue(TestHooks.touchscreenScript(GETEVENT, GestureBuilder.swipe(0, 0, 1, 1, 1)).startsWith("D=/dev/input/event1\n"));
+    }
+
+    @Test
+    public void shouldWriteSwipeAsOneReportPerFrame() throws Exception {
+        String played = play(GestureBuilder.swipe(100, 1000, 100, 920, 80), 0);
+
+        String[] lines = played.split("\n");
+        assertEquals("3 47 0", lines[0]);
+        assertTrue(lines[1].startsWith("3 57 "));
+        assertEquals("3 53 100", lines[2]);
+        assertEquals("3 54 1000", lines[3]);
+        assertEquals("1 330 1", lines[4]);
+        assertEquals("0 0 0", lines[5]);
+        assertEquals("sleep 0.040", lines[6]);
+        assertEquals("3 47 0", lines[7]);
+        assertEquals("3 53 100", lines[8]);
+        assertEquals("3 54 960", lines[9]);
+        assertTrue(played.endsWith("sleep 0.081\n3 47 0\n3 57 -1\n1 330 0\n0 0 0\n"));
+    }
+
+    @Test
+    public void shouldWriteTheRecordsOf32BitDevices() throws Exception {
+        String discovery = GETEVENT.replace("abi: x86_64", "abi: armeabi-v7a");
+
+        String played = play(discovery, 8, GestureBuilder.swipe(100, 1000, 100, 920, 80), 0, STOPPED_CLOCK);
+
+        assertTrue(played.startsWith("3 47 0\n"));
+        assertTrue(played.endsWith("1 330 0\n0 0 0\n"));
+    }
+
+    @Test
+    public void shouldMapCoordinatesOfTheRotationTheScriptReads() throws Exception {
+        Gesture gesture = new GestureBuilder().startAt(1919, 0).hold(10).build();
+
+        assertTrue(play(gesture, 1).contains("3 53 1079\n3 54 1919\n"));
+        assertTrue(play(gesture, 3).contains("3 53 0\n3 54 0\n"));
+    }
+
+    @Test
+    public void shouldPlayTheNaturalOrientationWhenTheRotationIsUnknown() throws Exception {
+        Gesture gesture = new GestureBuilder().startAt(100, 200).hold(10).build();
+
+        assertTrue(play(GETEVENT, 16, gesture, -1, STOPPED_CLOCK).contains("3 53 100\n3 54 200\n"));
+    }
+
+    @Test
+    public void shouldPlayEveryFrameAtItsTimeInTheGesture() throws Exception {
+        Gesture fling = new GestureBuilder().startAt(500, 1500).fling(0, -1000, 5000).build();
+
+        String played = play(fling, 0);
+
+        long previousInMs = 0;
+        int frames = 0;
+        for (String line : played.split("\n")) {
+            if (line.equals("0 0 0"))
+                frames++;
+            if (!line.startsWith("sleep "))
+                continue;
+            long waitInMs = Math.round(Double.parseDouble(line.substring("sleep ".length())) * 1000);
+            assertTrue(waitInMs - previousInMs <= TestHooks.getGestureFrameInMs());
+            previousInMs = waitInMs;
+        }
+        // with the clock stopped every wait lasts until the time of its frame
+        assertEquals(200, fling.getDurationInMs());
+        assertEquals(fling.getDurationInMs() + 1, previousInMs);
+        assertEquals(7, frames);
+    }
+
+    @Test
+    public void shouldTakeTheTimeSpentWritingOutOfTheWaits() throws Exception {
+        Gesture swipe = GestureBuilder.swipe(100, 1000, 100, 920, 80);
+        // 30 ms pass before the first wait, 1 s before the next ones
+        String clock = "n=0; read() { n=$((n + 1)); case $n in 1) eval \"$1=100.00\";; 2) eval \"$1=100.03\";; " +
+                "*) eval \"$1=101.00\";; esac; }";
+
+        String played = play(GETEVENT, 16, swipe, 0, clock);
+
+        assertTrue(played.contains("0 0 0\nsleep 0.010\n3 47 0\n"));
+        assertEquals(1, played.split("sleep ").length - 1);
+    }
+
+    @Test
+    public void shouldRejectGesturesWithMoreFingersThanTheScreenTracks() throws Exception {
+        String singleTouch = "add device 1: /dev/input/event2\n" +
+                "    KEY (0001): BTN_TOUCH\n" +
+                "    ABS (0003): ABS_X : value 0, min 0, max 4095, fuzz 0, flat 0, resolution 0\n" +
+                "                ABS_Y : value 0, min 0, max 4095, fuzz 0, flat 0, resolution 0\n" +
+                "Physical size: 480x800\n";
+
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("Gesture uses 2 fingers but the touchscreen of the device tracks 1");
+
+        TestHooks.touchscreenScript(singleTouch, GestureBuilder.pinch(new Rect(0.0, 0.0, 480.0, 800.0, 240.0, 400.0), 0.2, 0.6, 100));
+    }
+
+    @Test
+    public void shouldFailWithoutATouchscreen() throws Exception {
+        expectedException.expect(CalabashException.class);
+        expectedException.expectMessage("Could not find a touchscreen on the device");
+
+        TestHooks.getTouchscreenMaxPointers("add device 1: /dev/input/event0\n    KEY (0001): KEY_ESC\nPhysical size: 480x800\n");
+    }
+
+    private String play(Gesture gesture, int rotation) throws Exception {
+        return play(GETEVENT, 16, gesture, rotation, STOPPED_CLOCK);
+    }
+
+    /**
+     * Plays the script with the touchscreen and the sleeps going to the same file
+     *
+     * @param timeSize size of the time of each record
+     * @return a line per event, with its type, code and value, and per sleep
+     */
+    private String play(String discovery, int timeSize, Gesture gesture, int rotation, String clock) throws Exception {
+        File events = File.createTempFile("touchscreen", ".events");
+        try {
+            String orientation = rotation < 0 ? ":" : "echo '      SurfaceOrientation: " + rotation + "'";
+            shell.run("dumpsys() { " + orientation + "; }; " + clock + "; " +
+                    "sleep() { printf 'sleep %s\\n' \"$1\" >> " + events.getAbsolutePath() + "; }");
+            shell.run(TestHooks.touchscreenScript(discovery, gesture)
+                    .replace("D=/dev/input/event1\n", "D=" + events.getAbsolutePath() + "\n"));
+            return decode(FileUtils.readFileToByteArray(events), timeSize);
+        } finally {
+            events.delete();
+        }
+    }
+
+    private String decode(byte[] bytes, int timeSize) {
+        StringBuilder decoded = new StringBuilder();
+        int position = 0;
+        while (position < bytes.length) {
+            if (bytes[position] == 's') {
+                int end = position;
+                while (bytes[end] != '\n') {
+                    end++;
+                }
+                decoded.append(new String(bytes, position, end + 1 - position));
+                position = end + 1;
+                continue;
+            }
+            for (int i = 0; i < timeSize; i++) {
+                assertEquals(0, bytes[position + i]);
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes, position + timeSize, 8).order(ByteOrder.LITTLE_ENDIAN);
+            decoded.append(record.getShort() & 0xffff).append(' ').append(record.getShort() & 0xffff).append(' ')
+                    .append(record.getInt()).append('\n');
+            position += timeSize + 8;
+        }
+        return decoded.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.TraceRecorder;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.thoughtworks.calabash.android.TestUtils.createTempDir;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRecorderTest {
+
+    @Test
+    public void shouldWriteSpansOfDeviceAndRunAsCompleteEvents() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(16);
+        recorder.end(recorder.begin(), "setup", "setup", null);
+        recorder.operationCompleted("query", "emulator-5554", 2000000, true);
+        recorder.operationCompleted("adb shell getprop", "emulator-5554", 1000000, false);
+        recorder.operationCompleted("touch", "emulator-5556", 1000000, true);
+
+        List<String> names = spanNames(write(recorder, "emulator-5554"));
+
+        assertEquals(3, names.size());
+        assertTrue(names.contains("setup"));
+        assertTrue(names.contains("query"));
+        assertTrue(names.contains("adb shell getprop (failed)"));
+    }
+
+    @Test
+    public void shouldKeepOnlyTheLatestSpansWhenFull() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(2);
+        recorder.end(recorder.begin(), "device", "first", "emulator-5554");
+        recorder.end(recorder.begin(), "device", "second", "emulator-5554");
+        recorder.end(recorder.begin(), "device", "third", "emulator-5554");
+
+        List<String> names = spanNames(write(recorder, "emulator-5554"));
+
+        assertEquals(3, recorder.getRecordedCount());
+        assertEquals(2, names.size());
+        assertFalse(names.contains("first"));
+    }
+
+    @Test
+    public void shouldWriteOneTracePerDevice() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(16);
+        recorder.operationCompleted("query", "emulator-5554", 1000, true);
+        recorder.operationCompleted("query", "emulator-5556", 1000, true);
+        File dir = createTempDir("traces");
+
+        List<File> files = recorder.writeChromeTraces(dir);
+
+        assertEquals(2, files.size());
+        assertEquals("trace-emulator-5554.json", files.get(0).getName());
+        assertEquals("trace-emulator-5556.json", files.get(1).getName());
+        for (File file : files) {
+            assertTrue(new ObjectMapper().readTree(file).get("traceEvents").isArray());
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldRecordNothingWhenDisabled() {
+        TraceRecorder.DISABLED.end(TraceRecorder.DISABLED.begin(), "device", "query", "emulator-5554");
+        TraceRecorder.DISABLED.operationCompleted("query", "emulator-5554", 1000, true);
+
+        assertEquals(0, TraceRecorder.DISABLED.getRecordedCount());
+    }
+
+    private JsonNode write(TraceRecorder recorder, String serial) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeChromeTrace(out, serial);
+        return new ObjectMapper().readTree(out.toString("UTF-8"));
+    }
+
+    private List<String> spanNames(JsonNode trace) {
+        List<String> names = new ArrayList<String>();
+        for (JsonNode event : trace.get("traceEvents")) {
+            if (event.get("ph").getTextValue().equals("X"))
+                names.add(event.get("name").getTextValue());
+        }
+        return names;
+    }
+}
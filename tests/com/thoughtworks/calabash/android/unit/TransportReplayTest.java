@@ -0,0 +1,149 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class TransportReplayTest {
+
+    private FakeTestServer server;
+    private File rbScriptsPath;
+    private File apk;
+    private File recording;
+    private volatile int port;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeTestServer().start();
+        port = server.getPort();
+        rbScriptsPath = File.createTempFile("scripts", "");
+        rbScriptsPath.delete();
+        new File(rbScriptsPath, "gems/calabash-android-0.0.0").mkdirs();
+        apk = File.createTempFile("app", ".apk");
+        recording = File.createTempFile("transport", ".jsonl");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        FileUtils.deleteDirectory(rbScriptsPath);
+        apk.delete();
+        recording.delete();
+    }
+
+    @Test
+    public void shouldReplayDumpsOfTheSameCallInRecordedOrder() throws Exception {
+        CalabashWrapper recorder = recordingWrapper(new AndroidConfiguration());
+        server.setViewDump("{\"children\":[]}");
+        new CalabashHttpClient(recorder).fetchViewDump();
+        server.setViewDump(2, 1);
+        String second = new CalabashHttpClient(recorder).fetchViewDump();
+        recorder.dispose();
+
+        CalabashWrapper replayer = replayingWrapper(new AndroidConfiguration(), ReplayTiming.AS_FAST_AS_POSSIBLE);
+        assertEquals("{\"children\":[]}", new CalabashHttpClient(replayer).fetchViewDump());
+        assertEquals(second, new CalabashHttpClient(replayer).fetchViewDump());
+        try {
+            new CalabashHttpClient(replayer).fetchViewDump();
+            fail("nothing more was recorded");
+        } catch (CalabashException e) {
+            assertEquals("No recorded response left for dump ", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldReplayRecordedFailuresAtTheSameCall() throws Exception {
+        CalabashWrapper recorder = recordingWrapper(new AndroidConfiguration());
+        port = unusedPort();
+        String message = null;
+        try {
+            new TreeBuilder(recorder).fetchTree();
+            fail("the server is not running");
+        } catch (CalabashException e) {
+            message = e.getMessage();
+        }
+        port = server.getPort();
+        server.setViewDump(3, 1);
+        int recordedRoots = new TreeBuilder(recorder).fetchTree().size();
+        recorder.dispose();
+
+        CalabashWrapper replayer = replayingWrapper(new AndroidConfiguration(), ReplayTiming.AS_FAST_AS_POSSIBLE);
+        try {
+            new TreeBuilder(replayer).fetchTree();
+            fail("the recorded failure should be replayed");
+        } catch (CalabashException e) {
+            assertEquals(message, e.getMessage());
+        }
+        assertEquals(recordedRoots, new TreeBuilder(replayer).fetchTree().size());
+    }
+
+    @Test
+    public void shouldMakeTheSameCallsWhenReplayingWithTimeBasedCaches() throws Exception {
+        AndroidConfiguration configuration = new AndroidConfiguration();
+        configuration.setViewSnapshotMaxAgeInMs(60000);
+        configuration.setQueryCacheTtlInMs(60000);
+        server.setViewDump(3, 1);
+        CalabashWrapper recorder = recordingWrapper(configuration);
+        recorder.getViewSnapshotService().snapshot();
+        recorder.getViewSnapshotService().snapshot();
+        recorder.dispose();
+
+        assertEquals(0, recorder.getQueryCacheTtlInMs());
+        assertEquals(2, server.getRequestCount("/dump"));
+
+        CalabashWrapper replayer = replayingWrapper(configuration, ReplayTiming.AS_FAST_AS_POSSIBLE);
+        assertEquals(1, replayer.getViewSnapshotService().snapshot().getRoots().size());
+        assertEquals(1, replayer.getViewSnapshotService().snapshot().getRoots().size());
+        assertEquals(0, replayer.getQueryCacheTtlInMs());
+    }
+
+    @Test
+    public void shouldWaitForRecordedLatency() throws Exception {
+        server.setLatency(50);
+        CalabashWrapper recorder = recordingWrapper(new AndroidConfiguration());
+        new CalabashHttpClient(recorder).fetchViewDump();
+        recorder.dispose();
+
+        CalabashWrapper replayer = replayingWrapper(new AndroidConfiguration(), ReplayTiming.RECORDED);
+        long start = System.currentTimeMillis();
+        new CalabashHttpClient(replayer).fetchViewDump();
+
+        assertTrue(System.currentTimeMillis() - start >= 45);
+    }
+
+    private CalabashWrapper recordingWrapper(AndroidConfiguration configuration) throws Exception {
+        configuration.setRecordingFile(recording);
+        return wrapper(configuration);
+    }
+
+    private CalabashWrapper replayingWrapper(AndroidConfiguration configuration, ReplayTiming timing) throws Exception {
+        configuration.setRecordingFile(null);
+        configuration.setReplayFile(recording, timing);
+        return wrapper(configuration);
+    }
+
+    private CalabashWrapper wrapper(AndroidConfiguration configuration) throws Exception {
+        // the test server port is the only call which needs the calabash gem
+        return new CalabashWrapper(rbScriptsPath, apk, configuration, mock(Environment.class)) {
+            @Override
+            public String getTestServerPort() {
+                return String.valueOf(port);
+            }
+        };
+    }
+
+    private static int unusedPort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int unused = socket.getLocalPort();
+        socket.close();
+        return unused;
+    }
+}
@@ -36,7 +36,7 @@ public class TreeBuilderTest {
         final TreeNode firstLevel = getMockedTreeNodeWithElement();
 
         when(httpClient.getViewDump()).thenReturn(dump);
-        when(treeNodeBuilder.buildFrom(any(JsonNode.class), anyString())).thenReturn(root).thenReturn(firstLevel);
+        when(treeNodeBuilder.buildAt(any(JsonNode.class), any(QueryPath.class))).thenReturn(root).thenReturn(firstLevel);
         final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, treeNodeBuilder);
 
         List<TreeNode> tree = treeBuilder.createTree();
@@ -53,7 +53,7 @@ public class TreeBuilderTest {
         final TreeNode firstLevelChild2 = getMockedTreeNodeWithElement();
 
         when(httpClient.getViewDump()).thenReturn(dump);
-        when(treeNodeBuilder.buildFrom(any(JsonNode.class), anyString())).thenReturn(root).thenReturn(firstLevelChild1).thenReturn(firstLevelChild2);
+        when(treeNodeBuilder.buildAt(any(JsonNode.class), any(QueryPath.class))).thenReturn(root).thenReturn(firstLevelChild1).thenReturn(firstLevelChild2);
         final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, treeNodeBuilder);
 
         List<TreeNode> tree = treeBuilder.createTree();
@@ -75,7 +75,7 @@ public class TreeBuilderTest {
         final TreeNode visibleChild = mock(TreeNode.class);
 
         when(httpClient.getViewDump()).thenReturn(dump);
-        when(treeNodeBuilder.buildFrom(any(JsonNode.class), anyString())).thenReturn(root).thenReturn(visibleChild);
+        when(treeNodeBuilder.buildAt(any(JsonNode.class), any(QueryPath.class))).thenReturn(root).thenReturn(visibleChild);
         final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, treeNodeBuilder);
 
         List<TreeNode> tree = treeBuilder.createTree();
@@ -86,7 +86,7 @@ public class TreeBuilderTest {
         List<TreeNode> capturedTreeNodes = treeNodeCaptor.getAllValues();
         assertEquals(visibleChild, capturedTreeNodes.get(0));
 
-        verify(treeNodeBuilder, times(2)).buildFrom(any(JsonNode.class), anyString());
+        verify(treeNodeBuilder, times(2)).buildAt(any(JsonNode.class), any(QueryPath.class));
 
         verify(root).appendChild(visibleChild);
     }
@@ -99,18 +99,18 @@ public class TreeBuilderTest {
         final TreeNode firstLevelChild2 = getMockedTreeNodeWithElement();
 
         when(httpClient.getViewDump()).thenReturn(dump);
-        when(treeNodeBuilder.buildFrom(any(JsonNode.class), anyString())).thenReturn(root).thenReturn(firstLevelChild1).thenReturn(firstLevelChild2);
+        when(treeNodeBuilder.buildAt(any(JsonNode.class), any(QueryPath.class))).thenReturn(root).thenReturn(firstLevelChild1).thenReturn(firstLevelChild2);
 
         final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, treeNodeBuilder);
         treeBuilder.createTree();
 
-        final ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
-        verify(treeNodeBuilder, times(3)).buildFrom(any(JsonNode.class), queryCaptor.capture());
+        final ArgumentCaptor<QueryPath> queryCaptor = ArgumentCaptor.forClass(QueryPath.class);
+        verify(treeNodeBuilder, times(3)).buildAt(any(JsonNode.class), queryCaptor.capture());
 
-        final List<String> queries = queryCaptor.getAllValues();
-        assertEquals("* index:0", queries.get(0));
-        assertEquals("* index:0 child * index:0", queries.get(1));
-        assertEquals("* index:0 child * index:1", queries.get(2));
+        final List<QueryPath> queries = queryCaptor.getAllValues();
+        assertEquals("* index:0", queries.get(0).toString());
+        assertEquals("* index:0 child * index:0", queries.get(1).toString());
+        assertEquals("* index:0 child * index:1", queries.get(2).toString());
 
     }
 
@@ -122,17 +122,17 @@ public class TreeBuilderTest {
         final TreeNode firstLevelChild2 = getMockedTreeNodeWithElement();
 
         when(httpClient.getViewDump()).thenReturn(dump);
-        when(treeNodeBuilder.buildFrom(any(JsonNode.class), anyString())).thenReturn(root).thenReturn(firstLevelChild1).thenReturn(firstLevelChild2);
+        when(treeNodeBuilder.buildAt(any(JsonNode.class), any(QueryPath.class))).thenReturn(root).thenReturn(firstLevelChild1).thenReturn(firstLevelChild2);
 
         final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, treeNodeBuilder);
         treeBuilder.createTree();
 
-        final ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
-        verify(treeNodeBuilder, times(2)).buildFrom(any(JsonNode.class), queryCaptor.capture());
+        final ArgumentCaptor<QueryPath> queryCaptor = ArgumentCaptor.forClass(QueryPath.class);
+        verify(treeNodeBuilder, times(2)).buildAt(any(JsonNode.class), queryCaptor.capture());
 
-        final List<String> queries = queryCaptor.getAllValues();
-        assertEquals("* index:0", queries.get(0));
-        assertEquals("* index:0 child * index:0", queries.get(1));
+        final List<QueryPath> queries = queryCaptor.getAllValues();
+        assertEquals("* index:0", queries.get(0).toString());
+        assertEquals("* index:0 child * index:0", queries.get(1).toString());
     }
 
     @Test
@@ -0,0 +1,72 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.thoughtworks.calabash.android.TestUtils.readFileFromResources;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TreeDifferTest {
+
+    private CalabashWrapper wrapper;
+    private String dump;
+
+    @Before
+    public void setUp() throws Exception {
+        wrapper = mock(CalabashWrapper.class);
+        dump = readFileFromResources("nested-view-dump.json");
+    }
+
+    @Test
+    public void shouldFindNoChangesBetweenIdenticalDumps() throws Exception {
+        final ViewDiff diff = new TreeDiffer().diff(snapshotOf(dump), snapshotOf(dump));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void shouldReportChangedAndMovedElements() throws Exception {
+        final String changed = dump.replaceFirst("\"value\": \"New Button\"", "\"value\": \"Pressed\"")
+                .replaceFirst("\"x\": 371", "\"x\": 380");
+
+        final ViewDiff diff = new TreeDiffer().diff(snapshotOf(dump), snapshotOf(changed));
+
+        final List<ViewChange> changes = diff.getChanges(ViewChange.Type.CHANGED);
+        assertEquals(1, changes.size());
+        assertEquals("New Button", changes.get(0).getBefore().getData().getText());
+        assertEquals("Pressed", changes.get(0).getAfter().getData().getText());
+        final List<ViewChange> moves = diff.getChanges(ViewChange.Type.MOVED);
+        assertEquals(1, moves.size());
+        assertEquals("button1", moves.get(0).getAfter().getData().getId());
+        assertEquals(2, diff.getChanges().size());
+    }
+
+    @Test
+    public void shouldReportAddedAndRemovedElements() throws Exception {
+        final String renamed = dump.replaceFirst("\"id\": \"button1\"", "\"id\": \"other\"");
+
+        final ViewDiff diff = new TreeDiffer().diff(snapshotOf(dump), snapshotOf(renamed));
+
+        final List<ViewChange> added = diff.getChanges(ViewChange.Type.ADDED);
+        final List<ViewChange> removed = diff.getChanges(ViewChange.Type.REMOVED);
+        assertEquals(1, added.size());
+        assertEquals("other", added.get(0).getAfter().getData().getId());
+        assertNull(added.get(0).getBefore());
+        assertEquals(1, removed.size());
+        assertEquals("button1", removed.get(0).getBefore().getData().getId());
+    }
+
+    private ViewSnapshot snapshotOf(String viewDump) throws Exception {
+        final CalabashHttpClient httpClient = mock(CalabashHttpClient.class);
+        when(httpClient.getViewDump()).thenReturn(viewDump);
+        final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper));
+        return new ViewSnapshot(treeBuilder.createTree(), 1, System.currentTimeMillis(), 0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+public class TreeTraversalTest {
+
+    private final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+    private List<TreeNode> roots;
+
+    @Before
+    public void setUp() {
+        // a -> (b -> (d, e), c)
+        final TreeNode a = node("a");
+        final TreeNode b = node("b");
+        b.appendChild(node("d"));
+        b.appendChild(node("e"));
+        a.appendChild(b);
+        a.appendChild(node("c"));
+        roots = Collections.singletonList(a);
+    }
+
+    @Test
+    public void shouldVisitDepthFirstAndBreadthFirst() {
+        assertEquals("a0 b1 d2 e2 c1", visit(TraversalOrder.DEPTH_FIRST, null, null));
+        assertEquals("a0 b1 c1 d2 e2", visit(TraversalOrder.BREADTH_FIRST, null, null));
+    }
+
+    @Test
+    public void shouldSkipChildrenAndStop() {
+        assertEquals("a0 b1 c1", visit(TraversalOrder.DEPTH_FIRST, "b", null));
+        assertEquals("a0 b1 c1", visit(TraversalOrder.BREADTH_FIRST, null, "c"));
+    }
+
+    @Test
+    public void shouldReturnTheElementItStoppedAt() {
+        final UIElement found = TreeTraversal.traverse(roots, TraversalOrder.DEPTH_FIRST, new TraversalCallback() {
+            public TraversalAction onElement(UIElement element, int nestingLevel) {
+                return element.getId().equals("e") ? TraversalAction.STOP : TraversalAction.CONTINUE;
+            }
+        });
+
+        assertEquals("e", found.getId());
+        assertNull(TreeTraversal.traverse(roots, TraversalOrder.DEPTH_FIRST, new TraversalCallback() {
+            public TraversalAction onElement(UIElement element, int nestingLevel) {
+                return TraversalAction.CONTINUE;
+            }
+        }));
+    }
+
+    @Test
+    public void shouldTraverseDeepTreesWithoutOverflowingTheStack() {
+        final TreeNode root = node("0");
+        TreeNode current = root;
+        for (int i = 1; i < 100000; i++) {
+            final TreeNode child = node(String.valueOf(i));
+            current.appendChild(child);
+            current = child;
+        }
+        final int[] visited = {0};
+
+        TreeTraversal.traverse(Collections.singletonList(root), TraversalOrder.DEPTH_FIRST, new TraversalCallback() {
+            public TraversalAction onElement(UIElement element, int nestingLevel) {
+                visited[0]++;
+                return TraversalAction.CONTINUE;
+            }
+        });
+
+        assertEquals(100000, visited[0]);
+    }
+
+    private String visit(TraversalOrder order, final String skip, final String stop) {
+        final List<String> visited = new ArrayList<String>();
+        TreeTraversal.traverse(roots, order, new TraversalCallback() {
+            public TraversalAction onElement(UIElement element, int nestingLevel) {
+                visited.add(element.getId() + nestingLevel);
+                if (element.getId().equals(skip))
+                    return TraversalAction.SKIP_CHILDREN;
+                return element.getId().equals(stop) ? TraversalAction.STOP : TraversalAction.CONTINUE;
+            }
+        });
+        final StringBuilder result = new StringBuilder();
+        for (String element : visited) {
+            result.append(result.length() == 0 ? "" : " ").append(element);
+        }
+        return result.toString();
+    }
+
+    private TreeNode node(String id) {
+        final HashMap<Object, Object> data = new HashMap<Object, Object>();
+        data.put("id", id);
+        return new TreeNode(new UIElement(data, "* id:'" + id + "'", wrapper));
+    }
+}
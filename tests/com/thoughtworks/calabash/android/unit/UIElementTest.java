@@ -1,13 +1,27 @@
 package com.thoughtworks.calabash.android.unit;
 
+import com.thoughtworks.calabash.android.CalabashException;
 import com.thoughtworks.calabash.android.CalabashWrapper;
+import com.thoughtworks.calabash.android.ConditionalWaiter;
+import com.thoughtworks.calabash.android.CalabashHttpClient;
+import com.thoughtworks.calabash.android.ICondition;
+import com.thoughtworks.calabash.android.TreeBuilder;
+import com.thoughtworks.calabash.android.TreeNode;
+import com.thoughtworks.calabash.android.TreeNodeBuilder;
+import com.thoughtworks.calabash.android.ViewSnapshotService;
 import com.thoughtworks.calabash.android.UIElement;
+import com.thoughtworks.calabash.android.UIElements;
 import org.jruby.RubyArray;
+import org.jruby.RubyHash;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.*;
 
 public class UIElementTest {
@@ -35,4 +49,140 @@ public class UIElementTest {
         verify(wrapper).query("query", contentDescriptionField);
         assertEquals(contentDescriptionValue, contentDescription);
     }
+
+    @Test
+    public void shouldFetchManyPropertiesInOneCallAndCacheThemUntilNextAction() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final RubyArray results = mock(RubyArray.class);
+        final RubyArray textResult = mock(RubyArray.class);
+        final RubyArray hintResult = mock(RubyArray.class);
+        when(textResult.get(0)).thenReturn("text");
+        when(hintResult.get(0)).thenReturn("hint");
+        when(results.get(0)).thenReturn(textResult);
+        when(results.get(1)).thenReturn(hintResult);
+        when(wrapper.queryProperties("query", "text", "hint")).thenReturn(results);
+        when(wrapper.getActionCount()).thenReturn(0L);
+        when(wrapper.getQueryCacheTtlInMs()).thenReturn(60000L);
+        final UIElement element = new UIElement(new HashMap<Object, Object>(), "query", wrapper);
+
+        Map<String, Object> properties = element.getProperties("text", "hint");
+        element.getProperties("text", "hint");
+
+        assertEquals("text", properties.get("text"));
+        assertEquals("hint", properties.get("hint"));
+        verify(wrapper, times(1)).queryProperties("query", "text", "hint");
+
+        when(wrapper.getActionCount()).thenReturn(1L);
+        element.getProperties("text", "hint");
+        verify(wrapper, times(2)).queryProperties("query", "text", "hint");
+    }
+
+    @Test
+    public void shouldNotCachePropertiesUnlessTheQueryCacheIsEnabled() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final RubyArray results = propertyResults("text", "hint");
+        when(wrapper.queryProperties("query", "text", "hint")).thenReturn(results);
+        final UIElement element = new UIElement(new HashMap<Object, Object>(), "query", wrapper);
+
+        element.getProperties("text", "hint");
+        element.getProperties("text", "hint");
+
+        verify(wrapper, times(2)).queryProperties("query", "text", "hint");
+    }
+
+    @Test
+    public void shouldExpireCachedPropertiesAfterTheTtl() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final RubyArray results = propertyResults("text", "hint");
+        when(wrapper.queryProperties("query", "text", "hint")).thenReturn(results);
+        when(wrapper.getQueryCacheTtlInMs()).thenReturn(50L);
+        final UIElement element = new UIElement(new HashMap<Object, Object>(), "query", wrapper);
+
+        element.getProperties("text", "hint");
+        element.getProperties("text", "hint");
+        verify(wrapper, times(1)).queryProperties("query", "text", "hint");
+
+        Thread.sleep(100);
+        element.getProperties("text", "hint");
+        verify(wrapper, times(2)).queryProperties("query", "text", "hint");
+    }
+
+    @Test
+    public void shouldObserveDeviceChangesWhileWaitingWithoutAnAction() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final RubyArray loading = propertyResults("loading", "hint");
+        final RubyArray loaded = propertyResults("loaded", "hint");
+        when(wrapper.queryProperties("query", "text", "hint")).thenReturn(loading, loading, loaded);
+        when(wrapper.getQueryCacheTtlInMs()).thenReturn(60000L);
+        when(wrapper.getActionCount()).thenReturn(0L);
+        final UIElement element = new UIElement(new HashMap<Object, Object>(), "query", wrapper);
+        assertEquals("loading", element.getProperties("text", "hint").get("text"));
+
+        when(wrapper.isWaiting()).thenReturn(true);
+        new ConditionalWaiter(new ICondition("text is loaded") {
+            @Override
+            public boolean test() throws CalabashException {
+                return "loaded".equals(element.getProperties("text", "hint").get("text"));
+            }
+        }).run(5000);
+
+        verify(wrapper, times(3)).queryProperties("query", "text", "hint");
+    }
+
+    @Test
+    public void shouldBuildTreeFromElementQueriesWhenNoSnapshotIsHeld() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final CalabashHttpClient httpClient = mock(CalabashHttpClient.class);
+        when(wrapper.getTestServerPort()).thenReturn("34777");
+        final TreeBuilder treeBuilder = new TreeBuilder(wrapper, httpClient, new TreeNodeBuilder(wrapper));
+        when(wrapper.getViewSnapshotService()).thenReturn(new ViewSnapshotService(wrapper, treeBuilder, 0));
+        final RubyHash rubyElement = mock(RubyHash.class);
+        when(rubyElement.keySet()).thenReturn(Collections.emptySet());
+        final RubyArray elements = mock(RubyArray.class);
+        when(elements.size()).thenReturn(1);
+        when(elements.get(0)).thenReturn(rubyElement);
+        when(wrapper.query("query descendant *")).thenReturn(elements);
+        when(wrapper.query("query descendant * index:0 parent *")).thenReturn(elements);
+        final UIElement element = new UIElement(new HashMap<Object, Object>(), "query", wrapper);
+
+        final TreeNode tree = element.getTree();
+
+        assertNotNull(tree);
+        verify(wrapper).query("query descendant *");
+        verify(httpClient, never()).getViewDump();
+        verify(httpClient, never()).fetchViewDump();
+    }
+
+    @Test
+    public void shouldFetchPropertiesOfAReorderedListElementByElement() throws Exception {
+        final CalabashWrapper wrapper = mock(CalabashWrapper.class);
+        final RubyHash rubyElement = mock(RubyHash.class);
+        when(rubyElement.keySet()).thenReturn(Collections.emptySet());
+        final RubyArray elements = mock(RubyArray.class);
+        when(elements.size()).thenReturn(2);
+        when(elements.get(anyInt())).thenReturn(rubyElement);
+        final RubyArray first = propertyResults("first", "hint");
+        final RubyArray second = propertyResults("second", "hint");
+        when(wrapper.queryProperties("query index:0", "text", "hint")).thenReturn(first);
+        when(wrapper.queryProperties("query index:1", "text", "hint")).thenReturn(second);
+        final UIElements uiElements = new UIElements(elements, "query", wrapper);
+
+        Collections.reverse(uiElements);
+        final List<Map<String, Object>> properties = uiElements.getProperties("text", "hint");
+
+        assertEquals("second", properties.get(0).get("text"));
+        assertEquals("first", properties.get(1).get("text"));
+        verify(wrapper, never()).queryProperties("query", "text", "hint");
+    }
+
+    private RubyArray propertyResults(String text, String hint) {
+        final RubyArray results = mock(RubyArray.class);
+        final RubyArray textResult = mock(RubyArray.class);
+        final RubyArray hintResult = mock(RubyArray.class);
+        when(textResult.get(0)).thenReturn(text);
+        when(hintResult.get(0)).thenReturn(hint);
+        when(results.get(0)).thenReturn(textResult);
+        when(results.get(1)).thenReturn(hintResult);
+        return results;
+    }
 }
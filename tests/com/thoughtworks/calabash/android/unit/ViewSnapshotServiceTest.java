@@ -0,0 +1,175 @@
+package com.thoughtworks.calabash.android.unit;
+
+import com.thoughtworks.calabash.android.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class ViewSnapshotServiceTest {
+
+    @Mock
+    private CalabashWrapper wrapper;
+    @Mock
+    private TreeBuilder treeBuilder;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        when(treeBuilder.fetchTree()).thenReturn(new ArrayList<TreeNode>());
+    }
+
+    @Test
+    public void shouldReuseSnapshotWithinMaxAge() throws Exception {
+        final ViewSnapshotService service = new ViewSnapshotService(wrapper, treeBuilder, 0);
+
+        final ViewSnapshot first = service.snapshot(60000);
+        final ViewSnapshot second = service.snapshot(60000);
+
+        assertSame(first, second);
+        verify(treeBuilder, times(1)).fetchTree();
+    }
+
+    @Test
+    public void shouldFetchNewSnapshotAfterAnAction() throws Exception {
+        final ViewSnapshotService service = new ViewSnapshotService(wrapper, treeBuilder, 0);
+        when(wrapper.getActionCount()).thenReturn(0L);
+        final ViewSnapshot first = service.snapshot(60000);
+
+        when(wrapper.getActionCount()).thenReturn(1L);
+        final ViewSnapshot second = service.snapshot(60000);
+
+        assertNotSame(first, second);
+        assertTrue(second.getVersion() > first.getVersion());
+        verify(treeBuilder, times(2)).fetchTree();
+    }
+
+    @Test
+    public void shouldFetchNewSnapshotAfterInvalidate() throws Exception {
+        final ViewSnapshotService service = new ViewSnapshotService(wrapper, treeBuilder, 60000);
+        service.snapshot();
+
+        service.invalidate();
+        service.snapshot();
+
+        verify(treeBuilder, times(2)).fetchTree();
+    }
+
+    @Test
+    public void shouldShareInFlightFetchBetweenConcurrentCallers() throws Exception {
+        final CountDownLatch fetchStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFetch = new CountDownLatch(1);
+        when(treeBuilder.fetchTree()).thenAnswer(new Answer<List<TreeNode>>() {
+            public List<TreeNode> answer(InvocationOnMock invocation) throws Throwable {
+                fetchStarted.countDown();
+                releaseFetch.await(5, TimeUnit.SECONDS);
+                return new ArrayList<TreeNode>();
+            }
+        });
+        final ViewSnapshotService service = new ViewSnapshotService(wrapper, treeBuilder, 0);
+        final ViewSnapshot[] snapshots = new ViewSnapshot[2];
+        Thread first = new Thread(new SnapshotTaker(service, snapshots, 0));
+        Thread second = new Thread(new SnapshotTaker(service, snapshots, 1));
+
+        first.start();
+        fetchStarted.await(5, TimeUnit.SECONDS);
+        second.start();
+        Thread.sleep(100);
+        releaseFetch.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        assertNotNull(snapshots[0]);
+        assertSame(snapshots[0], snapshots[1]);
+        verify(treeBuilder, times(1)).fetchTree();
+    }
+
+    @Test
+    public void shouldNotHoldASnapshotOfAFailedDump() throws Exception {
+        when(treeBuilder.fetchTree()).thenThrow(new CalabashException("connection refused"))
+                .thenReturn(new ArrayList<TreeNode>());
+        final ViewSnapshotService service = new ViewSnapshotService(wrapper, treeBuilder, 60000);
+
+        try {
+            service.snapshot();
+            fail("a failed dump should not be reported as a snapshot");
+        } catch (CalabashException e) {
+            assertEquals("connection refused", e.getMessage());
+        }
+        assertNull(service.peek());
+
+        assertNotNull(service.snapshot());
+        verify(treeBuilder, times(2)).fetchTree();
+    }
+
+    @Test
+    public void shouldPeekOnlyAtAFreshHeldSnapshotWithoutFetching() throws Exception {
+        final ViewSnapshotService service = new ViewSnapshotService(wrapper, treeBuilder, 60000);
+        assertNull(service.peek());
+        verify(treeBuilder, never()).fetchTree();
+
+        final ViewSnapshot snapshot = service.snapshot();
+        assertSame(snapshot, service.peek());
+
+        when(wrapper.getActionCount()).thenReturn(1L);
+        assertNull(service.peek());
+        verify(treeBuilder, times(1)).fetchTree();
+    }
+
+    private static class SnapshotTaker implements Runnable {
+        private final ViewSnapshotService service;
+        private final ViewSnapshot[] snapshots;
+        private final int index;
+
+        private SnapshotTaker(ViewSnapshotService service, ViewSnapshot[] snapshots, int index) {
+            this.service = service;
+            this.snapshots = snapshots;
+            this.index = index;
+        }
+
+        public void run() {
+            try {
+                snapshots[index] = service.snapshot(0);
+            } catch (CalabashException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Test
+    public void shouldGiveRootElementsOfTheirOwnToCallers() throws Exception {
+        final TreeNode root = new TreeNode();
+        root.appendChild(new TreeNode());
+        final List<TreeNode> roots = new ArrayList<TreeNode>();
+        roots.add(root);
+        when(treeBuilder.fetchTree()).thenReturn(roots);
+        final ViewSnapshotService service = new ViewSnapshotService(wrapper, treeBuilder, 60000);
+        when(wrapper.getViewSnapshotService()).thenReturn(service);
+        final ViewSnapshot snapshot = service.snapshot();
+        roots.clear();
+
+        final List<TreeNode> rootElements = new AndroidApplication(wrapper, "emulator-5554").getRootElements();
+        rootElements.get(0).getChildren().clear();
+        rootElements.clear();
+
+        assertSame(snapshot, service.snapshot());
+        assertEquals(1, snapshot.getRoots().size());
+        assertEquals(1, snapshot.getRoots().get(0).getChildren().size());
+        try {
+            snapshot.getRoots().clear();
+            fail("the roots of a snapshot are shared");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(1, snapshot.getRoots().size());
+        }
+    }
+}